@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import hudson.util.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Feeds a synthetic xcodebuild log of {@link #LINES} lines, made by repeating the XCTest_output_*.txt test
+ * resources, through {@link XCodeBuildOutputParser}, including the marshalling of the JUnit reports. The reports
+ * are not written to disk, so that the figures do not depend on the file system; {@code ReportBenchmark} covers
+ * the report writing on its own. One operation is one line, so the score is in lines per second and the gc profiler's
+ * {@code gc.alloc.rate.norm} is the number of bytes allocated per line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OutputParserBenchmark {
+    static final int LINES = 1 << 20;
+    /**
+     * The size of the writes the launcher hands to the parser.
+     */
+    private static final int CHUNK = 8192;
+
+    private static final String[] SERIAL_LOGS = {
+        "/XCTest_output_crashing_1.txt",
+        "/XCTest_output_failing_1.txt",
+        "/XCTest_output_failing_2.txt",
+        "/XCTest_output_passing_1.txt",
+    };
+
+    private byte[] serialLog;
+    private byte[] parallelLog;
+
+    @Setup
+    public void setUp() throws IOException {
+        serialLog = scale(SERIAL_LOGS);
+        parallelLog = scale("/XCTest_output_parallel_1.txt");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int parse() throws Exception {
+        return parse(serialLog, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int parseParallelTesting() throws Exception {
+        return parse(parallelLog, true);
+    }
+
+    private int parse(byte[] log, boolean parallelTesting) throws Exception {
+        XCodeBuildOutputParser parser = new XCodeBuildOutputParser(new File("."), new NullOutputStream()) {
+            @Override
+            protected OutputStream outputForReport(String fileName) {
+                return new NullOutputStream();
+            }
+        };
+        parser.setParallelTesting(parallelTesting);
+        OutputStream out = parser.getOutputStream();
+        for (int off = 0; off < log.length; off += CHUNK) {
+            out.write(log, off, Math.min(CHUNK, log.length - off));
+        }
+        parser.awaitReports();
+        return parser.getReportedTests();
+    }
+
+    /**
+     * Concatenates the given logs as many times as it takes to make {@link #LINES} lines.
+     */
+    static byte[] scale(String... resources) throws IOException {
+        List<byte[]> logs = new ArrayList<>();
+        for (String resource : resources) {
+            try (InputStream in = OutputParserBenchmark.class.getResourceAsStream(resource)) {
+                byte[] log = IOUtils.toByteArray(in);
+                if (log.length > 0 && log[log.length - 1] != '\n') {
+                    log = Arrays.copyOf(log, log.length + 1);
+                    log[log.length - 1] = '\n';
+                }
+                logs.add(log);
+            }
+        }
+
+        ByteArrayOutputStream scaled = new ByteArrayOutputStream();
+        int lines = 0;
+        while (lines < LINES) {
+            for (byte[] log : logs) {
+                int start = 0;
+                for (int i = 0; i < log.length && lines < LINES; i++) {
+                    if (log[i] == '\n') {
+                        scaled.write(log, start, i + 1 - start);
+                        start = i + 1;
+                        lines++;
+                    }
+                }
+            }
+        }
+        return scaled.toByteArray();
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
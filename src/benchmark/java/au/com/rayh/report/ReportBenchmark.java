@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.report;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks writing the JUnit report of one suite: with a new {@link JAXBContext} per suite, as the parser used
+ * to do, with the shared context of {@link ReportMarshaller}, and through a {@link TestSuiteWriter} that spools
+ * the test cases first, as the parser does now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReportBenchmark {
+    @Param({"20", "1000"})
+    public int cases;
+
+    private TestSuite suite;
+    private TestSuite spooledSuite;
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        suite = createSuite(cases);
+        spooledSuite = createSuite(0);
+    }
+
+    @Benchmark
+    public void marshalWithNewContext() throws JAXBException {
+        JAXBContext.newInstance(TestSuite.class).createMarshaller().marshal(suite, out);
+    }
+
+    @Benchmark
+    public void marshalWithSharedContext() throws JAXBException {
+        ReportMarshaller.marshal(suite, out);
+    }
+
+    @Benchmark
+    public void spoolAndWrite() throws IOException, JAXBException {
+        try (TestSuiteWriter writer = new TestSuiteWriter()) {
+            for (TestCase testCase : suite.getTestCases()) {
+                writer.append(testCase);
+            }
+            writer.writeTo(spooledSuite, out);
+        }
+    }
+
+    private static TestSuite createSuite(int cases) {
+        Date start = new Date();
+        TestSuite suite = new TestSuite("localhost", "BenchmarkTests", start);
+        for (int i = 0; i < cases; i++) {
+            TestCase testCase = new TestCase("BenchmarkTests", "testCase" + i);
+            testCase.setTime(0.001f * i);
+            if (i % 5 == 0) {
+                testCase.getFailures().add(new TestFailure("((value) equal to (3)) failed: (\"4\") is not equal to (\"3\")", "BenchmarkTests.m:" + i));
+                suite.addFailure();
+            }
+            suite.getTestCases().add(testCase);
+            suite.addTest();
+        }
+        suite.setEndTime(new Date(start.getTime() + 1234));
+        return suite;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes test reports on a background thread, so that the thread draining the xcodebuild output never waits for
+ * a report to be marshalled and sent to the workspace.
+ * <p>
+ * At most {@link #CAPACITY} reports can be pending; beyond that {@link #submit} blocks until one has been written,
+ * which keeps memory bounded when the reports cannot be written as fast as the suites finish.
+ * Failures are reported to the build log rather than thrown back to the parser.
+ */
+class BackgroundReportWriter {
+    static final int CAPACITY = 32;
+
+    private final TaskListener listener;
+    private final Semaphore pending = new Semaphore(CAPACITY);
+    private final ThreadPoolExecutor executor;
+
+    BackgroundReportWriter(TaskListener listener) {
+        this.listener = listener;
+        // a single thread keeps the reports in the order their suites finished
+        this.executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Xcode test report writer"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a report, waiting while {@link #CAPACITY} reports are already pending.
+     *
+     * @param name the name of the suite, used when reporting failures
+     */
+    void submit(final String name, final Callable<Void> report) throws InterruptedException {
+        pending.acquire();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        report.call();
+                    } catch (Exception e) {
+                        e.printStackTrace(listener.error(Messages.XCodeBuildOutputParser_reportWriteFailed(name)));
+                    } finally {
+                        pending.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until every queued report has been written.
+     */
+    void drain() throws InterruptedException {
+        pending.acquire(CAPACITY);
+        pending.release(CAPACITY);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ArgumentListBuilder;
+import jenkins.security.MasterToSlaveCallable;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs a sequence of short commands on a node in one remoting call, instead of one launch for each.
+ * <p>
+ * The commands run in order, with the output of each captured along with its exit code. Each command line is
+ * printed to the build log the way {@link Launcher} prints it, masked arguments included, followed by its output
+ * unless the command {@linkplain Command#capture() captures} it. A command can stop the batch when it fails, so
+ * that the commands that depend on it are not run.
+ */
+final class CommandBatch {
+    private final List<Command> commands = new ArrayList<>();
+
+    /**
+     * Adds a command, with no argument masked.
+     */
+    Command add(String... args) {
+        return add(args, new boolean[args.length]);
+    }
+
+    /**
+     * Adds a command, keeping the arguments it {@linkplain ArgumentListBuilder#addMasked masks} out of the log.
+     */
+    Command add(ArgumentListBuilder args) {
+        return add(args.toCommandArray(), args.toMaskArray());
+    }
+
+    private Command add(String[] args, boolean[] masks) {
+        Command command = new Command(args, masks);
+        commands.add(command);
+        return command;
+    }
+
+    boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    /**
+     * Runs the commands on the node of a launcher and prints them to the log.
+     *
+     * @return the result of each command, in order; those after a command that stopped the batch did not run
+     * @throws AbortException if a command that {@linkplain Command#orAbort aborts} failed; its output is printed first
+     */
+    List<Result> execute(Launcher launcher, EnvVars envs, FilePath pwd, TaskListener listener) throws IOException, InterruptedException {
+        VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new IOException("The node is offline");
+        }
+        List<Result> results = channel.call(new Run(commands, envs, pwd != null ? pwd.getRemote() : null));
+
+        PrintStream logger = listener.getLogger();
+        for (int i = 0; i < results.size(); i++) {
+            Command command = commands.get(i);
+            Result result = results.get(i);
+            if (!result.isRun()) {
+                break;
+            }
+            logger.println("$ " + command);
+            if (!command.capture) {
+                logger.write(result.getOutput());
+            }
+            if (result.getExitCode() != 0 && command.abort != null) {
+                if (command.capture) {
+                    logger.write(result.getOutput());
+                }
+                throw new AbortException(command.abort);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * A command of a batch.
+     */
+    static final class Command implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] args;
+        private final boolean[] masks;
+        private boolean stopOnFailure;
+        private boolean capture;
+        private String abort;
+
+        Command(String[] args, boolean[] masks) {
+            this.args = args.clone();
+            this.masks = masks.clone();
+        }
+
+        /**
+         * Skips the rest of the batch if this command fails.
+         */
+        Command stopOnFailure() {
+            stopOnFailure = true;
+            return this;
+        }
+
+        /**
+         * Keeps the output of this command out of the log.
+         */
+        Command capture() {
+            capture = true;
+            return this;
+        }
+
+        /**
+         * Skips the rest of the batch and aborts the build with a message if this command fails.
+         */
+        Command orAbort(String message) {
+            abort = message;
+            return stopOnFailure();
+        }
+
+        /**
+         * The command line, with the masked arguments hidden.
+         */
+        @Override
+        public String toString() {
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) {
+                    line.append(' ');
+                }
+                line.append(masks[i] ? "********" : args[i]);
+            }
+            return line.toString();
+        }
+    }
+
+    /**
+     * What a command of a batch did.
+     */
+    static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean run;
+        private final int exitCode;
+        private final byte[] output;
+
+        Result(boolean run, int exitCode, byte[] output) {
+            this.run = run;
+            this.exitCode = exitCode;
+            this.output = output;
+        }
+
+        /**
+         * Whether the command ran at all; it does not after a command that stops the batch fails.
+         */
+        boolean isRun() {
+            return run;
+        }
+
+        /**
+         * The exit code of the command, or -1 if it did not run.
+         */
+        int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * The standard output and error of the command, interleaved.
+         */
+        byte[] getOutput() {
+            return output.clone();
+        }
+
+        boolean isSuccess() {
+            return run && exitCode == 0;
+        }
+    }
+
+    static final class Run extends MasterToSlaveCallable<ArrayList<Result>, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Command> commands;
+        private final Map<String, String> envs;
+        private final String pwd;
+
+        Run(List<Command> commands, Map<String, String> envs, String pwd) {
+            this.commands = new ArrayList<>(commands);
+            this.envs = envs != null ? new HashMap<>(envs) : new HashMap<String, String>();
+            this.pwd = pwd;
+        }
+
+        public ArrayList<Result> call() throws IOException {
+            ArrayList<Result> results = new ArrayList<>();
+            boolean stopped = false;
+            for (Command command : commands) {
+                if (stopped) {
+                    results.add(new Result(false, -1, new byte[0]));
+                    continue;
+                }
+                Result result = run(command);
+                results.add(result);
+                stopped = command.stopOnFailure && result.getExitCode() != 0;
+            }
+            return results;
+        }
+
+        private Result run(Command command) throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(command.args).redirectErrorStream(true);
+            if (pwd != null) {
+                pb.directory(new File(pwd));
+            }
+            pb.environment().putAll(envs);
+            Process process = pb.start();
+            try {
+                process.getOutputStream().close();
+                // Read the output on its own thread, since a blocked read cannot be interrupted when the build aborts
+                final InputStream in = process.getInputStream();
+                FutureTask<byte[]> output = new FutureTask<>(new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+                        try {
+                            return IOUtils.toByteArray(in);
+                        } finally {
+                            in.close();
+                        }
+                    }
+                });
+                Thread pump = new Thread(output, "Reading the output of " + command);
+                pump.setDaemon(true);
+                pump.start();
+                int exitCode = process.waitFor();
+                return new Result(true, exitCode, output.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while running " + command, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to read the output of " + command, e.getCause());
+            } finally {
+                process.destroy();
+            }
+        }
+    }
+}
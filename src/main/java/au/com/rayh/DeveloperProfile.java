@@ -6,13 +6,20 @@ import hudson.util.Secret;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.security.MessageDigest;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -38,6 +45,13 @@ import com.cloudbees.plugins.credentials.impl.BaseStandardCredentials;
  * @author Kohsuke Kawaguchi
  */
 public class DeveloperProfile extends BaseStandardCredentials {
+    /**
+     * The certificates already read from each profile, by credentials id. Opening a PKCS12 file is slow on purpose,
+     * and the credentials page asks for the certificates of every profile it shows. Only the certificates are kept,
+     * never the keys, and an entry is only used while the image and password it was read from are unchanged.
+     */
+    private static final ConcurrentMap<String, Certificates> CERTIFICATES = new ConcurrentHashMap<>();
+
     /**
      * Password of the PKCS12 files inside the profile.
      */
@@ -53,6 +67,7 @@ public class DeveloperProfile extends BaseStandardCredentials {
         if (image!=null) {
             // for added secrecy, store this in the confidential store
             new ConfidentialKeyImpl(id).store(image);
+            CERTIFICATES.remove(id);
         }
     }
 
@@ -76,14 +91,39 @@ public class DeveloperProfile extends BaseStandardCredentials {
      * Obtains the certificates in this developer profile.
      */
     public @Nonnull List<X509Certificate> getCertificates() throws IOException, GeneralSecurityException {
-        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(getImage()))) {
+        return new ArrayList<>(certificates(getId(), getImage(), password.getPlainText()).certificates);
+    }
+
+    /**
+     * Reads the certificates of a profile image, or reuses those read from the same image and password before.
+     */
+    static Certificates certificates(String id, byte[] image, String password) throws IOException, GeneralSecurityException {
+        byte[] fingerprint = fingerprint(image, password);
+        Certificates certificates = CERTIFICATES.get(id);
+        if (certificates == null || !MessageDigest.isEqual(certificates.fingerprint, fingerprint)) {
+            certificates = new Certificates(fingerprint, readCertificates(image, password));
+            CERTIFICATES.put(id, certificates);
+        }
+        return certificates;
+    }
+
+    static byte[] fingerprint(byte[] image, String password) throws GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(image);
+        digest.update((byte) 0);
+        digest.update(password.getBytes(Charset.forName("UTF-8")));
+        return digest.digest();
+    }
+
+    private static List<X509Certificate> readCertificates(byte[] image, String password) throws IOException, GeneralSecurityException {
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(image))) {
             List<X509Certificate> r = new ArrayList<>();
 
             ZipEntry ze;
             while ((ze = zip.getNextEntry()) != null) {
                 if (ze.getName().endsWith(".p12")) {
                     KeyStore ks = KeyStore.getInstance("pkcs12");
-                    ks.load(zip, password.getPlainText().toCharArray());
+                    ks.load(zip, password.toCharArray());
                     Enumeration<String> en = ks.aliases();
                     while (en.hasMoreElements()) {
                         String s = en.nextElement();
@@ -100,6 +140,14 @@ public class DeveloperProfile extends BaseStandardCredentials {
     }
 
     public String getDisplayNameOf(X509Certificate p) {
+        Certificates certificates = CERTIFICATES.get(getId());
+        if (certificates != null && certificates.names.containsKey(p)) {
+            return certificates.names.get(p);
+        }
+        return displayNameOf(p);
+    }
+
+    private static String displayNameOf(X509Certificate p) {
         String name = p.getSubjectDN().getName();
         try {
             LdapName n = new LdapName(name);
@@ -113,6 +161,26 @@ public class DeveloperProfile extends BaseStandardCredentials {
         return name; // fallback
     }
 
+    /**
+     * The certificates of a profile image with their display names, and a digest of the image and password they were
+     * read with.
+     */
+    static final class Certificates {
+        private final byte[] fingerprint;
+        final List<X509Certificate> certificates;
+        final Map<X509Certificate, String> names;
+
+        Certificates(byte[] fingerprint, List<X509Certificate> certificates) {
+            this.fingerprint = fingerprint;
+            this.certificates = Collections.unmodifiableList(certificates);
+            Map<X509Certificate, String> names = new LinkedHashMap<>();
+            for (X509Certificate certificate : certificates) {
+                names.put(certificate, displayNameOf(certificate));
+            }
+            this.names = Collections.unmodifiableMap(names);
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends CredentialsDescriptor {
         @Override
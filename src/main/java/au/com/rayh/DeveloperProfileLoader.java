@@ -10,24 +10,23 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.Item;
+import hudson.model.Node;
 import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.ArgumentListBuilder;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
-import jenkins.security.MasterToSlaveCallable;
 
-import org.jenkinsci.remoting.RoleChecker;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
 
 /**
  * Installs {@link DeveloperProfile} into the current slave and unlocks its keychain
@@ -53,71 +52,136 @@ public class DeveloperProfileLoader extends Builder {
             throw new AbortException("No Apple developer profile is configured");
 
         // Note: keychain are usualy suffixed with .keychain. If we change we should probably clean up the ones we created
-        String keyChain = "jenkins-"+build.getProject().getFullName().replace('/', '-');
-        String keychainPass = UUID.randomUUID().toString();
+        // The keychain is named after the content of the profile, so that builds can share it until the profile changes
+        byte[] image = dp.getImage();
+        String keyChain = KeychainPool.keychainName(DeveloperProfile.fingerprint(image, dp.getPassword().getPlainText()));
+        Node node = build.getBuiltOn();
+
+        KeychainPool.Lease lease = KeychainPool.lease(build, node, dp.getId(), keyChain);
+        CommandBatch batch = new CommandBatch();
+        for (String obsolete : lease.getObsolete()) {
+            listener.getLogger().println("Deleting the keychain of an older version of the profile: " + obsolete);
+            batch.add("security", "delete-keychain", obsolete).capture();
+        }
+        String keychainPass = lease.getPassword();
+
+        if (!lease.isBuild()) {
+            boolean unlocked = unlock(launcher, listener, batch, keyChain, keychainPass);
+            batch = new CommandBatch();
+            if (!unlocked) {
+                // somebody deleted it behind our back, or another build has just rebuilt it with a new password
+                KeychainPool.forget(node, keyChain, keychainPass);
+                lease = KeychainPool.lease(build, node, dp.getId(), keyChain);
+                keychainPass = lease.getPassword();
+                if (!lease.isBuild() && !unlock(launcher, listener, new CommandBatch(), keyChain, keychainPass)) {
+                    throw new AbortException("Failed to unlock keychain");
+                }
+            }
+            if (!lease.isBuild()) {
+                listener.getLogger().println("Reusing the keychain " + keyChain + ", the profile has not changed");
+            }
+        }
 
-        ArgumentListBuilder args;
+        if (lease.isBuild()) {
+            boolean built = false;
+            try {
+                buildKeychain(build, launcher, listener, dp, image, keyChain, keychainPass, batch);
+                built = true;
+            } finally {
+                KeychainPool.built(build, node, keyChain, built);
+            }
+        }
+
+        // cheap when nothing changed, so the profiles are checked even when the keychain is reused
+        installProvisioningProfiles(node, listener, image);
+        return true;
+    }
 
-        {// if the key chain is already present, delete it and start fresh
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            args = new ArgumentListBuilder("security","delete-keychain", keyChain);
-            launcher.launch().cmds(args).stdout(out).join();
+    private void installProvisioningProfiles(Node node, BuildListener listener, byte[] image) throws InterruptedException, IOException {
+        Map<String, byte[]> profiles = ProvisioningProfiles.read(image);
+        if (profiles.isEmpty()) {
+            return;
         }
+        VirtualChannel ch = node.getChannel();
+        if (ch == null) {
+            throw new AbortException(node.getDisplayName() + " is offline");
+        }
+        ProvisioningProfiles.Synced synced = ch.call(new ProvisioningProfiles.Sync(profiles));
+        Date now = new Date();
+        for (ProvisioningProfiles.Profile p : synced.getInstalled()) {
+            listener.getLogger().println("Installing  " + p.getFile()
+                    + (p.getUuid() != null ? " as " + p.getUuid() + ProvisioningProfiles.EXTENSION : ""));
+        }
+        if (!synced.getUnchanged().isEmpty()) {
+            listener.getLogger().println(synced.getUnchanged().size() + " provisioning profile(s) already installed");
+        }
+        List<ProvisioningProfiles.Profile> all = new ArrayList<>(synced.getInstalled());
+        all.addAll(synced.getUnchanged());
+        for (ProvisioningProfiles.Profile p : all) {
+            if (p.isExpired(now)) {
+                listener.getLogger().println("Warning: provisioning profile " + p + " expired on " + p.getExpirationDate());
+            }
+        }
+    }
 
+    /**
+     * Unlocks a keychain, running the commands already in the batch first.
+     *
+     * @return whether the keychain could be unlocked with the password
+     */
+    private boolean unlock(Launcher launcher, BuildListener listener, CommandBatch batch, String keyChain,
+            String keychainPass) throws InterruptedException, IOException {
+        ArgumentListBuilder args = new ArgumentListBuilder("security","unlock-keychain");
+        args.add("-p").addMasked(keychainPass);
+        args.add(keyChain);
+        batch.add(args).capture();
+        List<CommandBatch.Result> results = batch.execute(launcher, null, null, listener);
+        return results.get(results.size() - 1).isSuccess();
+    }
+
+    /**
+     * Builds the keychain of a profile, running the commands already in the batch first.
+     */
+    private void buildKeychain(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, DeveloperProfile dp,
+            byte[] image, String keyChain, String keychainPass, CommandBatch batch) throws InterruptedException, IOException {
+        ArgumentListBuilder args;
+
+        // if the key chain is already present, delete it and start fresh
+        batch.add("security","delete-keychain", keyChain).capture();
 
         args = new ArgumentListBuilder("security","create-keychain");
         args.add("-p").addMasked(keychainPass);
         args.add(keyChain);
-        invoke(launcher, listener, args, "Failed to create a keychain");
+        batch.add(args).capture().orAbort("Failed to create a keychain");
 
         args = new ArgumentListBuilder("security","unlock-keychain");
         args.add("-p").addMasked(keychainPass);
         args.add(keyChain);
-        invoke(launcher, listener, args, "Failed to unlock keychain");
+        batch.add(args).capture().orAbort("Failed to unlock keychain");
+        batch.execute(launcher, null, null, listener);
 
         final FilePath secret = getSecretDir(build, keychainPass);
-        secret.unzipFrom(new ByteArrayInputStream(dp.getImage()));
-
-        // import identities
-        for (FilePath id : secret.list("**/*.p12")) {
-            args = new ArgumentListBuilder("security","import");
-            args.add(id).add("-k",keyChain);
-            args.add("-P").addMasked(dp.getPassword().getPlainText());
-            args.add("-T","/usr/bin/codesign");
-            args.add("-T","/usr/bin/productsign");
-            args.add(keyChain);
-            invoke(launcher, listener, args, "Failed to import identity "+id);
-        }
+        secret.unzipFrom(new ByteArrayInputStream(image));
+        try {
+            batch = new CommandBatch();
+            // import identities
+            for (FilePath id : secret.list("**/*.p12")) {
+                args = new ArgumentListBuilder("security","import");
+                args.add(id).add("-k",keyChain);
+                args.add("-P").addMasked(dp.getPassword().getPlainText());
+                args.add("-T","/usr/bin/codesign");
+                args.add("-T","/usr/bin/productsign");
+                args.add(keyChain);
+                batch.add(args).capture().orAbort("Failed to import identity "+id);
+            }
 
-        {
             // display keychain info for potential troubleshooting
-            args = new ArgumentListBuilder("security","show-keychain-info");
-            args.add(keyChain);
-            ByteArrayOutputStream output = invoke(launcher, listener, args, "Failed to show keychain info");
-            listener.getLogger().write(output.toByteArray());
-        }
-
-        // copy provisioning profiles
-        VirtualChannel ch = build.getBuiltOn().getChannel();
-        FilePath home = ch.call(new GetHomeDirectory());    // TODO: switch to FilePath.getHomeDirectory(ch) when we can
-        FilePath profiles = home.child("Library/MobileDevice/Provisioning Profiles");
-        profiles.mkdirs();
-
-        for (FilePath mp : secret.list("**/*.mobileprovision")) {
-            listener.getLogger().println("Installing  "+mp.getName());
-            mp.copyTo(profiles.child(mp.getName()));
+            batch.add("security","show-keychain-info", keyChain).orAbort("Failed to show keychain info");
+            batch.execute(launcher, null, null, listener);
+        } finally {
+            // the identities are in the keychain now, and the keychain outlives the build
+            secret.deleteRecursive();
         }
-
-        return true;
-    }
-
-    private ByteArrayOutputStream invoke(Launcher launcher, BuildListener listener, ArgumentListBuilder args, String errorMessage) throws IOException, InterruptedException {
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        if (launcher.launch().cmds(args).stdout(output).join()!=0) {
-            listener.getLogger().write(output.toByteArray());
-            throw new AbortException(errorMessage);
-        }
-        return output;
     }
 
     private FilePath getSecretDir(AbstractBuild<?, ?> build, String keychainPass) throws IOException, InterruptedException {
@@ -165,15 +229,4 @@ public class DeveloperProfileLoader extends Builder {
             return r;
         }
     }
-
-    private static final class GetHomeDirectory extends MasterToSlaveCallable<FilePath,IOException> {
-        public FilePath call() throws IOException {
-            return new FilePath(new File(System.getProperty("user.home")));
-        }
-
-        @Override
-        public void checkRoles(RoleChecker roleChecker) throws SecurityException {
-
-        }
-    }
 }
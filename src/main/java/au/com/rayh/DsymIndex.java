@@ -0,0 +1,249 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers which build produced the symbols of every Mach-O UUID, so that a crash can be matched to its dSYM
+ * without unzipping the dSYMs of every build.
+ * <p>
+ * The index lives under {@code JENKINS_HOME/xcode-plugin/dsym-index}, with one small file per UUID, spread over
+ * 256 directories by the first byte of the UUID, so that the dSYMs of a UUID are found by reading that one file.
+ * Recording a dSYM only appends to the files of its own UUIDs. Each line of a file is one binary, as
+ * {@code architecture TAB build TAB zip TAB path in the zip}. The zip is named by its path in the workspace, which is
+ * also its path among the artifacts of the build once it is archived.
+ * <p>
+ * The UUIDs recorded by each build are also listed under {@code builds}, so that the lines of a build can be pruned
+ * when it is deleted.
+ */
+final class DsymIndex {
+    private static final Logger LOGGER = Logger.getLogger(DsymIndex.class.getName());
+    private static final Pattern UUID = Pattern.compile("[0-9A-F]{8}-[0-9A-F]{4}-[0-9A-F]{4}-[0-9A-F]{4}-[0-9A-F]{12}");
+    // builds of different jobs can record their dSYMs at the same time
+    private static final Object LOCK = new Object();
+
+    private final File root;
+
+    DsymIndex(File root) {
+        this.root = root;
+    }
+
+    static DsymIndex get() {
+        return new DsymIndex(new File(Jenkins.getActiveInstance().getRootDir(), "xcode-plugin/dsym-index"));
+    }
+
+    /**
+     * Records the binaries of a dSYM.
+     *
+     * @param build the {@link hudson.model.Run#getExternalizableId() id} of the build that produced them
+     * @param zip the path of the zipped dSYM in the workspace
+     */
+    void add(String build, String zip, List<Binary> binaries) throws IOException {
+        synchronized (LOCK) {
+            File builds = buildFile(build);
+            if (!builds.getParentFile().isDirectory() && !builds.getParentFile().mkdirs()) {
+                throw new IOException("Cannot create " + builds.getParentFile());
+            }
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(builds, true), "UTF-8")) {
+                for (Binary binary : binaries) {
+                    writer.write(normalize(binary.getUuid()) + '\n');
+                }
+            }
+            for (Binary binary : binaries) {
+                File file = file(binary.getUuid());
+                if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                    throw new IOException("Cannot create " + file.getParentFile());
+                }
+                String line = field(binary.getArchitecture()) + '\t' + field(build) + '\t' + field(zip) + '\t' + field(binary.getPath());
+                if (file.isFile() && FileUtils.readLines(file, "UTF-8").contains(line)) {
+                    // the same build exported the same dSYM again
+                    continue;
+                }
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8")) {
+                    writer.write(line + '\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the binaries recorded by a build.
+     *
+     * @param build the {@link hudson.model.Run#getExternalizableId() id} of the build
+     */
+    void remove(String build) throws IOException {
+        synchronized (LOCK) {
+            File builds = buildFile(build);
+            if (!builds.isFile()) {
+                return;
+            }
+            Set<String> uuids = new LinkedHashSet<>(FileUtils.readLines(builds, "UTF-8"));
+            for (String uuid : uuids) {
+                if (uuid.isEmpty()) {
+                    continue;
+                }
+                File file = file(uuid);
+                if (!file.isFile()) {
+                    continue;
+                }
+                List<String> kept = new ArrayList<>();
+                for (String line : FileUtils.readLines(file, "UTF-8")) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length != 4 || !fields[1].equals(field(build))) {
+                        kept.add(line);
+                    }
+                }
+                if (kept.isEmpty()) {
+                    FileUtils.forceDelete(file);
+                } else {
+                    FileUtils.writeLines(file, "UTF-8", kept, "\n");
+                }
+            }
+            FileUtils.forceDelete(builds);
+        }
+    }
+
+    private File file(String uuid) throws IOException {
+        String normalized = normalize(uuid);
+        return new File(new File(root, normalized.substring(0, 2)), normalized);
+    }
+
+    private File buildFile(String build) throws IOException {
+        return new File(new File(root, "builds"), URLEncoder.encode(build, "UTF-8"));
+    }
+
+    static String normalize(String uuid) throws IOException {
+        String normalized = uuid.trim().toUpperCase(Locale.ENGLISH);
+        if (normalized.length() == 32) {
+            normalized = normalized.substring(0, 8) + '-' + normalized.substring(8, 12) + '-' + normalized.substring(12, 16)
+                    + '-' + normalized.substring(16, 20) + '-' + normalized.substring(20);
+        }
+        if (!UUID.matcher(normalized).matches()) {
+            throw new IOException("Not a UUID: " + uuid);
+        }
+        return normalized;
+    }
+
+    private static String field(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * A binary inside a dSYM bundle.
+     */
+    static final class Binary implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String uuid;
+        private final String architecture;
+        private final String path;
+
+        Binary(String uuid, String architecture, String path) {
+            this.uuid = uuid;
+            this.architecture = architecture;
+            this.path = path;
+        }
+
+        String getUuid() {
+            return uuid;
+        }
+
+        String getArchitecture() {
+            return architecture;
+        }
+
+        /**
+         * The path of the binary from the parent of the bundle, which is also its name in the zipped dSYM.
+         */
+        String getPath() {
+            return path;
+        }
+    }
+
+    /**
+     * Reads the UUIDs of the binaries in the DWARF directory of the dSYM bundle it is called on.
+     */
+    static final class Scan extends MasterToSlaveFileCallable<ArrayList<Binary>> {
+        private static final long serialVersionUID = 1L;
+
+        public ArrayList<Binary> invoke(File dSYM, VirtualChannel channel) throws IOException, InterruptedException {
+            ArrayList<Binary> binaries = new ArrayList<>();
+            File[] files = new File(dSYM, "Contents/Resources/DWARF").listFiles();
+            if (files == null) {
+                return binaries;
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!file.isFile()) {
+                    continue;
+                }
+                for (MachO.Uuid uuid : MachO.uuids(file)) {
+                    binaries.add(new Binary(uuid.getUuid(), uuid.getArchitecture(),
+                            dSYM.getName() + "/Contents/Resources/DWARF/" + file.getName()));
+                }
+            }
+            return binaries;
+        }
+    }
+
+    /**
+     * Prunes the binaries of deleted builds, whose dSYMs are gone with them.
+     */
+    @Extension
+    public static final class Pruner extends RunListener<Run<?, ?>> {
+        @Override
+        public void onDeleted(Run<?, ?> run) {
+            try {
+                get().remove(run.getExternalizableId());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to prune the dSYMs of " + run.getExternalizableId(), e);
+            }
+        }
+    }
+}
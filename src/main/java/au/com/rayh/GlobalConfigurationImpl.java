@@ -56,6 +56,7 @@ public final class GlobalConfigurationImpl extends GlobalConfiguration {
     private String defaultKeychain = "";
     private ArrayList<Keychain> keychains = new ArrayList<>();
     private ArrayList<Team> teams = new ArrayList<>();
+    private boolean parseTestOutputOnAgent;
 
     public GlobalConfigurationImpl() {
         load();
@@ -207,4 +208,16 @@ public final class GlobalConfigurationImpl extends GlobalConfiguration {
     public void setTeams(ArrayList<Team> teams) {
         this.teams = teams;
     }
+
+    /**
+     * Whether xcodebuild output is parsed on the agent running the build, rather than sent to the controller to be
+     * turned into test reports there.
+     */
+    public boolean isParseTestOutputOnAgent() {
+        return parseTestOutputOnAgent;
+    }
+
+    public void setParseTestOutputOnAgent(boolean parseTestOutputOnAgent) {
+        this.parseTestOutputOnAgent = parseTestOutputOnAgent;
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Looks up the host name of the node running a build once, in the background, for the test reports of the build.
+ * Name lookups can take seconds on machines with a broken DNS setup, so the lookup starts as soon as the build
+ * starts parsing, and the first report waits for it at most {@link #TIMEOUT_SECONDS} before falling back to
+ * {@link #UNKNOWN}.
+ */
+final class HostNameResolver {
+    private static final Logger LOGGER = Logger.getLogger(HostNameResolver.class.getName());
+    static final long TIMEOUT_SECONDS = 10;
+    static final String UNKNOWN = "localhost";
+
+    private final Future<String> lookup;
+    private volatile String hostName;
+
+    private HostNameResolver(Future<String> lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * Starts looking up the host name of this JVM's machine.
+     */
+    static HostNameResolver local() {
+        FutureTask<String> lookup = new FutureTask<>(new Callable<String>() {
+            public String call() throws IOException {
+                return InetAddress.getLocalHost().getHostName();
+            }
+        });
+        Thread thread = new Thread(lookup, "Looking up the local host name");
+        thread.setDaemon(true);
+        thread.start();
+        return new HostNameResolver(lookup);
+    }
+
+    /**
+     * Starts looking up the host name of the machine at the other end of a channel.
+     */
+    static HostNameResolver on(VirtualChannel channel) throws IOException {
+        return new HostNameResolver(channel.callAsync(new GetHostName()));
+    }
+
+    /**
+     * The host name, once it has been looked up, or {@link #UNKNOWN} if that failed or took too long.
+     */
+    String get() {
+        String name = hostName;
+        if (name == null) {
+            synchronized (this) {
+                if (hostName == null) {
+                    try {
+                        hostName = lookup.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return UNKNOWN;
+                    } catch (ExecutionException | TimeoutException e) {
+                        LOGGER.log(Level.WARNING, "Failed to look up the host name for the test reports", e);
+                        lookup.cancel(true);
+                        hostName = UNKNOWN;
+                    }
+                }
+                name = hostName;
+            }
+        }
+        return name;
+    }
+
+    private static final class GetHostName extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        public String call() throws IOException {
+            return InetAddress.getLocalHost().getHostName();
+        }
+    }
+}
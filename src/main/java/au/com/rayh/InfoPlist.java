@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import au.com.rayh.plist.PlistException;
+import au.com.rayh.plist.PropertyList;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Reads and edits {@code Info.plist} files on the node that holds them, in the XML or binary format they are
+ * in, instead of starting a PlistBuddy process per key.
+ */
+final class InfoPlist {
+    private InfoPlist() {
+    }
+
+    /**
+     * Reads the values at several key paths in one pass, as PlistBuddy prints them. Key paths that have no value,
+     * or a dictionary or array, are left out; a missing file has no values at all.
+     */
+    static final class Read extends MasterToSlaveFileCallable<Map<String, String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> keyPaths;
+
+        Read(String... keyPaths) {
+            this.keyPaths = Arrays.asList(keyPaths);
+        }
+
+        public Map<String, String> invoke(File plist, VirtualChannel channel) throws IOException {
+            Map<String, String> values = new LinkedHashMap<>();
+            if (!plist.isFile()) {
+                return values;
+            }
+            Object root = parse(plist, FileUtils.readFileToByteArray(plist));
+            for (String keyPath : keyPaths) {
+                String value = PropertyList.toText(PropertyList.get(root, keyPath));
+                if (value != null) {
+                    values.put(keyPath, value);
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Replaces the values at key paths that already exist, keeping the format of the file, like
+     * {@code PlistBuddy -c "Set <keyPath> <value>"}.
+     */
+    static final class Set extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, String> values;
+
+        Set(Map<String, String> values) {
+            this.values = new LinkedHashMap<>(values);
+        }
+
+        Set(String keyPath, String value) {
+            this(singleton(keyPath, value));
+        }
+
+        public Void invoke(File plist, VirtualChannel channel) throws IOException {
+            if (!plist.isFile()) {
+                throw new FileNotFoundException(plist.getPath());
+            }
+            byte[] data = FileUtils.readFileToByteArray(plist);
+            Object root = parse(plist, data);
+            for (Map.Entry<String, String> value : values.entrySet()) {
+                PropertyList.set(root, value.getKey(), value.getValue());
+            }
+            replace(plist, PropertyList.format(root, PropertyList.detect(data)));
+            return null;
+        }
+
+        private static Map<String, String> singleton(String keyPath, String value) {
+            Map<String, String> values = new LinkedHashMap<>();
+            values.put(keyPath, value);
+            return values;
+        }
+    }
+
+    /**
+     * Replaces the contents of a file through a temporary file, so that it is never left half written. Each writer
+     * has its own temporary file, and the file keeps its permissions.
+     */
+    static void replace(File file, byte[] data) throws IOException {
+        File temp = File.createTempFile("." + file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            FileUtils.writeByteArrayToFile(temp, data);
+            try {
+                Files.setPosixFilePermissions(temp.toPath(), Files.getPosixFilePermissions(file.toPath()));
+            } catch (UnsupportedOperationException | NoSuchFileException e) {
+                // no permissions to keep
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // only left behind when the write or the move failed
+            temp.delete();
+        }
+    }
+
+    static Object parse(File plist, byte[] data) throws PlistException {
+        try {
+            return PropertyList.parse(data);
+        } catch (PlistException e) {
+            throw new PlistException(plist + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,604 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the archives of a build to IPAs, a few at a time. Every worker stages its export in a Payload directory
+ * of its own, and its output is buffered and copied to the build log in archive order, so the log reads as if the
+ * archives had been exported one after the other. An archive that fails to export does not stop the others; the
+ * failures are reported together once all of them are done.
+ * <p>
+ * The agent may be far away, so the file work is batched: one call inspects the build directory and everything in
+ * it that the exports need, and after xcodebuild has exported an archive, one more call moves the IPA into place,
+ * zips the dSYMs and writes the manifest.
+ */
+final class IpaExporter {
+    /**
+     * How many archives are exported at the same time.
+     */
+    static final int WORKERS = Math.max(1, Integer.getInteger(IpaExporter.class.getName() + ".workers", 4));
+
+    /**
+     * How long an aborted export waits for its workers to stop before it clears their staging directories anyway.
+     */
+    private static final long STOP_SECONDS = 60;
+
+    static final String MANIFEST_PLIST_TEMPLATE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">"
+            + "<plist version=\"1.0\"><dict><key>items</key><array><dict><key>assets</key><array><dict><key>kind</key><string>software-package</string><key>url</key><string>${IPA_URL_BASE}/${IPA_NAME}</string></dict></array>"
+            + "<key>metadata</key><dict><key>bundle-identifier</key><string>${BUNDLE_ID}</string><key>bundle-version</key><string>${BUNDLE_VERSION}</string><key>kind</key><string>software</string><key>title</key><string>${APP_NAME}</string></dict></dict></array></dict></plist>";
+
+    private static final String PAYLOAD = "Payload";
+    private static final String VERSION = ":ApplicationProperties:CFBundleVersion";
+    private static final String SHORT_VERSION = ":ApplicationProperties:CFBundleShortVersionString";
+
+    private final Launcher launcher;
+    private final EnvVars envs;
+    private final FilePath workspace;
+    private final FilePath projectRoot;
+    private final FilePath buildDirectory;
+    private final String xcodebuildPath;
+    private final String configuration;
+    private final String buildPlatform;
+    private final String sdk;
+    private final String ipaName;
+    private final String ipaManifestPlistUrl;
+    private final String buildId;
+    private final RemotingCalls calls;
+
+    IpaExporter(Launcher launcher, EnvVars envs, FilePath workspace, FilePath projectRoot, FilePath buildDirectory,
+            String xcodebuildPath, String configuration, String buildPlatform, String sdk, String ipaName,
+            String ipaManifestPlistUrl, String buildId) {
+        this.launcher = launcher;
+        this.envs = envs;
+        this.workspace = workspace;
+        this.projectRoot = projectRoot;
+        this.buildDirectory = buildDirectory;
+        this.xcodebuildPath = xcodebuildPath;
+        this.configuration = configuration;
+        this.buildPlatform = buildPlatform;
+        this.sdk = sdk;
+        this.ipaName = ipaName;
+        this.ipaManifestPlistUrl = ipaManifestPlistUrl;
+        this.buildId = buildId;
+        this.calls = new RemotingCalls("IPA packaging", buildId);
+    }
+
+    /**
+     * Exports all archives in the build directory, logging what each of them did in turn.
+     *
+     * @param ipaOutputDirectory where the IPAs go, relative to the build directory; empty for the build directory itself
+     * @param exportPlistName the name of the export options file written next to the IPAs
+     * @param exportPlist the content of the export options file
+     * @return false if the build directory has no archives or some of them could not be exported
+     */
+    boolean exportAll(String ipaOutputDirectory, String exportPlistName, String exportPlist, TaskListener listener) throws IOException, InterruptedException {
+        try {
+            Plan plan = calls.act(buildDirectory, new Prepare(ipaOutputDirectory, exportPlistName, exportPlist,
+                    configuration + "-" + buildPlatform, WORKERS));
+            if (plan.missing) {
+                listener.fatalError(Messages.XCodeBuilder_NotExistingBuildDirectory(plan.buildDirectory));
+                return false;
+            }
+
+            // packaging IPA
+            listener.getLogger().println(Messages.XCodeBuilder_packagingIPA());
+
+            // FilePath is based on File.listFiles() which can randomly fail | http://stackoverflow.com/questions/3228147/retrieving-the-underlying-error-when-file-listfiles-return-null
+            if (plan.archives == null) {
+                listener.fatalError(Messages.XCodeBuilder_NoArchivesInBuildDirectory(plan.buildDirectory));
+                return false;
+            }
+
+            List<String> failures = exportAll(plan, listener.getLogger());
+            if (!failures.isEmpty()) {
+                listener.error(Messages.XCodeBuilder_exportFailed(failures.size(), plan.archives.size()));
+                for (String failure : failures) {
+                    listener.getLogger().println("  " + failure);
+                }
+                return false;
+            }
+            return true;
+        } finally {
+            calls.log();
+        }
+    }
+
+    private List<String> exportAll(final Plan plan, PrintStream logger) throws IOException, InterruptedException {
+        final BlockingQueue<String> payloads = new ArrayBlockingQueue<>(plan.payloads.size());
+        payloads.addAll(plan.payloads);
+
+        List<String> failures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(plan.payloads.size(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "IPA exporter for " + buildId));
+        try {
+            List<Future<String>> exports = new ArrayList<>();
+            final List<ByteArrayOutputStream> logs = new ArrayList<>();
+            for (final Archive archive : plan.archives) {
+                final ByteArrayOutputStream log = new ByteArrayOutputStream();
+                logs.add(log);
+                exports.add(executor.submit(new Callable<String>() {
+                    public String call() throws IOException, InterruptedException {
+                        String payload = payloads.take();
+                        try {
+                            return export(plan, archive, payload, log);
+                        } finally {
+                            payloads.put(payload);
+                        }
+                    }
+                }));
+            }
+
+            for (int i = 0; i < plan.archives.size(); i++) {
+                String failure;
+                try {
+                    failure = exports.get(i).get();
+                } catch (ExecutionException e) {
+                    failure = e.getCause().toString();
+                }
+                logs.get(i).writeTo(logger);
+                logger.flush();
+                if (failure != null) {
+                    failures.add(plan.archives.get(i).name + ": " + failure);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            // the staging directories must not be left in the output directory, even when the build is aborted, so
+            // they are cleared once the workers are done with them, without the interrupt of the abort
+            boolean interrupted = Thread.interrupted();
+            try {
+                executor.awaitTermination(STOP_SECONDS, TimeUnit.SECONDS);
+                calls.act(new FilePath(buildDirectory.getChannel(), plan.ipaOutputPath).child(PAYLOAD), new Clear(true));
+            } catch (InterruptedException e) {
+                // aborted again
+                interrupted = true;
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Exports one archive through the given staging directory.
+     *
+     * @return why the archive could not be exported, or null if it was
+     */
+    private String export(Plan plan, Archive archive, String payload, ByteArrayOutputStream log) throws IOException, InterruptedException {
+        PrintStream logger = new PrintStream(log, true, "UTF-8");
+        if (archive.versionFailure != null) {
+            return fail(logger, "Failed to get version from Info.plist: " + archive.versionFailure);
+        }
+        String version = archive.version;
+        String shortVersion = archive.shortVersion;
+
+        if (StringUtils.isEmpty(version) && StringUtils.isEmpty(shortVersion)) {
+            return fail(logger, "You have to provide a value for either the marketing or technical version. Found neither.");
+        }
+
+        String lastModified = new SimpleDateFormat("yyyy.MM.dd").format(new Date(archive.lastModified));
+
+        String baseName = archive.baseName.replaceAll(" ", "_") + (shortVersion.isEmpty() ? "" : "-" + shortVersion) + (version.isEmpty() ? "" : "-" + version);
+        // If custom .ipa name pattern has been provided, use it and expand version and build date variables
+        if (! StringUtils.isEmpty(ipaName)) {
+            EnvVars customVars = new EnvVars(
+                "BASE_NAME", archive.baseName.replaceAll(" ", "_"),
+                "VERSION", version,
+                "SHORT_VERSION", shortVersion,
+                "BUILD_DATE", lastModified
+            );
+            baseName = customVars.expand(ipaName);
+        }
+
+        String ipaFileName = baseName + ".ipa";
+        FilePath ipaOutputPath = new FilePath(buildDirectory.getChannel(), plan.ipaOutputPath);
+        FilePath ipaLocation = ipaOutputPath.child(ipaFileName);
+
+        logger.println("Packaging " + archive.baseName + ".xcarchive => " + ipaLocation.getRemote());
+        if (buildPlatform.contains("simulator")) {
+            logger.println(Messages.XCodeBuilder_warningPackagingIPAForSimulatorSDK(sdk));
+        }
+
+        // export next to the other workers, then move the results to where a sequential export would have put them
+        List<String> packageCommandLine = new ArrayList<>();
+        packageCommandLine.add(xcodebuildPath);
+        packageCommandLine.add("-exportArchive");
+        packageCommandLine.add("-archivePath");
+        packageCommandLine.add(archive.path);
+        packageCommandLine.add("-exportPath");
+        packageCommandLine.add(payload);
+        packageCommandLine.add("-exportOptionsPlist");
+        packageCommandLine.add(plan.exportPlist);
+        int returnCode = calls.join(launcher.launch().envs(envs).stdout(log).pwd(projectRoot).cmds(packageCommandLine));
+        if (returnCode > 0) {
+            // the next archive of this worker must not pick up what was left of this one
+            calls.act(new FilePath(buildDirectory.getChannel(), payload), new Clear(false));
+            return fail(logger, "Failed to build " + ipaLocation.getRemote());
+        }
+
+        // also zip up the symbols, if present
+        logger.println("Archiving dSYM");
+        if (archive.dSYMs.isEmpty()) {
+            logger.println("No dSYM file found in " + archive.path + "/dSYMs or " + plan.productsDirectory + "!");
+        }
+
+        String manifestName = null;
+        if (!StringUtils.isEmpty(ipaManifestPlistUrl)) {
+            manifestName = baseName + ".plist";
+        }
+        Finish finish = new Finish(payload, archive.baseName + ".ipa", ipaFileName, archive.dSYMs, baseName + "-dSYM.zip",
+                manifestName, ipaManifestPlistUrl, plan.productsDirectory + "/" + archive.baseName + ".app/Info.plist", shortVersion);
+        Finished finished = calls.act(ipaOutputPath, finish);
+
+        if (finished.zipFailure != null) {
+            return fail(logger, Messages.XCodeBuilder_zipFailed(baseName) + ": " + finished.zipFailure);
+        }
+        for (DsymIndex.Binary binary : finished.binaries) {
+            logger.println(Messages.XCodeBuilder_dSYMUUID(binary.getUuid(), binary.getArchitecture(), binary.getPath()));
+        }
+        try {
+            if (finished.scanFailure != null) {
+                throw new IOException(finished.scanFailure);
+            }
+            if (!finished.binaries.isEmpty()) {
+                DsymIndex.get().add(buildId, workspacePath(ipaOutputPath.child(baseName + "-dSYM.zip")), finished.binaries);
+            }
+        } catch (IOException e) {
+            // the index is not worth failing the build for
+            logger.println(Messages.XCodeBuilder_dSYMIndexFailed(e.getMessage()));
+        }
+
+        if (manifestName != null) {
+            logger.println("Creating Manifest Plist => " + ipaOutputPath.child(manifestName).getRemote());
+        }
+        return null;
+    }
+
+    /**
+     * The path of a file relative to the workspace, which outlives the workspace as the path of the file among the
+     * artifacts of the build. Files outside the workspace keep their absolute path.
+     */
+    String workspacePath(FilePath file) {
+        String root = workspace.getRemote();
+        String path = file.getRemote();
+        return path.startsWith(root + "/") ? path.substring(root.length() + 1) : path;
+    }
+
+    private static String fail(PrintStream logger, String failure) {
+        logger.println(failure);
+        return failure;
+    }
+
+    /**
+     * Moves a file or directory, replacing what is in the way.
+     */
+    private static void move(File from, File to) throws IOException {
+        if (to.isDirectory()) {
+            FileUtils.deleteDirectory(to);
+        }
+        Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * What the exports need to know about the build directory.
+     */
+    static final class Plan implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        boolean missing;
+        String buildDirectory;
+        String ipaOutputPath;
+        String exportPlist;
+        String productsDirectory;
+        List<String> payloads = new ArrayList<>();
+        /** null if the build directory could not be listed */
+        List<Archive> archives;
+    }
+
+    static final class Archive implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String name;
+        String baseName;
+        String path;
+        long lastModified;
+        String version = "";
+        String shortVersion = "";
+        String versionFailure;
+        /** the dSYMs of this archive only */
+        List<String> dSYMs = new ArrayList<>();
+    }
+
+    /**
+     * Inspects the build directory it is called on, creates the output directory and the staging directories, and
+     * writes the export options.
+     */
+    static final class Prepare extends MasterToSlaveFileCallable<Plan> {
+        private static final long serialVersionUID = 1L;
+
+        private final String ipaOutputDirectory;
+        private final String exportPlistName;
+        private final String exportPlist;
+        private final String productsDirectory;
+        private final int workers;
+
+        Prepare(String ipaOutputDirectory, String exportPlistName, String exportPlist, String productsDirectory, int workers) {
+            this.ipaOutputDirectory = ipaOutputDirectory;
+            this.exportPlistName = exportPlistName;
+            this.exportPlist = exportPlist;
+            this.productsDirectory = productsDirectory;
+            this.workers = workers;
+        }
+
+        public Plan invoke(File buildDirectory, VirtualChannel channel) throws IOException, InterruptedException {
+            Plan plan = new Plan();
+            buildDirectory = buildDirectory.getAbsoluteFile();
+            plan.buildDirectory = buildDirectory.getPath();
+            if (!buildDirectory.isDirectory()) {
+                plan.missing = true;
+                return plan;
+            }
+
+            File ipaOutputPath = StringUtils.isEmpty(ipaOutputDirectory) ? buildDirectory : new File(buildDirectory, ipaOutputDirectory);
+            if (!ipaOutputPath.isDirectory() && !ipaOutputPath.mkdirs()) {
+                throw new IOException("Cannot create " + ipaOutputPath);
+            }
+            plan.ipaOutputPath = ipaOutputPath.getPath();
+
+            File exportPlistLocation = new File(ipaOutputPath, exportPlistName);
+            FileUtils.writeStringToFile(exportPlistLocation, exportPlist, "UTF-8");
+            plan.exportPlist = exportPlistLocation.getPath();
+
+            File products = new File(buildDirectory, productsDirectory);
+            plan.productsDirectory = products.getPath();
+
+            File[] archives = buildDirectory.listFiles(new XCArchiveFileFilter());
+            if (archives == null) {
+                return plan;
+            }
+            Arrays.sort(archives);
+            plan.archives = new ArrayList<>();
+            for (File file : archives) {
+                Archive archive = new Archive();
+                archive.name = file.getName();
+                archive.baseName = file.getName().substring(0, file.getName().lastIndexOf('.'));
+                archive.path = file.getPath();
+                archive.lastModified = file.lastModified();
+                try {
+                    Map<String, String> values = new InfoPlist.Read(VERSION, SHORT_VERSION).invoke(new File(file, "Info.plist"), channel);
+                    archive.version = StringUtils.trimToEmpty(values.get(VERSION));
+                    archive.shortVersion = StringUtils.trimToEmpty(values.get(SHORT_VERSION));
+                } catch (Exception ex) {
+                    archive.versionFailure = ex.toString();
+                }
+                addDSYMs(archive, file, products);
+                plan.archives.add(archive);
+            }
+
+            File payloads = new File(ipaOutputPath, PAYLOAD);
+            FileUtils.deleteDirectory(payloads);
+            for (int i = 0; i < Math.max(1, Math.min(workers, archives.length)); i++) {
+                File payload = new File(payloads, Integer.toString(i));
+                if (!payload.mkdirs()) {
+                    throw new IOException("Cannot create " + payload);
+                }
+                plan.payloads.add(payload.getPath());
+            }
+            return plan;
+        }
+
+        /**
+         * The dSYMs an archive was built with: the ones Xcode put in the archive, those of its frameworks included,
+         * or else the one of its app in the products directory. The other dSYMs of the products directory belong to
+         * other archives.
+         */
+        private static void addDSYMs(Archive archive, File xcarchive, File products) {
+            File[] archived = new File(xcarchive, "dSYMs").listFiles(new FileFilter() {
+                public boolean accept(File file) {
+                    return file.isDirectory() && file.getName().endsWith(".dSYM");
+                }
+            });
+            if (archived != null && archived.length > 0) {
+                Arrays.sort(archived);
+                for (File dSYM : archived) {
+                    archive.dSYMs.add(dSYM.getPath());
+                }
+                return;
+            }
+            File dSYM = new File(products, archive.baseName + ".app.dSYM");
+            if (dSYM.isDirectory()) {
+                archive.dSYMs.add(dSYM.getPath());
+            }
+        }
+    }
+
+    static final class Finished implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String zipFailure;
+        String scanFailure;
+        ArrayList<DsymIndex.Binary> binaries = new ArrayList<>();
+    }
+
+    /**
+     * Moves an export out of its staging directory into the output directory it is called on, then zips the dSYMs
+     * and writes the manifest.
+     * <p>
+     * Every export has side files of the same names, such as {@code DistributionSummary.plist} and {@code Apps}, so
+     * the workers move their exports into an output directory one at a time, under a lock of that directory. The
+     * side files of the output directory then all come from the same archive.
+     */
+    static final class Finish extends MasterToSlaveFileCallable<Finished> {
+        private static final long serialVersionUID = 1L;
+
+        /** Locks by canonical output directory, on the node. */
+        private static final ConcurrentMap<String, Object> OUTPUTS = new ConcurrentHashMap<>();
+
+        private final String payload;
+        private final String exportedIpaName;
+        private final String ipaFileName;
+        private final List<String> dSYMs;
+        private final String dSYMZipName;
+        private final String manifestName;
+        private final String manifestUrl;
+        private final String appInfoPlist;
+        private final String shortVersion;
+
+        Finish(String payload, String exportedIpaName, String ipaFileName, List<String> dSYMs, String dSYMZipName,
+                String manifestName, String manifestUrl, String appInfoPlist, String shortVersion) {
+            this.payload = payload;
+            this.exportedIpaName = exportedIpaName;
+            this.ipaFileName = ipaFileName;
+            this.dSYMs = dSYMs;
+            this.dSYMZipName = dSYMZipName;
+            this.manifestName = manifestName;
+            this.manifestUrl = manifestUrl;
+            this.appInfoPlist = appInfoPlist;
+            this.shortVersion = shortVersion;
+        }
+
+        public Finished invoke(File ipaOutputPath, VirtualChannel channel) throws IOException, InterruptedException {
+            Finished finished = new Finished();
+
+            //rename exported ipa
+            File staging = new File(payload);
+            File exportedIpa = new File(staging, exportedIpaName);
+            synchronized (lock(ipaOutputPath)) {
+                if (exportedIpa.exists()) {
+                    move(exportedIpa, new File(ipaOutputPath, ipaFileName));
+                }
+                File[] exported = staging.listFiles();
+                if (exported != null) {
+                    for (File file : exported) {
+                        move(file, new File(ipaOutputPath, file.getName()));
+                    }
+                }
+            }
+
+            if (!dSYMs.isEmpty()) {
+                // the dSYMs of the archive go into the one zip, deflated on every core of the node
+                try {
+                    new ParallelZip.Create(dSYMs).invoke(new File(ipaOutputPath, dSYMZipName), channel);
+                } catch (IOException e) {
+                    finished.zipFailure = e.getMessage();
+                    return finished;
+                }
+                try {
+                    for (String dSYM : dSYMs) {
+                        finished.binaries.addAll(new DsymIndex.Scan().invoke(new File(dSYM), channel));
+                    }
+                } catch (IOException e) {
+                    finished.scanFailure = e.getMessage();
+                }
+            }
+
+            if (manifestName != null) {
+                Map<String, String> values = new InfoPlist.Read(":CFBundleIdentifier", ":CFBundleDisplayName").invoke(new File(appInfoPlist), channel);
+                String bundleId = StringUtils.trimToEmpty(values.get(":CFBundleIdentifier"));
+                String displayName = StringUtils.trimToEmpty(values.get(":CFBundleDisplayName"));
+
+                String manifest = MANIFEST_PLIST_TEMPLATE
+                                    .replace("${IPA_URL_BASE}", manifestUrl)
+                                    .replace("${IPA_NAME}", ipaFileName)
+                                    .replace("${BUNDLE_ID}", bundleId)
+                                    .replace("${BUNDLE_VERSION}", shortVersion)
+                                    .replace("${APP_NAME}", displayName);
+
+                FileUtils.writeStringToFile(new File(ipaOutputPath, manifestName), manifest, "UTF-8");
+            }
+            return finished;
+        }
+
+        private static Object lock(File ipaOutputPath) throws IOException {
+            String key = ipaOutputPath.getCanonicalPath();
+            Object lock = OUTPUTS.get(key);
+            if (lock == null) {
+                Object created = new Object();
+                lock = OUTPUTS.putIfAbsent(key, created);
+                lock = lock != null ? lock : created;
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Empties the directory it is called on, and removes it too unless a worker is still going to use it.
+     */
+    static final class Clear extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean remove;
+
+        Clear(boolean remove) {
+            this.remove = remove;
+        }
+
+        public Void invoke(File directory, VirtualChannel channel) throws IOException {
+            FileUtils.deleteDirectory(directory);
+            if (!remove && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            return null;
+        }
+    }
+}
@@ -29,11 +29,14 @@
 
 package au.com.rayh;
 
+import au.com.rayh.report.TestSuite;
+import au.com.rayh.report.TestSuiteWriter;
 import hudson.FilePath;
 import hudson.model.TaskListener;
-import java.io.FilterOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.Callable;
 
 /**
  *
@@ -42,43 +45,71 @@ import java.io.OutputStream;
 public class JenkinsXCodeBuildOutputParser extends XCodeBuildOutputParser {
     protected TaskListener buildListener;
     private FilePath testReportsDir;
+    private final File spoolDirectory;
+    private final BackgroundReportWriter reportWriter;
 
 	public JenkinsXCodeBuildOutputParser(FilePath workspace, TaskListener buildListener) throws IOException, InterruptedException {
-		super();
+		this(workspace, buildListener, null);
+	}
+
+    /**
+     * @param spoolDirectory a directory on the controller to spool the test cases of large suites to, or {@code null}
+     *                       to spool next to the reports when the workspace is on the controller
+     */
+    public JenkinsXCodeBuildOutputParser(FilePath workspace, TaskListener buildListener, File spoolDirectory)
+            throws IOException, InterruptedException {
+        super();
         this.buildListener = buildListener;
+        this.reportWriter = new BackgroundReportWriter(buildListener);
+        // the reports name the node that ran xcodebuild, not the controller
+        this.hostNames = workspace.isRemote() ? HostNameResolver.on(workspace.getChannel()) : HostNameResolver.local();
         this.captureOutputStream = new LineBasedFilterOutputStream();
 
         testReportsDir = workspace.child("test-reports");
         testReportsDir.mkdirs();
+        if (spoolDirectory == null && !testReportsDir.isRemote()) {
+            spoolDirectory = new File(testReportsDir.getRemote());
+        }
+        this.spoolDirectory = spoolDirectory;
     }
 
-    public class LineBasedFilterOutputStream extends FilterOutputStream {
-        StringBuilder buffer = new StringBuilder();
-
+    public class LineBasedFilterOutputStream extends XCodeBuildOutputParser.LineBasedFilterOutputStream {
         public LineBasedFilterOutputStream() {
             super(buildListener.getLogger());
         }
 
         @Override
-        public void write(int b) throws IOException {
-            super.write(b);
-            if((char)b == '\n') {
-                try {
-                    handleLine(buffer.toString());
-                    buffer = new StringBuilder();
-                } catch(Exception e) {  // Very fugly
-                    buildListener.fatalError(e.getMessage(), e);
-                    throw new IOException(e);
-                }
-            } else {
-                buffer.append((char)b);
-            }
+        protected void lineFailed(Exception e) throws IOException {
+            buildListener.fatalError(e.getMessage(), e);
+            throw new IOException(e);
         }
     }
 
+    @Override
+    protected void writeTestReport(final TestSuite suite, final String fileName, final TestSuiteWriter writer)
+            throws InterruptedException {
+        reportWriter.submit(suite.getName(), new Callable<Void>() {
+            public Void call() throws Exception {
+                JenkinsXCodeBuildOutputParser.super.writeTestReport(suite, fileName, writer);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected File spoolDirectory() {
+        return spoolDirectory;
+    }
+
+    @Override
+    public void awaitReports() throws IOException, InterruptedException {
+        super.awaitReports();
+        reportWriter.drain();
+    }
+
 	@Override
-	protected OutputStream outputForSuite() throws IOException,
+	protected OutputStream outputForReport(String fileName) throws IOException,
 			InterruptedException {
-		return testReportsDir.child("TEST-" + currentTestSuite.getName() + ".xml").write();
+		return testReportsDir.child(fileName).write();
 	}
 }
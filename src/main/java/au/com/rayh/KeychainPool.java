@@ -0,0 +1,369 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the keychains that {@link DeveloperProfileLoader} builds from a developer profile, so that the builds that
+ * follow on the same node reuse them instead of importing the same identities again.
+ * <p>
+ * A keychain is named after a digest of the profile image and password, so it never has to change: a profile that
+ * changes gets a keychain of its own, and builds still signing with the old one are not disturbed. Every build
+ * holds a lease on the keychain it uses until it completes. A keychain that a newer one of the same profile has
+ * replaced is deleted when its last lease is released. The first build to lease a keychain builds it while the
+ * others wait, for at most {@link #BUILD_TIMEOUT} seconds, after which the next one builds it instead.
+ * <p>
+ * The pool itself lives on the node, in memory, along with the passwords of its keychains; when the agent
+ * restarts, the keychains are built again.
+ */
+final class KeychainPool {
+    private static final Logger LOGGER = Logger.getLogger(KeychainPool.class.getName());
+
+    /**
+     * How long the builds waiting for a keychain give the build building it, in seconds, before building it themselves.
+     */
+    static final long BUILD_TIMEOUT = Long.getLong(KeychainPool.class.getName() + ".buildTimeout", 600);
+
+    /**
+     * The keychains of this node, by name. Guarded by itself.
+     */
+    private static final Map<String, Entry> KEYCHAINS = new HashMap<>();
+
+    /**
+     * The leases held by the running builds, by build. Only used on the controller.
+     */
+    private static final ConcurrentMap<String, List<Held>> HELD = new ConcurrentHashMap<>();
+
+    private KeychainPool() {
+    }
+
+    /**
+     * Names the keychain of a profile on a node, from the {@link DeveloperProfile#fingerprint digest} of the profile.
+     */
+    static String keychainName(byte[] fingerprint) {
+        StringBuilder name = new StringBuilder("jenkins-");
+        for (int i = 0; i < 8; i++) {
+            name.append(String.format("%02x", fingerprint[i] & 0xFF));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Leases the keychain of a profile for a build, waiting if another build is building it.
+     * The lease is released when the build completes.
+     */
+    static Lease lease(Run<?, ?> build, Node node, String profileId, String keychain) throws IOException, InterruptedException {
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            throw new IOException(node.getDisplayName() + " is offline");
+        }
+        Lease lease = channel.call(new Acquire(profileId, keychain, build.getExternalizableId()));
+        List<Held> held = new ArrayList<>();
+        List<Held> existing = HELD.putIfAbsent(build.getExternalizableId(), held);
+        held = existing != null ? existing : held;
+        synchronized (held) {
+            held.add(new Held(node, keychain));
+        }
+        return lease;
+    }
+
+    /**
+     * Tells the builds waiting for a keychain whether the build that leased it first managed to build it.
+     * A keychain that could not be built is forgotten, and the next build to lease it tries again.
+     */
+    static void built(Run<?, ?> build, Node node, String keychain, boolean built) throws IOException, InterruptedException {
+        VirtualChannel channel = node.getChannel();
+        if (channel != null) {
+            channel.call(new Built(keychain, build.getExternalizableId(), built));
+        }
+    }
+
+    /**
+     * Forgets a keychain that a build was given but could not unlock, so that the next build to lease it builds it
+     * again. Nothing is forgotten if the keychain is already being built again, or was built again with another
+     * password.
+     */
+    static void forget(Node node, String keychain, String password) throws IOException, InterruptedException {
+        VirtualChannel channel = node.getChannel();
+        if (channel != null) {
+            channel.call(new Forget(keychain, password));
+        }
+    }
+
+    /**
+     * What a build gets when it leases a keychain.
+     */
+    static final class Lease implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String keychain;
+        private final String password;
+        private final boolean build;
+        private final List<String> obsolete;
+
+        Lease(String keychain, String password, boolean build, List<String> obsolete) {
+            this.keychain = keychain;
+            this.password = password;
+            this.build = build;
+            this.obsolete = obsolete;
+        }
+
+        String getKeychain() {
+            return keychain;
+        }
+
+        String getPassword() {
+            return password;
+        }
+
+        /**
+         * Whether the keychain has to be built by this build; the others only unlock it.
+         */
+        boolean isBuild() {
+            return build;
+        }
+
+        /**
+         * Keychains of the same profile that nobody uses any more, which the build should delete.
+         */
+        List<String> getObsolete() {
+            return obsolete;
+        }
+    }
+
+    private static final class Entry {
+        final String profileId;
+        final String password = UUID.randomUUID().toString();
+        final Set<String> leases = new HashSet<>();
+        boolean building = true;
+        /** the build building the keychain, and since when */
+        final String builder;
+        final long buildingSince = System.nanoTime();
+        boolean stale;
+
+        Entry(String profileId, String builder) {
+            this.profileId = profileId;
+            this.builder = builder;
+        }
+    }
+
+    private static final class Held {
+        final Node node;
+        final String keychain;
+
+        Held(Node node, String keychain) {
+            this.node = node;
+            this.keychain = keychain;
+        }
+    }
+
+    static final class Acquire extends MasterToSlaveCallable<Lease, InterruptedException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String profileId;
+        private final String keychain;
+        private final String build;
+        private final long buildTimeoutMillis;
+
+        Acquire(String profileId, String keychain, String build) {
+            this(profileId, keychain, build, TimeUnit.SECONDS.toMillis(BUILD_TIMEOUT));
+        }
+
+        Acquire(String profileId, String keychain, String build, long buildTimeoutMillis) {
+            this.profileId = profileId;
+            this.keychain = keychain;
+            this.build = build;
+            this.buildTimeoutMillis = buildTimeoutMillis;
+        }
+
+        public Lease call() throws InterruptedException {
+            synchronized (KEYCHAINS) {
+                Entry entry = KEYCHAINS.get(keychain);
+                while (entry != null && entry.building) {
+                    long left = buildTimeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.buildingSince);
+                    if (left <= 0) {
+                        // the build building it died or hangs; whatever it reports later is ignored
+                        LOGGER.log(Level.WARNING, "{0} took over building the keychain {1} from {2}",
+                                new Object[] {build, keychain, entry.builder});
+                        KEYCHAINS.remove(keychain);
+                        entry = null;
+                        break;
+                    }
+                    KEYCHAINS.wait(left);
+                    entry = KEYCHAINS.get(keychain);
+                }
+                boolean build = entry == null;
+                if (build) {
+                    entry = new Entry(profileId, this.build);
+                    KEYCHAINS.put(keychain, entry);
+                }
+                entry.leases.add(this.build);
+
+                List<String> obsolete = new ArrayList<>();
+                for (Iterator<Map.Entry<String, Entry>> it = KEYCHAINS.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<String, Entry> other = it.next();
+                    if (other.getValue().profileId.equals(profileId) && !other.getKey().equals(keychain)) {
+                        other.getValue().stale = true;
+                        if (other.getValue().leases.isEmpty() && !other.getValue().building) {
+                            it.remove();
+                            obsolete.add(other.getKey());
+                        }
+                    }
+                }
+                return new Lease(keychain, entry.password, build, obsolete);
+            }
+        }
+    }
+
+    static final class Built extends MasterToSlaveCallable<Void, RuntimeException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String keychain;
+        private final String build;
+        private final boolean built;
+
+        Built(String keychain, String build, boolean built) {
+            this.keychain = keychain;
+            this.build = build;
+            this.built = built;
+        }
+
+        public Void call() {
+            synchronized (KEYCHAINS) {
+                Entry entry = KEYCHAINS.get(keychain);
+                // a build that was taken over no longer owns the keychain
+                if (entry != null && entry.building && entry.builder.equals(build)) {
+                    entry.building = false;
+                    if (!built) {
+                        KEYCHAINS.remove(keychain);
+                    }
+                }
+                KEYCHAINS.notifyAll();
+            }
+            return null;
+        }
+    }
+
+    static final class Forget extends MasterToSlaveCallable<Void, RuntimeException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String keychain;
+        private final String password;
+
+        Forget(String keychain, String password) {
+            this.keychain = keychain;
+            this.password = password;
+        }
+
+        public Void call() {
+            synchronized (KEYCHAINS) {
+                Entry entry = KEYCHAINS.get(keychain);
+                if (entry != null && !entry.building && entry.password.equals(password)) {
+                    KEYCHAINS.remove(keychain);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Releases the lease of a build, telling whether the keychain should now be deleted.
+     */
+    static final class Release extends MasterToSlaveCallable<Boolean, RuntimeException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String keychain;
+        private final String build;
+
+        Release(String keychain, String build) {
+            this.keychain = keychain;
+            this.build = build;
+        }
+
+        public Boolean call() {
+            synchronized (KEYCHAINS) {
+                Entry entry = KEYCHAINS.get(keychain);
+                if (entry == null) {
+                    return false;
+                }
+                entry.leases.remove(build);
+                if (entry.leases.isEmpty() && entry.stale && !entry.building) {
+                    KEYCHAINS.remove(keychain);
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    @Extension
+    public static final class Releaser extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, TaskListener listener) {
+            List<Held> held = HELD.remove(run.getExternalizableId());
+            if (held == null) {
+                return;
+            }
+            synchronized (held) {
+                for (Held lease : held) {
+                    try {
+                        VirtualChannel channel = lease.node.getChannel();
+                        if (channel != null && channel.call(new Release(lease.keychain, run.getExternalizableId()))) {
+                            lease.node.createLauncher(listener).launch().cmds("security", "delete-keychain", lease.keychain).quiet(true).join();
+                        }
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Failed to release the keychain " + lease.keychain, e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coordinates the builds that change the keychain search list and default keychain of a node, which belong to the
+ * user running the agent rather than to a build.
+ * <p>
+ * A build that unlocks a keychain leases it into the search list until it completes. The search list of a node is
+ * the keychains leased by its running builds, in the order they were leased, so concurrent builds on the same node
+ * no longer take each other's keychain out of the list; once no build holds a lease, it is the list last restored by
+ * {@link OSXKeychainBuildWrapper}. The default keychain is the one leased first. {@code security} is only run when
+ * the search list or default keychain of a node actually changes, and both are set in one {@link CommandBatch}.
+ * <p>
+ * The state of each node lives on the controller, in memory, and assumes nothing else changes the search list. Each
+ * state is its own lock, so builds on different nodes do not wait for each other.
+ */
+final class KeychainSearchList {
+    private static final Logger LOGGER = Logger.getLogger(KeychainSearchList.class.getName());
+
+    private static final String SECURITY = "/usr/bin/security";
+
+    /**
+     * The state of each node, by node name. Each is guarded by itself.
+     */
+    private static final ConcurrentMap<String, State> NODES = new ConcurrentHashMap<>();
+
+    private KeychainSearchList() {
+    }
+
+    /**
+     * Puts a keychain in the search list of a node for a build, until the build completes.
+     *
+     * @return the exit code of the {@code security} command that failed, or 0
+     */
+    static int lease(Run<?, ?> build, Node node, Launcher launcher, EnvVars envs, FilePath pwd, TaskListener listener,
+            String keychain) throws IOException, InterruptedException {
+        State state = state(node);
+        synchronized (state) {
+            state.node = node;
+            state.leases.put(build.getExternalizableId(), keychain);
+            return apply(state, launcher, envs, pwd, listener);
+        }
+    }
+
+    /**
+     * Releases the lease of a build, and sets the search list and default keychain of the node for when no build
+     * holds a lease.
+     *
+     * @param defaultKeychain null to leave the default keychain alone
+     * @return the exit code of the {@code security} command that failed, or 0
+     */
+    static int restore(Run<?, ?> build, Node node, Launcher launcher, EnvVars envs, FilePath pwd, TaskListener listener,
+            List<String> searchList, String defaultKeychain) throws IOException, InterruptedException {
+        State state = state(node);
+        synchronized (state) {
+            state.node = node;
+            state.leases.remove(build.getExternalizableId());
+            state.base = new ArrayList<>(searchList);
+            state.baseDefault = defaultKeychain;
+            return apply(state, launcher, envs, pwd, listener);
+        }
+    }
+
+    private static State state(Node node) {
+        State state = NODES.get(node.getNodeName());
+        if (state == null) {
+            State created = new State();
+            state = NODES.putIfAbsent(node.getNodeName(), created);
+            state = state != null ? state : created;
+        }
+        return state;
+    }
+
+    /**
+     * Brings the search list and default keychain of a node in line with its state. A command that fails leaves
+     * the node in an unknown state, and the next change runs it again.
+     */
+    private static int apply(State state, Launcher launcher, EnvVars envs, FilePath pwd, TaskListener listener) throws IOException, InterruptedException {
+        CommandBatch batch = new CommandBatch();
+        List<String> searchList = state.searchList();
+        boolean setSearchList = searchList != null && !searchList.equals(state.applied);
+        if (setSearchList) {
+            List<String> commandLine = new ArrayList<>();
+            commandLine.add(SECURITY);
+            commandLine.add("list-keychains");
+            commandLine.add("-s");
+            commandLine.addAll(searchList);
+            batch.add(commandLine.toArray(new String[commandLine.size()])).stopOnFailure();
+        }
+        String defaultKeychain = state.defaultKeychain();
+        boolean setDefault = defaultKeychain != null && !defaultKeychain.equals(state.appliedDefault);
+        if (setDefault) {
+            batch.add(SECURITY, "default-keychain", "-d", "user", "-s", defaultKeychain);
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        List<CommandBatch.Result> results = batch.execute(launcher, envs, pwd, listener);
+        if (setSearchList) {
+            CommandBatch.Result result = results.remove(0);
+            if (!result.isSuccess()) {
+                state.applied = null;
+                state.appliedDefault = null;
+                return result.getExitCode();
+            }
+            state.applied = searchList;
+        }
+        if (setDefault) {
+            CommandBatch.Result result = results.remove(0);
+            if (!result.isSuccess()) {
+                state.appliedDefault = null;
+                return result.getExitCode();
+            }
+            state.appliedDefault = defaultKeychain;
+        }
+        return 0;
+    }
+
+    /**
+     * The keychain state of one node.
+     */
+    static final class State {
+        /**
+         * The keychain leased by each running build, in the order they were leased.
+         */
+        final Map<String, String> leases = new LinkedHashMap<>();
+        /**
+         * The search list and default keychain when no build holds a lease, or null if not known.
+         */
+        List<String> base;
+        String baseDefault;
+        /**
+         * What the node was last set to, or null if not known.
+         */
+        List<String> applied;
+        String appliedDefault;
+        Node node;
+
+        /**
+         * The search list the node should have, or null to leave it alone.
+         */
+        List<String> searchList() {
+            if (leases.isEmpty()) {
+                return base;
+            }
+            return new ArrayList<>(new LinkedHashSet<>(leases.values()));
+        }
+
+        /**
+         * The default keychain the node should have, or null to leave it alone.
+         */
+        String defaultKeychain() {
+            if (leases.isEmpty()) {
+                return baseDefault;
+            }
+            return leases.values().iterator().next();
+        }
+    }
+
+    @Extension
+    public static final class Releaser extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, TaskListener listener) {
+            for (Map.Entry<String, State> e : NODES.entrySet()) {
+                State state = e.getValue();
+                synchronized (state) {
+                    if (state.leases.remove(run.getExternalizableId()) == null) {
+                        continue;
+                    }
+                    try {
+                        apply(state, state.node.createLauncher(listener), new EnvVars(), null, listener);
+                    } catch (IOException x) {
+                        LOGGER.log(Level.FINE, "Failed to update the keychain search list of " + e.getKey(), x);
+                    } catch (InterruptedException x) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the UUIDs that the linker stamps into Mach-O binaries, which is what crash reports and symbol servers use
+ * to match an address to the dSYM it came from. Only the headers and load commands are mapped, so reading the
+ * UUIDs of a DWARF file costs the same whatever its size.
+ */
+final class MachO {
+    private static final int FAT_MAGIC = 0xCAFEBABE;
+    private static final int FAT_MAGIC_64 = 0xCAFEBABF;
+    private static final int MH_MAGIC = 0xFEEDFACE;
+    private static final int MH_MAGIC_64 = 0xFEEDFACF;
+    private static final int MH_CIGAM = 0xCEFAEDFE;
+    private static final int MH_CIGAM_64 = 0xCFFAEDFE;
+    private static final int LC_UUID = 0x1B;
+
+    private static final int CPU_ARCH_ABI64 = 0x01000000;
+    private static final int CPU_ARCH_ABI64_32 = 0x02000000;
+    private static final int CPU_TYPE_X86 = 7;
+    private static final int CPU_TYPE_ARM = 12;
+    private static final int CPU_SUBTYPE_MASK = 0xFF000000;
+
+    private MachO() {
+    }
+
+    /**
+     * Reads the UUID of every architecture in a thin or fat binary.
+     *
+     * @return the UUIDs in the order of the slices, which may share an architecture name; empty if the file is not
+     *         a Mach-O binary or carries no UUID
+     */
+    static List<Uuid> uuids(File file) throws IOException {
+        List<Uuid> uuids = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < 8) {
+                return uuids;
+            }
+            ByteBuffer header = map(channel, 0, Math.min(size, 4096));
+            int magic = header.getInt(0);
+            if (magic == FAT_MAGIC || magic == FAT_MAGIC_64) {
+                int count = header.getInt(4);
+                int entry = magic == FAT_MAGIC_64 ? 32 : 20;
+                if (count < 0 || 8 + (long) count * entry > header.limit()) {
+                    // Java class files share the fat magic; their next field is a version, not a slice count
+                    return uuids;
+                }
+                for (int i = 0; i < count; i++) {
+                    int at = 8 + i * entry;
+                    long offset = magic == FAT_MAGIC_64 ? header.getLong(at + 8) : header.getInt(at + 8) & 0xFFFFFFFFL;
+                    long length = magic == FAT_MAGIC_64 ? header.getLong(at + 16) : header.getInt(at + 12) & 0xFFFFFFFFL;
+                    if (offset < 0 || length < 0 || offset + length > size) {
+                        throw new IOException(file + " has a slice past its end");
+                    }
+                    read(channel, offset, length, uuids);
+                }
+            } else {
+                read(channel, 0, size, uuids);
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * Reads the UUID of the thin binary at the given place in the file.
+     */
+    private static void read(FileChannel channel, long offset, long length, List<Uuid> uuids) throws IOException {
+        if (length < 28) {
+            return;
+        }
+        ByteBuffer header = map(channel, offset, 32);
+        int magic = header.getInt(0);
+        boolean is64 = magic == MH_MAGIC_64 || magic == MH_CIGAM_64;
+        if (magic == MH_CIGAM || magic == MH_CIGAM_64) {
+            header.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (magic != MH_MAGIC && magic != MH_MAGIC_64) {
+            return;
+        }
+        int cpuType = header.getInt(4);
+        int cpuSubtype = header.getInt(8);
+        int commands = header.getInt(16);
+        long commandsSize = header.getInt(20) & 0xFFFFFFFFL;
+        int headerSize = is64 ? 32 : 28;
+        if (headerSize + commandsSize > length) {
+            throw new IOException("Load commands past the end of the binary");
+        }
+        ByteBuffer loadCommands = map(channel, offset + headerSize, commandsSize).order(header.order());
+        int at = 0;
+        for (int i = 0; i < commands && at + 8 <= loadCommands.limit(); i++) {
+            int command = loadCommands.getInt(at);
+            int commandSize = loadCommands.getInt(at + 4);
+            if (commandSize < 8 || commandSize > loadCommands.limit() - at) {
+                throw new IOException("Malformed load command " + i);
+            }
+            if (command == LC_UUID && at + 24 <= loadCommands.limit()) {
+                uuids.add(new Uuid(architecture(cpuType, cpuSubtype), uuid(loadCommands, at + 8)));
+                return;
+            }
+            at += commandSize;
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(length, channel.size() - offset));
+        return buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Formats a UUID the way dwarfdump --uuid and crash reports print it.
+     */
+    private static String uuid(ByteBuffer buffer, int at) {
+        StringBuilder uuid = new StringBuilder(36);
+        for (int i = 0; i < 16; i++) {
+            if (i == 4 || i == 6 || i == 8 || i == 10) {
+                uuid.append('-');
+            }
+            uuid.append(String.format("%02X", buffer.get(at + i) & 0xFF));
+        }
+        return uuid.toString();
+    }
+
+    /**
+     * Names an architecture the way lipo and dwarfdump do.
+     */
+    static String architecture(int cpuType, int cpuSubtype) {
+        int subtype = cpuSubtype & ~CPU_SUBTYPE_MASK;
+        switch (cpuType) {
+            case CPU_TYPE_X86:
+                return "i386";
+            case CPU_TYPE_X86 | CPU_ARCH_ABI64:
+                return subtype == 8 ? "x86_64h" : "x86_64";
+            case CPU_TYPE_ARM:
+                switch (subtype) {
+                    case 6:
+                        return "armv6";
+                    case 9:
+                        return "armv7";
+                    case 11:
+                        return "armv7s";
+                    case 12:
+                        return "armv7k";
+                    default:
+                        return "arm";
+                }
+            case CPU_TYPE_ARM | CPU_ARCH_ABI64:
+                return subtype == 2 ? "arm64e" : "arm64";
+            case CPU_TYPE_ARM | CPU_ARCH_ABI64_32:
+                return "arm64_32";
+            default:
+                return "cpu" + cpuType + "." + subtype;
+        }
+    }
+
+    /**
+     * The UUID of one slice of a binary.
+     */
+    static final class Uuid {
+        private final String architecture;
+        private final String uuid;
+
+        Uuid(String architecture, String uuid) {
+            this.architecture = architecture;
+            this.uuid = uuid;
+        }
+
+        String getArchitecture() {
+            return architecture;
+        }
+
+        String getUuid() {
+            return uuid;
+        }
+
+        @Override
+        public String toString() {
+            return architecture + "=" + uuid;
+        }
+    }
+}
@@ -37,15 +37,13 @@ public class OSXKeychainBuildWrapper extends BuildWrapper {
 				FilePath projectRoot = build.getWorkspace();
 				EnvVars envs = build.getEnvironment(listener);
 
-				List<String> commandLine = Lists.newArrayList("/usr/bin/security");
-	            commandLine.add("list-keychains");
-	            commandLine.add("-s");
+				List<String> searchList = Lists.newArrayList();
 	            
 	            String defaultKeychainName = getDescriptor().getGlobalConfiguration().getDefaultKeychain();
 	            Keychain defaultKeychain = null;
 	            for (Keychain k : getDescriptor().getGlobalConfiguration().getKeychains()) {
 	            	if (k.isInSearchPath() && ! StringUtils.isEmpty(k.getKeychainPath())) {
-	            		commandLine.add(envs.expand(k.getKeychainPath()));
+	            		searchList.add(envs.expand(k.getKeychainPath()));
 	            		
 	            		if (defaultKeychain == null && defaultKeychainName != null && k.getKeychainName().equals(defaultKeychainName)) {
 	            			defaultKeychain = k;
@@ -53,12 +51,9 @@ public class OSXKeychainBuildWrapper extends BuildWrapper {
 	            	}
 	            }
 
-	            int returnCode = launcher.launch().envs(envs).cmds(commandLine).stdout(listener).pwd(projectRoot).join();
-	            
-	            // Set default keychain
-	            if (returnCode == 0 && defaultKeychain != null) {
-	            	returnCode = launcher.launch().envs(envs).cmds("/usr/bin/security", "default-keychain", "-d", "user", "-s", envs.expand(defaultKeychain.getKeychainPath())).stdout(listener).pwd(projectRoot).join();
-	            }
+	            // Builds still running on the node keep their keychains in the search list until they complete
+	            int returnCode = KeychainSearchList.restore(build, build.getBuiltOn(), launcher, envs, projectRoot, listener,
+	            		searchList, defaultKeychain != null ? envs.expand(defaultKeychain.getKeychainPath()) : null);
 
 	            // Something went wrong, mark unstable to ping user
 	            if (returnCode > 0) {
@@ -0,0 +1,562 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip file like {@code ditto -c -k --keepParent} does, deflating large files on all cores.
+ * <p>
+ * Files are cut into {@link #CHUNK} sized pieces that are deflated independently, each primed with the last 32 KiB
+ * of the piece before it, and ended with a sync flush so that the pieces join into one ordinary deflate stream, the
+ * way pigz does it. The zip itself is written in order, as the pieces are done, with the sizes and CRC of every entry
+ * in a data descriptor after its data; ZIP64 records are added when an entry or the archive grows past 4 GiB.
+ * At most {@link #WINDOW} pieces are in flight, which bounds the memory used whatever the size of the files.
+ */
+final class ParallelZip implements Closeable {
+    static final int CHUNK = 1024 * 1024;
+    static final int WINDOW = 4 * Runtime.getRuntime().availableProcessors();
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int DICTIONARY = 32 * 1024;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    // leaves room for the few bytes deflate adds to data it cannot compress
+    private static final long ZIP64_SIZE_LIMIT = 0xF0000000L;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Shared by all the zips written on a node, so that exporting several archives at once does not start more
+     * compressing threads than there are cores.
+     */
+    private static final ExecutorService DEFLATERS;
+    static {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "dSYM compressor"));
+        executor.allowCoreThreadTimeOut(true);
+        DEFLATERS = executor;
+    }
+
+    private final CountingOutputStream out;
+    private final ExecutorService executor;
+    private final int chunk;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Deque<Step> pending = new ArrayDeque<>();
+    private int inFlight;
+
+    ParallelZip(OutputStream out) {
+        this(out, DEFLATERS, CHUNK);
+    }
+
+    ParallelZip(OutputStream out, ExecutorService executor, int chunk) {
+        this.out = new CountingOutputStream(out);
+        this.executor = executor;
+        this.chunk = chunk;
+    }
+
+    /**
+     * Adds a file or a directory tree, keeping its own name as the top of the entry names.
+     */
+    void add(File source) throws IOException, InterruptedException {
+        add(source, source.getName());
+    }
+
+    private void add(File file, String name) throws IOException, InterruptedException {
+        Path path = file.toPath();
+        if (Files.isSymbolicLink(path)) {
+            byte[] target = Files.readSymbolicLink(path).toString().getBytes(UTF8);
+            Entry entry = new Entry(name, file, 0120000 | mode(path, 0777), STORED, false);
+            entry.crc = crc(target);
+            entry.csize = entry.usize = target.length;
+            add(new Header(entry, target));
+        } else if (file.isDirectory()) {
+            add(new Header(new Entry(name + "/", file, 040000 | mode(path, 0755), STORED, false), new byte[0]));
+            File[] children = file.listFiles();
+            if (children == null) {
+                throw new IOException("Cannot list " + file);
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                add(child, name + "/" + child.getName());
+            }
+        } else {
+            Entry entry = new Entry(name, file, 0100000 | mode(path, 0644), DEFLATED, file.length() >= ZIP64_SIZE_LIMIT);
+            add(new Header(entry, null));
+            deflate(file, entry);
+            add(new Descriptor(entry));
+        }
+    }
+
+    private void deflate(File file, Entry entry) throws IOException, InterruptedException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] dictionary = null;
+            byte[] piece = read(in, chunk);
+            while (true) {
+                crc.update(piece, 0, piece.length);
+                entry.usize += piece.length;
+                byte[] next = piece.length == chunk ? read(in, chunk) : new byte[0];
+                boolean last = next.length == 0;
+                inFlight++;
+                add(new Data(entry, executor.submit(new Deflate(dictionary, piece, last))));
+                if (last) {
+                    break;
+                }
+                dictionary = Arrays.copyOfRange(piece, Math.max(0, piece.length - DICTIONARY), piece.length);
+                piece = next;
+            }
+        }
+        entry.crc = crc.getValue();
+    }
+
+    private void add(Step step) throws IOException, InterruptedException {
+        pending.add(step);
+        drain(WINDOW);
+    }
+
+    /**
+     * Writes out the steps at the head of the queue until no more than the given number of pieces are in flight.
+     */
+    private void drain(int window) throws IOException, InterruptedException {
+        while (!pending.isEmpty() && (inFlight > window || !(pending.peek() instanceof Data))) {
+            Step step = pending.poll();
+            if (step instanceof Data) {
+                inFlight--;
+            }
+            step.write();
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            drain(-1);
+            writeDirectory();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            for (Step step : pending) {
+                if (step instanceof Data) {
+                    ((Data) step).data.cancel(true);
+                }
+            }
+            out.close();
+        }
+    }
+
+    private void writeDirectory() throws IOException {
+        long directory = out.count;
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long directorySize = out.count - directory;
+        if (entries.size() >= 0xFFFF || directory >= ZIP64_LIMIT || directorySize >= ZIP64_LIMIT) {
+            long record = out.count;
+            writeInt(0x06064b50);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(entries.size());
+            writeLong(entries.size());
+            writeLong(directorySize);
+            writeLong(directory);
+            writeInt(0x07064b50);
+            writeInt(0);
+            writeLong(record);
+            writeInt(1);
+        }
+        writeInt(0x06054b50);
+        writeShort(0);
+        writeShort(0);
+        writeShort((int) Math.min(entries.size(), 0xFFFF));
+        writeShort((int) Math.min(entries.size(), 0xFFFF));
+        writeInt(Math.min(directorySize, ZIP64_LIMIT));
+        writeInt(Math.min(directory, ZIP64_LIMIT));
+        writeShort(0);
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        entry.offset = out.count;
+        entries.add(entry);
+        writeInt(0x04034b50);
+        writeShort(entry.zip64 ? 45 : 20);
+        writeShort(entry.flags());
+        writeShort(entry.method);
+        writeInt(entry.time);
+        // a deflated entry is written before its size is known, so its CRC and sizes follow in a data descriptor
+        writeInt(entry.method == STORED ? entry.crc : 0);
+        writeInt(entry.zip64 ? ZIP64_LIMIT : entry.method == STORED ? entry.csize : 0);
+        writeInt(entry.zip64 ? ZIP64_LIMIT : entry.method == STORED ? entry.usize : 0);
+        writeShort(entry.name.length);
+        writeShort(entry.zip64 ? 20 : 0);
+        out.write(entry.name);
+        if (entry.zip64) {
+            writeShort(1);
+            writeShort(16);
+            writeLong(0);
+            writeLong(0);
+        }
+    }
+
+    private void writeDescriptor(Entry entry) throws IOException {
+        writeInt(0x08074b50);
+        writeInt(entry.crc);
+        if (entry.zip64) {
+            writeLong(entry.csize);
+            writeLong(entry.usize);
+        } else {
+            if (entry.csize >= ZIP64_LIMIT) {
+                throw new IOException(new String(entry.name, UTF8) + " did not compress below 4 GiB");
+            }
+            writeInt(entry.csize);
+            writeInt(entry.usize);
+        }
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        ByteArrayOutputStream extra = new ByteArrayOutputStream();
+        boolean usize64 = entry.usize >= ZIP64_LIMIT || entry.zip64;
+        boolean csize64 = entry.csize >= ZIP64_LIMIT || entry.zip64;
+        boolean offset64 = entry.offset >= ZIP64_LIMIT;
+        if (usize64 || csize64 || offset64) {
+            int size = (usize64 ? 8 : 0) + (csize64 ? 8 : 0) + (offset64 ? 8 : 0);
+            writeShort(extra, 1);
+            writeShort(extra, size);
+            if (usize64) {
+                writeLong(extra, entry.usize);
+            }
+            if (csize64) {
+                writeLong(extra, entry.csize);
+            }
+            if (offset64) {
+                writeLong(extra, entry.offset);
+            }
+        }
+        int version = extra.size() > 0 ? 45 : 20;
+        writeInt(0x02014b50);
+        // made by Unix, so that the mode in the external attributes is honoured
+        writeShort(3 << 8 | version);
+        writeShort(version);
+        writeShort(entry.flags());
+        writeShort(entry.method);
+        writeInt(entry.time);
+        writeInt(entry.crc);
+        writeInt(csize64 ? ZIP64_LIMIT : entry.csize);
+        writeInt(usize64 ? ZIP64_LIMIT : entry.usize);
+        writeShort(entry.name.length);
+        writeShort(extra.size());
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt((long) entry.mode << 16 | ((entry.mode & 040000) != 0 ? 0x10 : 0));
+        writeInt(offset64 ? ZIP64_LIMIT : entry.offset);
+        out.write(entry.name);
+        extra.writeTo(out);
+    }
+
+    private void writeShort(int value) throws IOException {
+        writeShort(out, value);
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort(out, (int) value);
+        writeShort(out, (int) (value >>> 16));
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeLong(out, value);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (value >>> (8 * i)) & 0xFF);
+        }
+    }
+
+    private static byte[] read(InputStream in, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                return Arrays.copyOf(buffer, read);
+            }
+            read += n;
+        }
+        return buffer;
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    private static int mode(Path path, int fallback) {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+            int mode = 0;
+            for (PosixFilePermission permission : permissions) {
+                // OWNER_READ is the first constant and OTHERS_EXECUTE the last, matching the bits from high to low
+                mode |= 0400 >> permission.ordinal();
+            }
+            return mode;
+        } catch (UnsupportedOperationException | IOException e) {
+            return fallback;
+        }
+    }
+
+    private static long dosTime(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return 1 << 21 | 1 << 16;
+        }
+        return (long) (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static final class Entry {
+        final byte[] name;
+        final long time;
+        final int mode;
+        final int method;
+        final boolean zip64;
+        long offset;
+        long crc;
+        long csize;
+        long usize;
+
+        Entry(String name, File file, int mode, int method, boolean zip64) {
+            this.name = name.getBytes(UTF8);
+            this.time = dosTime(file.lastModified());
+            this.mode = mode;
+            this.method = method;
+            this.zip64 = zip64;
+        }
+
+        int flags() {
+            // names are UTF-8, and the sizes of deflated entries follow their data
+            return 1 << 11 | (method == DEFLATED ? 1 << 3 : 0);
+        }
+    }
+
+    private interface Step {
+        void write() throws IOException, InterruptedException;
+    }
+
+    private final class Header implements Step {
+        private final Entry entry;
+        private final byte[] stored;
+
+        /**
+         * @param stored the data of an entry that is not compressed, null for one whose data follows
+         */
+        Header(Entry entry, byte[] stored) {
+            this.entry = entry;
+            this.stored = stored;
+        }
+
+        public void write() throws IOException {
+            writeLocalHeader(entry);
+            if (stored != null) {
+                out.write(stored);
+            }
+        }
+    }
+
+    private final class Data implements Step {
+        private final Entry entry;
+        private final Future<byte[]> data;
+
+        Data(Entry entry, Future<byte[]> data) {
+            this.entry = entry;
+            this.data = data;
+        }
+
+        public void write() throws IOException, InterruptedException {
+            byte[] bytes;
+            try {
+                bytes = data.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            out.write(bytes);
+            entry.csize += bytes.length;
+        }
+    }
+
+    private final class Descriptor implements Step {
+        private final Entry entry;
+
+        Descriptor(Entry entry) {
+            this.entry = entry;
+        }
+
+        public void write() throws IOException {
+            writeDescriptor(entry);
+        }
+    }
+
+    /**
+     * Deflates one piece of a file into raw deflate blocks that continue the blocks of the piece before it.
+     */
+    private static final class Deflate implements Callable<byte[]> {
+        private final byte[] dictionary;
+        private final byte[] piece;
+        private final boolean last;
+
+        Deflate(byte[] dictionary, byte[] piece, boolean last) {
+            this.dictionary = dictionary;
+            this.piece = piece;
+            this.last = last;
+        }
+
+        public byte[] call() {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(piece);
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(piece.length / 2 + 64);
+                byte[] buffer = new byte[64 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        compressed.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    int n;
+                    do {
+                        n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        compressed.write(buffer, 0, n);
+                    } while (n == buffer.length);
+                }
+                return compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends BufferedOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out, 64 * 1024);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            super.write(b);
+            count++;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Zips directories into the file it is called on, replacing what was there.
+     */
+    static final class Create extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> sources;
+
+        Create(List<String> sources) {
+            this.sources = new ArrayList<>(sources);
+        }
+
+        public Void invoke(File zip, VirtualChannel channel) throws IOException, InterruptedException {
+            boolean written = false;
+            try {
+                try (ParallelZip writer = new ParallelZip(new FileOutputStream(zip))) {
+                    for (String source : sources) {
+                        writer.add(new File(source));
+                    }
+                }
+                written = true;
+            } finally {
+                if (!written) {
+                    // do not leave a zip behind that looks complete but is missing files
+                    zip.delete();
+                }
+            }
+            return null;
+        }
+    }
+}
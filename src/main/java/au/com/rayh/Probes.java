@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the probes of a build step that do not depend on each other at the same time, so that the step waits for
+ * the slowest of them instead of for all of them in turn. The step picks the results up in the order it logs
+ * them, which keeps the log the same from build to build. Probes that are still running when the step ends,
+ * because it failed or was aborted, are cancelled.
+ */
+final class Probes implements Closeable {
+    private final List<Future<?>> started = new ArrayList<>();
+    private final RemotingCalls calls;
+
+    /**
+     * @param build the {@link hudson.model.Run#getExternalizableId() id} of the build the probes are for
+     */
+    Probes(String build) {
+        calls = new RemotingCalls("Pre-build probes", build);
+    }
+
+    <T> Future<T> start(Callable<T> probe) {
+        Future<T> future = Computer.threadPoolForRemoting.submit(probe);
+        synchronized (started) {
+            started.add(future);
+        }
+        return future;
+    }
+
+    /**
+     * Starts a command quietly, collecting its output instead of logging it.
+     */
+    Future<Output> launch(final Launcher launcher, final EnvVars envs, final FilePath pwd, final String... commandLine) {
+        return start(new Callable<Output>() {
+            public Output call() throws IOException, InterruptedException {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                int returnCode = calls.join(launcher.launch().envs(envs).cmds(commandLine).stdout(output).quiet(true).pwd(pwd));
+                return new Output(returnCode, output.toString("UTF-8"));
+            }
+        });
+    }
+
+    /**
+     * Starts a toolchain command, which may be answered by {@link ToolchainFacts} without running it.
+     */
+    Future<ToolchainFacts.Fact> fact(final FilePath pwd, final Launcher launcher, final EnvVars envs,
+            final ToolchainFacts.Source source, final String... commandLine) {
+        return start(new Callable<ToolchainFacts.Fact>() {
+            public ToolchainFacts.Fact call() throws IOException, InterruptedException {
+                return ToolchainFacts.run(calls, pwd, launcher, envs, source, commandLine);
+            }
+        });
+    }
+
+    /**
+     * Starts running a callable on the node of a directory.
+     */
+    <T> Future<T> act(final FilePath path, final MasterToSlaveFileCallable<T> callable) {
+        return start(new Callable<T>() {
+            public T call() throws IOException, InterruptedException {
+                return calls.act(path, callable);
+            }
+        });
+    }
+
+    /**
+     * How many calls to the node the probes have made so far.
+     */
+    int getRemotingCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Waits for the result of a probe, failing the way the probe did.
+     */
+    static <T> T get(Future<T> probe) throws IOException, InterruptedException {
+        try {
+            return probe.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    public void close() {
+        synchronized (started) {
+            for (Future<?> future : started) {
+                future.cancel(true);
+            }
+            started.clear();
+        }
+        calls.log();
+    }
+
+    /**
+     * The exit code and output of a command.
+     */
+    static final class Output {
+        private final int returnCode;
+        private final String text;
+
+        Output(int returnCode, String text) {
+            this.returnCode = returnCode;
+            this.text = text;
+        }
+
+        int getReturnCode() {
+            return returnCode;
+        }
+
+        String getText() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import au.com.rayh.plist.OpenStepPlistParser;
+import au.com.rayh.plist.PlistException;
+import au.com.rayh.plist.PropertyList;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Reads and sets the versions of a project the way agvtool does, in one pass over {@code project.pbxproj} and
+ * the {@code Info.plist} files of its targets instead of one agvtool run per question.
+ * <p>
+ * The build number is the {@code CURRENT_PROJECT_VERSION} build setting; setting it, like
+ * {@code agvtool new-version -all}, also sets {@code CFBundleVersion} in every {@code Info.plist}. The marketing
+ * version is {@code CFBundleShortVersionString} of the first target's {@code Info.plist}; setting it, like
+ * {@code agvtool new-marketing-version}, sets it in every {@code Info.plist} as well as the
+ * {@code MARKETING_VERSION} build setting wherever it is defined. {@code Info.plist} values that refer to a
+ * build setting, such as {@code $(MARKETING_VERSION)}, are read through the setting and left as they are.
+ * <p>
+ * The project file is edited as text, so that everything but the changed values stays as Xcode wrote it.
+ */
+final class ProjectVersions {
+    static final String PROJECT_VERSION = "CURRENT_PROJECT_VERSION";
+    static final String MARKETING_VERSION = "MARKETING_VERSION";
+    private static final String BUNDLE_VERSION = ":CFBundleVersion";
+    private static final String SHORT_VERSION = ":CFBundleShortVersionString";
+    private static final Pattern REFERENCE = Pattern.compile("\\$[({]([A-Za-z0-9_]+)[)}]");
+    private static final Pattern SETTINGS = Pattern.compile("buildSettings\\s*=\\s*\\{");
+    private static final Pattern SETTING_KEY = Pattern.compile("(?m)^([ \\t]*)(\"(?:[^\"\\\\]|\\\\.)*\"|[A-Za-z0-9_.$/:+-]+)\\s*=");
+
+    private final File xcodeproj;
+    private final File pbxproj;
+    private final String text;
+    private final Map<?, ?> objects;
+    private final List<String> projectConfigurations = new ArrayList<>();
+    private final String projectDefault;
+    private final List<Target> targets = new ArrayList<>();
+
+    private ProjectVersions(File xcodeproj, File pbxproj, String text, Map<?, ?> project) {
+        this.xcodeproj = xcodeproj;
+        this.pbxproj = pbxproj;
+        this.text = text;
+        this.objects = asMap(project.get("objects"));
+        Map<?, ?> root = asMap(objects.get(project.get("rootObject")));
+        Map<?, ?> list = asMap(objects.get(root.get("buildConfigurationList")));
+        addIds(projectConfigurations, list.get("buildConfigurations"));
+        projectDefault = defaultConfiguration(list, projectConfigurations);
+        for (Object id : asList(root.get("targets"))) {
+            Map<?, ?> targetList = asMap(objects.get(asMap(objects.get(id)).get("buildConfigurationList")));
+            Target target = new Target();
+            addIds(target.configurations, targetList.get("buildConfigurations"));
+            target.defaultConfiguration = defaultConfiguration(targetList, target.configurations);
+            targets.add(target);
+        }
+    }
+
+    /**
+     * Loads a {@code .xcodeproj} bundle, or returns null if it has no project file.
+     */
+    static ProjectVersions load(File xcodeproj) throws IOException {
+        File pbxproj = new File(xcodeproj, "project.pbxproj");
+        if (!pbxproj.isFile()) {
+            return null;
+        }
+        String text = FileUtils.readFileToString(pbxproj, "UTF-8");
+        Object project = OpenStepPlistParser.parse(text);
+        if (!(project instanceof Map)) {
+            throw new PlistException(pbxproj + " is not a project file");
+        }
+        return new ProjectVersions(xcodeproj, pbxproj, text, (Map<?, ?>) project);
+    }
+
+    /**
+     * The versions {@code agvtool mvers -terse1} and {@code agvtool vers -terse} would print, resolved through
+     * build settings where the {@code Info.plist} refers to them.
+     */
+    Versions read() throws IOException {
+        String projectVersion = setting(projectDefault, PROJECT_VERSION);
+        for (int i = 0; projectVersion == null && i < projectConfigurations.size(); i++) {
+            projectVersion = setting(projectConfigurations.get(i), PROJECT_VERSION);
+        }
+        for (int i = 0; projectVersion == null && i < targets.size(); i++) {
+            projectVersion = targetSetting(targets.get(i).defaultConfiguration, PROJECT_VERSION);
+        }
+
+        String marketingVersion = null;
+        for (Target target : targets) {
+            File plist = infoPlist(target.defaultConfiguration);
+            if (plist != null && plist.isFile()) {
+                Object value = PropertyList.get(InfoPlist.parse(plist, FileUtils.readFileToByteArray(plist)), SHORT_VERSION);
+                if (value instanceof String) {
+                    marketingVersion = resolve((String) value, target.defaultConfiguration);
+                    break;
+                }
+            }
+        }
+        for (int i = 0; marketingVersion == null && i < targets.size(); i++) {
+            marketingVersion = targetSetting(targets.get(i).defaultConfiguration, MARKETING_VERSION);
+        }
+        if (marketingVersion == null) {
+            marketingVersion = setting(projectDefault, MARKETING_VERSION);
+        }
+        return new Versions(marketingVersion, projectVersion);
+    }
+
+    /**
+     * Sets the marketing version, the build number or both.
+     *
+     * @param marketingVersion the new marketing version, or null to keep it
+     * @param projectVersion the new build number, or null to keep it
+     * @param dryRun whether to only report what would change, without writing any file
+     * @return the values that change, in the order of the files
+     */
+    List<Change> update(String marketingVersion, String projectVersion, boolean dryRun) throws IOException {
+        List<Change> changes = new ArrayList<>();
+        List<Edit> edits = new ArrayList<>();
+        List<String> configurations = new ArrayList<>(projectConfigurations);
+        for (Target target : targets) {
+            configurations.addAll(target.configurations);
+        }
+
+        if (projectVersion != null) {
+            boolean defined = false;
+            for (String id : configurations) {
+                defined |= editSetting(id, PROJECT_VERSION, projectVersion, edits, changes);
+            }
+            if (!defined) {
+                // agvtool keeps the build number at the project level
+                for (String id : projectConfigurations) {
+                    addSetting(id, PROJECT_VERSION, projectVersion, edits, changes);
+                }
+            }
+        }
+        if (marketingVersion != null) {
+            for (String id : configurations) {
+                editSetting(id, MARKETING_VERSION, marketingVersion, edits, changes);
+            }
+        }
+        if (!edits.isEmpty() && !dryRun) {
+            InfoPlist.replace(pbxproj, apply(edits).getBytes("UTF-8"));
+        }
+
+        Set<File> plists = new LinkedHashSet<>();
+        for (String id : configurations) {
+            File plist = infoPlist(id);
+            if (plist != null && plist.isFile()) {
+                plists.add(plist);
+            }
+        }
+        for (File plist : plists) {
+            byte[] data = FileUtils.readFileToByteArray(plist);
+            Object root = InfoPlist.parse(plist, data);
+            boolean changed = editInfoPlist(plist, root, BUNDLE_VERSION, projectVersion, changes);
+            changed |= editInfoPlist(plist, root, SHORT_VERSION, marketingVersion, changes);
+            if (changed && !dryRun) {
+                InfoPlist.replace(plist, PropertyList.format(root, PropertyList.detect(data)));
+            }
+        }
+        return changes;
+    }
+
+    private boolean editInfoPlist(File plist, Object root, String keyPath, String value, List<Change> changes)
+            throws PlistException {
+        if (value == null) {
+            return false;
+        }
+        Object old = PropertyList.get(root, keyPath);
+        if (!(old instanceof String) || REFERENCE.matcher((String) old).find() || old.equals(value)) {
+            return false;
+        }
+        PropertyList.set(root, keyPath, value);
+        changes.add(new Change(relative(plist), keyPath.substring(1), (String) old, value));
+        return true;
+    }
+
+    /**
+     * Edits a build setting where a configuration defines it.
+     *
+     * @return whether the configuration defines the setting
+     */
+    private boolean editSetting(String id, String key, String value, List<Edit> edits, List<Change> changes)
+            throws PlistException {
+        int[] span = settingsSpan(id);
+        if (span == null) {
+            return false;
+        }
+        Matcher m = Pattern.compile("(?<![A-Za-z0-9_.$/:+\"-])" + key + "\\s*=\\s*(\"(?:[^\"\\\\]|\\\\.)*\"|[^;\\s]*)\\s*;").matcher(text);
+        m.region(span[0], span[1]);
+        if (!m.find()) {
+            return false;
+        }
+        String old = (String) OpenStepPlistParser.parse(m.group(1));
+        if (!old.equals(value)) {
+            edits.add(new Edit(m.start(1), m.end(1), OpenStepPlistParser.quote(value)));
+            changes.add(new Change(relative(pbxproj), key + " (" + name(id) + ")", old, value));
+        }
+        return true;
+    }
+
+    /**
+     * Adds a build setting to a configuration, among the others in the sorted order Xcode keeps them in.
+     */
+    private void addSetting(String id, String key, String value, List<Edit> edits, List<Change> changes) {
+        int[] span = settingsSpan(id);
+        if (span == null) {
+            return;
+        }
+        int lineStart = text.lastIndexOf('\n', span[0] - 1) + 1;
+        Matcher indent = Pattern.compile("[ \\t]*").matcher(text);
+        indent.region(lineStart, span[0]);
+        String prefix = (indent.lookingAt() ? indent.group() : "") + "\t";
+        int at = text.lastIndexOf('\n', span[1]) + 1;
+        Matcher m = SETTING_KEY.matcher(text);
+        m.region(span[0], span[1]);
+        while (m.find()) {
+            if (m.group(2).replace("\"", "").compareTo(key) > 0) {
+                at = m.start();
+                break;
+            }
+        }
+        edits.add(new Edit(at, at, prefix + key + " = " + OpenStepPlistParser.quote(value) + ";\n"));
+        changes.add(new Change(relative(pbxproj), key + " (" + name(id) + ")", "", value));
+    }
+
+    /**
+     * Where the contents of the build settings of a configuration are in the project file.
+     */
+    private int[] settingsSpan(String id) {
+        Matcher object = Pattern.compile("(?m)^\\s*" + Pattern.quote(id) + "(?:\\s*/\\*.*?\\*/)?\\s*=\\s*\\{").matcher(text);
+        if (!object.find()) {
+            return null;
+        }
+        int objectEnd = matchingBrace(object.end() - 1);
+        Matcher settings = SETTINGS.matcher(text);
+        settings.region(object.end(), objectEnd);
+        if (!settings.find()) {
+            return null;
+        }
+        return new int[] {settings.end(), matchingBrace(settings.end() - 1)};
+    }
+
+    private int matchingBrace(int open) {
+        int depth = 0;
+        for (int i = open; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                for (i++; i < text.length() && text.charAt(i) != '"'; i++) {
+                    if (text.charAt(i) == '\\') {
+                        i++;
+                    }
+                }
+            } else if (c == '/' && i + 1 < text.length() && text.charAt(i + 1) == '*') {
+                int end = text.indexOf("*/", i + 2);
+                i = end < 0 ? text.length() : end + 1;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return text.length();
+    }
+
+    private String apply(List<Edit> edits) {
+        Collections.sort(edits, new Comparator<Edit>() {
+            public int compare(Edit a, Edit b) {
+                return Integer.compare(b.start, a.start);
+            }
+        });
+        StringBuilder edited = new StringBuilder(text);
+        for (Edit edit : edits) {
+            edited.replace(edit.start, edit.end, edit.replacement);
+        }
+        return edited.toString();
+    }
+
+    private File infoPlist(String configuration) {
+        String path = targetSetting(configuration, "INFOPLIST_FILE");
+        if (path == null) {
+            return null;
+        }
+        String projectDir = xcodeproj.getAbsoluteFile().getParent();
+        path = path.replace("$(SRCROOT)", projectDir).replace("${SRCROOT}", projectDir)
+                .replace("$(PROJECT_DIR)", projectDir).replace("${PROJECT_DIR}", projectDir);
+        if (path.contains("$")) {
+            return null;
+        }
+        File plist = new File(path);
+        return plist.isAbsolute() ? plist : new File(projectDir, path);
+    }
+
+    /**
+     * Resolves a reference to a build setting, such as {@code $(MARKETING_VERSION)}.
+     */
+    private String resolve(String value, String configuration) {
+        Matcher m = REFERENCE.matcher(value);
+        StringBuffer resolved = new StringBuffer();
+        while (m.find()) {
+            String setting = targetSetting(configuration, m.group(1));
+            m.appendReplacement(resolved, Matcher.quoteReplacement(setting != null ? setting : ""));
+        }
+        m.appendTail(resolved);
+        return resolved.toString();
+    }
+
+    /**
+     * A setting of a target configuration, or else of the project configuration of the same name.
+     */
+    private String targetSetting(String configuration, String key) {
+        String value = setting(configuration, key);
+        if (value == null) {
+            String name = name(configuration);
+            for (String id : projectConfigurations) {
+                if (name.equals(name(id))) {
+                    return setting(id, key);
+                }
+            }
+        }
+        return value;
+    }
+
+    private String setting(String configuration, String key) {
+        Object value = asMap(asMap(objects.get(configuration)).get("buildSettings")).get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    private String name(String configuration) {
+        Object name = asMap(objects.get(configuration)).get("name");
+        return name instanceof String ? (String) name : configuration;
+    }
+
+    private String defaultConfiguration(Map<?, ?> list, List<String> configurations) {
+        Object defaultName = list.get("defaultConfigurationName");
+        for (String id : configurations) {
+            if (name(id).equals(defaultName)) {
+                return id;
+            }
+        }
+        return configurations.isEmpty() ? null : configurations.get(0);
+    }
+
+    private String relative(File file) {
+        String root = xcodeproj.getAbsoluteFile().getParent() + File.separator;
+        String path = file.getAbsolutePath();
+        return path.startsWith(root) ? path.substring(root.length()) : path;
+    }
+
+    private static void addIds(List<String> ids, Object list) {
+        for (Object id : asList(list)) {
+            if (id instanceof String) {
+                ids.add((String) id);
+            }
+        }
+    }
+
+    private static Map<?, ?> asMap(Object value) {
+        return value instanceof Map ? (Map<?, ?>) value : Collections.emptyMap();
+    }
+
+    private static List<?> asList(Object value) {
+        return value instanceof List ? (List<?>) value : Collections.emptyList();
+    }
+
+    private static final class Target {
+        final List<String> configurations = new ArrayList<>();
+        String defaultConfiguration;
+    }
+
+    private static final class Edit {
+        final int start;
+        final int end;
+        final String replacement;
+
+        Edit(int start, int end, String replacement) {
+            this.start = start;
+            this.end = end;
+            this.replacement = replacement;
+        }
+    }
+
+    /**
+     * The marketing version and build number of a project, empty when it has none.
+     */
+    static final class Versions implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String marketingVersion;
+        private final String projectVersion;
+
+        Versions(String marketingVersion, String projectVersion) {
+            this.marketingVersion = marketingVersion != null ? marketingVersion : "";
+            this.projectVersion = projectVersion != null ? projectVersion : "";
+        }
+
+        String getMarketingVersion() {
+            return marketingVersion;
+        }
+
+        String getProjectVersion() {
+            return projectVersion;
+        }
+    }
+
+    /**
+     * A value that changes in a file of the project.
+     */
+    static final class Change implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String file;
+        private final String key;
+        private final String oldValue;
+        private final String newValue;
+
+        Change(String file, String key, String oldValue, String newValue) {
+            this.file = file;
+            this.key = key;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        String getFile() {
+            return file;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        String getOldValue() {
+            return oldValue;
+        }
+
+        String getNewValue() {
+            return newValue;
+        }
+    }
+
+    /**
+     * Reads the versions of the project in a directory, or returns null if agvtool has to.
+     */
+    static final class Read extends MasterToSlaveFileCallable<Versions> {
+        private static final long serialVersionUID = 1L;
+
+        private final String xcodeProjectFile;
+
+        Read(String xcodeProjectFile) {
+            this.xcodeProjectFile = xcodeProjectFile;
+        }
+
+        public Versions invoke(File projectRoot, VirtualChannel channel) throws IOException {
+            ProjectVersions project = of(projectRoot, xcodeProjectFile);
+            return project != null ? project.read() : null;
+        }
+    }
+
+    /**
+     * Sets the versions of the project in a directory, or returns null if agvtool has to.
+     */
+    static final class Update extends MasterToSlaveFileCallable<ArrayList<Change>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String xcodeProjectFile;
+        private final String marketingVersion;
+        private final String projectVersion;
+        private final boolean dryRun;
+
+        Update(String xcodeProjectFile, String marketingVersion, String projectVersion, boolean dryRun) {
+            this.xcodeProjectFile = xcodeProjectFile;
+            this.marketingVersion = marketingVersion;
+            this.projectVersion = projectVersion;
+            this.dryRun = dryRun;
+        }
+
+        public ArrayList<Change> invoke(File projectRoot, VirtualChannel channel) throws IOException {
+            ProjectVersions project = of(projectRoot, xcodeProjectFile);
+            return project != null ? new ArrayList<>(project.update(marketingVersion, projectVersion, dryRun)) : null;
+        }
+    }
+
+    private static ProjectVersions of(File projectRoot, String xcodeProjectFile) throws IOException {
+        File xcodeproj = XcodeProjectParser.findProject(projectRoot, xcodeProjectFile);
+        return xcodeproj != null ? load(xcodeproj) : null;
+    }
+}
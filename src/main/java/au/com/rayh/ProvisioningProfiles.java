@@ -0,0 +1,402 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import au.com.rayh.plist.PlistException;
+import au.com.rayh.plist.PropertyList;
+import jenkins.security.MasterToSlaveCallable;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Installs the provisioning profiles of a {@link DeveloperProfile} on a node.
+ * <p>
+ * A provisioning profile is a plist wrapped in a CMS signed-data envelope. The envelope is unwrapped here, without
+ * checking its signature, to read the UUID, name and expiry of each profile. A profile is installed as
+ * {@code <UUID>.mobileprovision}, the way Xcode names them, and only when the file of that name is missing or
+ * differs, so a build whose profiles are already in place writes nothing.
+ * <p>
+ * Each node keeps the digests of the files it installed profiles to, in memory. A file is only read again when its
+ * size or modification time changes, and the other files of the directory are never read.
+ */
+final class ProvisioningProfiles {
+    static final String DIRECTORY = "Library/MobileDevice/Provisioning Profiles";
+    static final String EXTENSION = ".mobileprovision";
+
+    /**
+     * The files already read on this node, by directory and file name. Guarded by itself.
+     */
+    private static final Map<File, Map<String, Indexed>> INDEX = new HashMap<>();
+
+    private static final byte[] SIGNED_DATA = {0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x07, 0x02};
+
+    private ProvisioningProfiles() {
+    }
+
+    /**
+     * The provisioning profiles inside a developer profile image, by file name.
+     */
+    static Map<String, byte[]> read(byte[] image) throws IOException {
+        Map<String, byte[]> profiles = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(image))) {
+            ZipEntry ze;
+            while ((ze = zip.getNextEntry()) != null) {
+                if (!ze.isDirectory() && ze.getName().endsWith(EXTENSION)) {
+                    profiles.put(ze.getName().substring(ze.getName().lastIndexOf('/') + 1), IOUtils.toByteArray(zip));
+                }
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Reads a provisioning profile.
+     */
+    static Profile decode(String file, byte[] data) throws IOException {
+        Object plist;
+        try {
+            plist = PropertyList.parse(content(data));
+        } catch (PlistException e) {
+            throw new IOException("Not a provisioning profile: " + file, e);
+        }
+        Object uuid = PropertyList.get(plist, "UUID");
+        if (!(uuid instanceof String)) {
+            throw new IOException("Provisioning profile " + file + " has no UUID");
+        }
+        Object expiration = PropertyList.get(plist, "ExpirationDate");
+        return new Profile(file, (String) uuid,
+                PropertyList.toText(PropertyList.get(plist, "Name")),
+                expiration instanceof Date ? (Date) expiration : null,
+                digest(data));
+    }
+
+    /**
+     * The content of a CMS signed-data envelope: ContentInfo, [0] SignedData, and the [0] eContent octets of its
+     * EncapsulatedContentInfo. Lengths may be definite or indefinite, and the octets may be split into pieces.
+     */
+    static byte[] content(byte[] der) throws IOException {
+        Element contentInfo = Element.at(der, 0, der.length, 0x30);
+        Element type = Element.at(der, contentInfo.start, contentInfo.end, 0x06);
+        if (!Arrays.equals(Arrays.copyOfRange(der, type.start, type.end), SIGNED_DATA)) {
+            throw new IOException("Not a CMS signed-data envelope");
+        }
+        Element explicit = Element.at(der, type.next, contentInfo.end, 0xA0);
+        Element signedData = Element.at(der, explicit.start, explicit.end, 0x30);
+        Element version = Element.at(der, signedData.start, signedData.end, 0x02);
+        Element digestAlgorithms = Element.at(der, version.next, signedData.end, 0x31);
+        Element encapsulated = Element.at(der, digestAlgorithms.next, signedData.end, 0x30);
+        Element contentType = Element.at(der, encapsulated.start, encapsulated.end, 0x06);
+        if (contentType.next >= encapsulated.end) {
+            throw new IOException("The CMS envelope has no content");
+        }
+        Element content = Element.at(der, contentType.next, encapsulated.end, 0xA0);
+        ByteArrayOutputStream octets = new ByteArrayOutputStream();
+        octets(der, Element.at(der, content.start, content.end, -1), octets);
+        return octets.toByteArray();
+    }
+
+    private static void octets(byte[] der, Element e, ByteArrayOutputStream out) throws IOException {
+        if (e.tag == 0x04) {
+            out.write(der, e.start, e.end - e.start);
+        } else if (e.tag == 0x24) {
+            for (int pos = e.start; pos < e.end; ) {
+                Element piece = Element.at(der, pos, e.end, -1);
+                octets(der, piece, out);
+                pos = piece.next;
+            }
+        } else {
+            throw new IOException("Expected an OCTET STRING but found tag 0x" + Integer.toHexString(e.tag));
+        }
+    }
+
+    static String digest(byte[] data) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * The digest of a file of the index of its directory, reading the file only if it changed since it was indexed.
+     *
+     * @return null if there is no such file, or it cannot be read and had better be written again
+     */
+    private static String digest(Map<String, Indexed> index, File file) {
+        Indexed indexed = index.get(file.getName());
+        if (indexed == null || indexed.lastModified != file.lastModified() || indexed.length != file.length()) {
+            index.remove(file.getName());
+            if (!file.isFile()) {
+                return null;
+            }
+            try {
+                byte[] data = FileUtils.readFileToByteArray(file);
+                indexed = new Indexed(file.lastModified(), data.length, digest(data));
+            } catch (IOException e) {
+                return null;
+            }
+            index.put(file.getName(), indexed);
+        }
+        return indexed.digest;
+    }
+
+    private static File directory() {
+        return new File(System.getProperty("user.home"), DIRECTORY);
+    }
+
+    /**
+     * What the node knows about one file of its provisioning profiles directory.
+     */
+    private static final class Indexed {
+        private final long lastModified;
+        private final long length;
+        private final String digest;
+
+        Indexed(long lastModified, long length, String digest) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * A DER or BER element: its tag, the bounds of its contents, and where the element after it starts.
+     */
+    private static final class Element {
+        private final int tag;
+        private final int start;
+        private final int end;
+        private final int next;
+
+        private Element(int tag, int start, int end, int next) {
+            this.tag = tag;
+            this.start = start;
+            this.end = end;
+            this.next = next;
+        }
+
+        /**
+         * Reads the element at a position, which must have the given tag unless that is -1.
+         */
+        static Element at(byte[] der, int pos, int limit, int expected) throws IOException {
+            if (pos + 2 > limit) {
+                throw new IOException("Truncated CMS envelope");
+            }
+            int tag = der[pos++] & 0xFF;
+            if ((tag & 0x1F) == 0x1F) {
+                throw new IOException("Unsupported tag 0x" + Integer.toHexString(tag) + " in CMS envelope");
+            }
+            if (expected != -1 && tag != expected) {
+                throw new IOException("Expected tag 0x" + Integer.toHexString(expected) + " but found 0x"
+                        + Integer.toHexString(tag) + " in CMS envelope");
+            }
+            int length = der[pos++] & 0xFF;
+            if (length == 0x80) {
+                if ((tag & 0x20) == 0) {
+                    throw new IOException("Indefinite length of a primitive element in CMS envelope");
+                }
+                // the contents run up to the end-of-contents octets
+                int end = pos;
+                while (true) {
+                    if (end + 2 > limit) {
+                        throw new IOException("Truncated CMS envelope");
+                    }
+                    if (der[end] == 0 && der[end + 1] == 0) {
+                        return new Element(tag, pos, end, end + 2);
+                    }
+                    end = at(der, end, limit, -1).next;
+                }
+            }
+            if (length > 0x80) {
+                int n = length & 0x7F;
+                if (n > 3 || pos + n > limit) {
+                    throw new IOException("Unsupported length in CMS envelope");
+                }
+                length = 0;
+                for (int i = 0; i < n; i++) {
+                    length = (length << 8) | (der[pos++] & 0xFF);
+                }
+            }
+            if (pos + length > limit) {
+                throw new IOException("Truncated CMS envelope");
+            }
+            return new Element(tag, pos, pos + length, pos + length);
+        }
+    }
+
+    /**
+     * A provisioning profile, as read from its plist.
+     */
+    static final class Profile implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String file;
+        private final String uuid;
+        private final String name;
+        private final Date expirationDate;
+        private final String digest;
+
+        Profile(String file, String uuid, String name, Date expirationDate, String digest) {
+            this.file = file;
+            this.uuid = uuid;
+            this.name = name;
+            this.expirationDate = expirationDate;
+            this.digest = digest;
+        }
+
+        /**
+         * The name of the file the profile was read from.
+         */
+        String getFile() {
+            return file;
+        }
+
+        String getUuid() {
+            return uuid;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Date getExpirationDate() {
+            return expirationDate != null ? new Date(expirationDate.getTime()) : null;
+        }
+
+        /**
+         * SHA-256 of the profile file, in hex.
+         */
+        String getDigest() {
+            return digest;
+        }
+
+        boolean isExpired(Date now) {
+            return expirationDate != null && !expirationDate.after(now);
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + uuid + ")";
+        }
+    }
+
+    /**
+     * What {@link Sync} did with the profiles it was given.
+     */
+    static final class Synced implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Profile> installed = new ArrayList<>();
+        private final List<Profile> unchanged = new ArrayList<>();
+
+        List<Profile> getInstalled() {
+            return installed;
+        }
+
+        List<Profile> getUnchanged() {
+            return unchanged;
+        }
+    }
+
+    /**
+     * Installs provisioning profiles in the provisioning profiles directory of the user running the agent, leaving
+     * alone those already there with the same content. A file that is not a provisioning profile is installed under
+     * its own name, as it always was.
+     */
+    static final class Sync extends MasterToSlaveCallable<Synced, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, byte[]> profiles;
+
+        Sync(Map<String, byte[]> profiles) {
+            this.profiles = new LinkedHashMap<>(profiles);
+        }
+
+        public Synced call() throws IOException {
+            File dir = directory();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Failed to create " + dir);
+            }
+            Synced synced = new Synced();
+            synchronized (INDEX) {
+                Map<String, Indexed> index = INDEX.get(dir);
+                if (index == null) {
+                    index = new HashMap<>();
+                    INDEX.put(dir, index);
+                }
+                for (Map.Entry<String, byte[]> e : profiles.entrySet()) {
+                    byte[] data = e.getValue();
+                    Profile profile;
+                    try {
+                        profile = decode(e.getKey(), data);
+                    } catch (IOException x) {
+                        profile = new Profile(e.getKey(), null, e.getKey(), null, digest(data));
+                    }
+                    String name = profile.getUuid() != null ? profile.getUuid() + EXTENSION : e.getKey();
+                    File target = new File(dir, name);
+                    if (profile.getDigest().equals(digest(index, target))) {
+                        synced.unchanged.add(profile);
+                        continue;
+                    }
+
+                    File tmp = File.createTempFile("jenkins", ".tmp", dir);
+                    try {
+                        FileUtils.writeByteArrayToFile(tmp, data);
+                        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    } finally {
+                        Files.deleteIfExists(tmp.toPath());
+                    }
+                    index.put(name, new Indexed(target.lastModified(), data.length, profile.getDigest()));
+                    synced.installed.add(profile);
+                }
+            }
+            return synced;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts the calls a phase of a build makes to its node, for checking how many round trips it costs when the
+ * agent is far away. The count is logged at {@link Level#FINE} when the phase ends.
+ */
+final class RemotingCalls {
+    private static final Logger LOGGER = Logger.getLogger(RemotingCalls.class.getName());
+
+    private final String phase;
+    private final String build;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    /**
+     * @param build the {@link hudson.model.Run#getExternalizableId() id} of the build, or the name of the node for
+     *              work done outside of a build
+     */
+    RemotingCalls(String phase, String build) {
+        this.phase = phase;
+        this.build = build;
+    }
+
+    <T> T act(FilePath path, MasterToSlaveFileCallable<T> callable) throws IOException, InterruptedException {
+        count();
+        return path.act(callable);
+    }
+
+    <V, T extends Throwable> V call(VirtualChannel channel, Callable<V, T> callable) throws IOException, T, InterruptedException {
+        count();
+        return channel.call(callable);
+    }
+
+    int join(Launcher.ProcStarter process) throws IOException, InterruptedException {
+        count();
+        return process.join();
+    }
+
+    private void count() {
+        calls.incrementAndGet();
+    }
+
+    int get() {
+        return calls.get();
+    }
+
+    void log() {
+        LOGGER.log(Level.FINE, "{0} of {1} made {2} remoting calls", new Object[] {phase, build, calls.get()});
+    }
+}
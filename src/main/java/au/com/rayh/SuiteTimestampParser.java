@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parses the timestamps of the test suite lines logged by xcodebuild, either
+ * {@code 2014-12-12 05:02:01 +0000} (older Xcodes also log zones such as {@code GMT}) or
+ * {@code 2019-03-04 10:00:00.000} in the local time of the machine.
+ * <p>
+ * Instances are immutable and can be shared by any number of threads. The format is picked from the shape of the
+ * text rather than by trying formats until one does not throw, and the offsets of the zones seen so far are cached.
+ * Shapes it does not know, such as zone abbreviations that depend on daylight saving time, are handed to
+ * {@link SimpleDateFormat}s confined to the calling thread, which accept the same text as before.
+ */
+final class SuiteTimestampParser {
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final ThreadLocal<DateFormat[]> FALLBACK_FORMATS = new ThreadLocal<DateFormat[]>() {
+        @Override
+        protected DateFormat[] initialValue() {
+            return new DateFormat[] {
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z"),
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS")
+            };
+        }
+    };
+
+    private final TimeZone localZone;
+    private final ConcurrentMap<String, Integer> zoneOffsets = new ConcurrentHashMap<>();
+
+    /**
+     * @param localZone the zone of the timestamps that do not name one
+     */
+    SuiteTimestampParser(TimeZone localZone) {
+        this.localZone = (TimeZone) localZone.clone();
+    }
+
+    Date parse(String text) throws ParseException {
+        long local = parseLocalDateTime(text);
+        if (local != Long.MIN_VALUE) {
+            if (text.length() == 19) {
+                return fallback(text);
+            }
+            char separator = text.charAt(19);
+            if (separator == '.') {
+                int millis = parseDigits(text, 20, text.length());
+                if (millis >= 0) {
+                    local += millis;
+                    return new Date(localToUtc(local));
+                }
+            } else if (separator == ' ') {
+                Integer offset = zoneOffset(text, 20);
+                if (offset != null) {
+                    return new Date(local - offset);
+                }
+            }
+        }
+        return fallback(text);
+    }
+
+    /**
+     * Converts a wall time of the local zone the way {@link java.util.Calendar} does: a time skipped when daylight
+     * saving time starts is read with the offset before the change, and a repeated time as the later of the two.
+     */
+    private long localToUtc(long local) {
+        int offset = localZone.getOffset(local - localZone.getRawOffset());
+        long utc = local - offset;
+        int actual = localZone.getOffset(utc);
+        return actual == offset ? utc : local - actual;
+    }
+
+    /**
+     * The offset of a zone that does not depend on the date, or null if the zone is not one of those.
+     */
+    private Integer zoneOffset(String text, int start) {
+        int end = text.indexOf(' ', start);
+        String zone = end < 0 ? text.substring(start) : text.substring(start, end);
+        Integer offset = zoneOffsets.get(zone);
+        if (offset == null) {
+            offset = fixedOffset(zone);
+            if (offset == null) {
+                return null;
+            }
+            zoneOffsets.putIfAbsent(zone, offset);
+        }
+        return offset;
+    }
+
+    private static Integer fixedOffset(String zone) {
+        if (zone.equals("GMT") || zone.equals("UTC")) {
+            return 0;
+        }
+        if (zone.length() == 5 && (zone.charAt(0) == '+' || zone.charAt(0) == '-')) {
+            int hours = parseDigits(zone, 1, 3);
+            int minutes = parseDigits(zone, 3, 5);
+            if (hours >= 0 && minutes >= 0 && hours < 24 && minutes < 60) {
+                int offset = (hours * 60 + minutes) * 60 * 1000;
+                return zone.charAt(0) == '-' ? -offset : offset;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The milliseconds since the epoch of the {@code yyyy-MM-dd HH:mm:ss} prefix read as UTC, or
+     * {@link Long#MIN_VALUE} if the text does not start that way.
+     */
+    private static long parseLocalDateTime(String text) {
+        if (text.length() < 19 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' '
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = parseDigits(text, 0, 4);
+        int month = parseDigits(text, 5, 7);
+        int day = parseDigits(text, 8, 10);
+        int hour = parseDigits(text, 11, 13);
+        int minute = parseDigits(text, 14, 16);
+        int second = parseDigits(text, 17, 19);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY + ((hour * 60L + minute) * 60 + second) * 1000;
+    }
+
+    /**
+     * The number of days from 1970-01-01 to the given date of the proleptic Gregorian calendar.
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * The value of the decimal digits between {@code start} and {@code end}, or -1 if there are none or any other
+     * character is found.
+     */
+    private static int parseDigits(String text, int start, int end) {
+        if (start >= end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static Date fallback(String text) throws ParseException {
+        ParseException parseException = null;
+        for (DateFormat dateFormat : FALLBACK_FORMATS.get()) {
+            try {
+                return dateFormat.parse(text);
+            } catch (ParseException exception) {
+                parseException = exception;
+            }
+        }
+        throw parseException;
+    }
+}
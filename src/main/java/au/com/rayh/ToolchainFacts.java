@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import jenkins.model.GlobalConfiguration;
+import jenkins.security.MasterToSlaveCallable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Remembers, per node, the output of the commands that only describe the toolchain: {@code xcodebuild -version},
+ * {@code xcodebuild -showsdks} and {@code security find-identity}. Every build prints them, and running them
+ * takes seconds, but they only change when Xcode or the keychains do.
+ * <p>
+ * Each output is kept with a stamp taken on the node: the modification times of the selected Xcode and its
+ * platforms for the Xcode commands, and those of the keychain files and the contents of the keychain search
+ * list for the identities. A command runs again whenever its stamp differs. The outputs are filled in the
+ * background as soon as a node connects.
+ */
+final class ToolchainFacts {
+    private static final Logger LOGGER = Logger.getLogger(ToolchainFacts.class.getName());
+    private static final String DEFAULT_DEVELOPER_DIR = "/Applications/Xcode.app/Contents/Developer";
+    private static final String XCODE_SELECT_LINK = "/var/db/xcode_select_link";
+    static final String[] FIND_IDENTITY = {"/usr/bin/security", "find-identity", "-p", "codesigning", "-v"};
+
+    /** Outputs by node name and command line. */
+    private static final ConcurrentMap<String, Fact> FACTS = new ConcurrentHashMap<>();
+
+    /**
+     * What a command's output depends on.
+     */
+    enum Source {
+        XCODE, KEYCHAINS
+    }
+
+    private ToolchainFacts() {
+    }
+
+    /**
+     * Runs a toolchain command on the node of a directory, or reuses its output from an earlier run there. The
+     * command runs quietly, since it runs in the background; whoever logs its output logs its
+     * {@linkplain Fact#getCommandLine command line} too, so that the log reads the same either way.
+     *
+     * @param calls counts the calls to the node, which are none when the output is reused
+     * @return the exit code and output of the command
+     */
+    static Fact run(RemotingCalls calls, FilePath pwd, Launcher launcher, EnvVars envs, Source source, String... commandLine)
+            throws IOException, InterruptedException {
+        Computer computer = pwd.toComputer();
+        String key = computer != null ? computer.getName() + '\0' + StringUtils.join(commandLine, '\0') : null;
+        String stamp = null;
+        if (key != null) {
+            stamp = calls.call(pwd.getChannel(), new Stamp(source, envs.get("DEVELOPER_DIR"), commandLine[0]));
+            Fact fact = FACTS.get(key);
+            if (stamp != null && fact != null && stamp.equals(fact.stamp)) {
+                return fact;
+            }
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int returnCode = calls.join(launcher.launch().envs(envs).cmds(commandLine).stdout(output).quiet(true).pwd(pwd));
+        Fact fact = new Fact(StringUtils.join(commandLine, ' '), stamp, returnCode, output.toString("UTF-8"));
+        if (stamp != null && returnCode == 0) {
+            FACTS.put(key, fact);
+        }
+        return fact;
+    }
+
+    /**
+     * Forgets everything known about a node.
+     */
+    static void forget(String nodeName) {
+        String prefix = nodeName + '\0';
+        for (String key : FACTS.keySet()) {
+            if (key.startsWith(prefix)) {
+                FACTS.remove(key);
+            }
+        }
+    }
+
+    /**
+     * The output of a toolchain command.
+     */
+    static final class Fact {
+        private final String commandLine;
+        private final String stamp;
+        private final int returnCode;
+        private final String output;
+
+        Fact(String commandLine, String stamp, int returnCode, String output) {
+            this.commandLine = commandLine;
+            this.stamp = stamp;
+            this.returnCode = returnCode;
+            this.output = output;
+        }
+
+        /**
+         * The command line, as the build log shows it.
+         */
+        String getCommandLine() {
+            return commandLine;
+        }
+
+        int getReturnCode() {
+            return returnCode;
+        }
+
+        String getOutput() {
+            return output;
+        }
+    }
+
+    /**
+     * Takes the stamp of a source on the node, or returns null if it cannot be told when the source changes.
+     */
+    static final class Stamp extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final Source source;
+        private final String developerDir;
+        private final String tool;
+
+        Stamp(Source source, String developerDir, String tool) {
+            this.source = source;
+            this.developerDir = developerDir;
+            this.tool = tool;
+        }
+
+        public String call() throws IOException {
+            StringBuilder stamp = new StringBuilder();
+            if (source == Source.XCODE) {
+                File developer = new File(developerDir(developerDir, tool));
+                if (!developer.isDirectory()) {
+                    return null;
+                }
+                File contents = developer.getParentFile();
+                stamp.append(developer.getCanonicalPath()).append('\n');
+                append(stamp, developer);
+                append(stamp, new File(developer, "Platforms"));
+                append(stamp, new File(contents, "version.plist"));
+                append(stamp, new File(contents, "Info.plist"));
+            } else {
+                File home = new File(System.getProperty("user.home"));
+                File[] keychains = new File(home, "Library/Keychains").listFiles();
+                if (keychains == null) {
+                    return null;
+                }
+                Arrays.sort(keychains);
+                for (File keychain : keychains) {
+                    append(stamp, keychain);
+                }
+                append(stamp, new File("/Library/Keychains/System.keychain"));
+                // the search list is rewritten by every list-keychains -s, so only its contents count
+                File searchList = new File(home, "Library/Preferences/com.apple.security.plist");
+                if (searchList.isFile()) {
+                    stamp.append(digest(Files.readAllBytes(searchList.toPath()))).append('\n');
+                }
+            }
+            return stamp.toString();
+        }
+
+        private static void append(StringBuilder stamp, File file) {
+            stamp.append(file.getName()).append(' ').append(file.lastModified()).append(' ').append(file.length()).append('\n');
+        }
+
+        private static String digest(byte[] data) throws IOException {
+            try {
+                StringBuilder hex = new StringBuilder();
+                for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+                    hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * The developer directory a tool uses: {@code DEVELOPER_DIR}, the Xcode the tool lives in, or else the one
+     * picked with {@code xcode-select}.
+     */
+    static String developerDir(String developerDirVariable, String tool) {
+        if (!StringUtils.isEmpty(developerDirVariable)) {
+            return developerDirVariable;
+        }
+        int contents = tool.indexOf("/Contents/Developer/");
+        if (contents >= 0) {
+            return tool.substring(0, contents + "/Contents/Developer".length());
+        }
+        try {
+            Path link = Paths.get(XCODE_SELECT_LINK);
+            if (Files.isSymbolicLink(link)) {
+                return Files.readSymbolicLink(link).toString();
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // fall through to the default location
+        }
+        return DEFAULT_DEVELOPER_DIR;
+    }
+
+    /**
+     * Fills the outputs of a node in the background when it connects, so that its first build finds them.
+     */
+    @Extension
+    public static final class Prefill extends ComputerListener {
+        @Override
+        public void onOnline(final Computer c, final TaskListener listener) {
+            final Node node = c.getNode();
+            final FilePath root = node != null ? node.getRootPath() : null;
+            if (root == null || !Boolean.TRUE.equals(c.isUnix())) {
+                return;
+            }
+            forget(c.getName());
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                public void run() {
+                    RemotingCalls calls = new RemotingCalls("Toolchain prefill", c.getName());
+                    try {
+                        GlobalConfigurationImpl config = GlobalConfiguration.all().get(GlobalConfigurationImpl.class);
+                        String xcodebuild = config != null ? config.getXcodebuildPath() : "/usr/bin/xcodebuild";
+                        EnvVars envs = c.getEnvironment();
+                        if (calls.call(root.getChannel(), new Stamp(Source.XCODE, envs.get("DEVELOPER_DIR"), xcodebuild)) == null) {
+                            // not a Mac with Xcode
+                            return;
+                        }
+                        Launcher launcher = node.createLauncher(listener);
+                        ToolchainFacts.run(calls, root, launcher, envs, Source.XCODE, xcodebuild, "-version");
+                        ToolchainFacts.run(calls, root, launcher, envs, Source.XCODE, xcodebuild, "-showsdks");
+                        ToolchainFacts.run(calls, root, launcher, envs, Source.KEYCHAINS, FIND_IDENTITY);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Failed to gather the toolchain facts of " + c.getName(), e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        calls.log();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onOffline(Computer c, OfflineCause cause) {
+            forget(c.getName());
+        }
+    }
+}
@@ -29,22 +29,32 @@ import java.io.FileOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.InetAddress;
-import java.text.DateFormat;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 
 import au.com.rayh.report.TestCase;
 import au.com.rayh.report.TestError;
 import au.com.rayh.report.TestFailure;
 import au.com.rayh.report.TestSuite;
+import au.com.rayh.report.TestSuiteWriter;
 
 /**
  * Parse Xcode output and transform into JUnit-style xml test result files.
@@ -55,24 +65,53 @@ import au.com.rayh.report.TestSuite;
 
 public class XCodeBuildOutputParser {
 
-	private static DateFormat[] dateFormats = {
-		new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z"),
-		new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS")
-	};
-    private static Pattern START_SUITE = Pattern.compile("Test Suite '([^/].+)'.*started at\\s+(.*)");
-    private static Pattern END_SUITE = Pattern.compile("Test Suite '([^/].+)'.*\\S+ at\\s+(.*).");
-    private static Pattern START_TESTCASE = Pattern.compile("Test Case '-\\[\\S+\\s+(\\S+)\\]' started.");
-    private static Pattern END_TESTCASE = Pattern.compile("Test Case '-\\[\\S+\\s+(\\S+)\\]' passed \\((.*) seconds\\).");
-    private static Pattern ERROR_TESTCASE = Pattern.compile("(.*): error: -\\[(\\S+) (\\S+)\\] : (.*)");
-    private static Pattern ERROR_UI_TESTCASE = Pattern.compile(".*?Assertion Failure: (.+:\\d+): (.*)");
-    private static Pattern FAILED_TESTCASE = Pattern.compile("Test Case '-\\[\\S+ (\\S+)\\]' failed \\((\\S+) seconds\\).");
-    private static Pattern FAILED_WITH_EXIT_CODE = Pattern.compile("failed with exit code (\\d+)");
-    private static Pattern TERMINATING_EXCEPTION = Pattern.compile(".*\\*\\*\\* Terminating app due to uncaught exception '(\\S+)', reason: '(.+[^\\\\])'.*");
+    private static final SuiteTimestampParser TIMESTAMPS = new SuiteTimestampParser(TimeZone.getDefault());
+    private static final Pattern START_SUITE = Pattern.compile("Test Suite '([^/].+)'.*started at\\s+(.*)");
+    private static final Pattern END_SUITE = Pattern.compile("Test Suite '([^/].+)'.*\\S+ at\\s+(.*).");
+    private static final Pattern START_TESTCASE = Pattern.compile("Test Case '-\\[\\S+\\s+(\\S+)\\]' started.");
+    private static final Pattern END_TESTCASE = Pattern.compile("Test Case '-\\[\\S+\\s+(\\S+)\\]' passed \\((.*) seconds\\).");
+    private static final Pattern ERROR_TESTCASE = Pattern.compile("(.*): error: -\\[(\\S+) (\\S+)\\] : (.*)");
+    private static final Pattern ERROR_UI_TESTCASE = Pattern.compile(".*?Assertion Failure: (.+:\\d+): (.*)");
+    private static final Pattern FAILED_TESTCASE = Pattern.compile("Test Case '-\\[\\S+ (\\S+)\\]' failed \\((\\S+) seconds\\).");
+    private static final Pattern FAILED_WITH_EXIT_CODE = Pattern.compile("failed with exit code (\\d+)");
+    private static final Pattern TERMINATING_EXCEPTION = Pattern.compile(".*\\*\\*\\* Terminating app due to uncaught exception '(\\S+)', reason: '(.+[^\\\\])'.*");
+    // With parallel testing the lines name the test class, and may name the simulator clone instead of a date
+    private static final Pattern PARALLEL_START_SUITE = Pattern.compile("Test Suite '([^/].+?)' started (?:at\\s+(.*)|on '.*'.*)");
+    private static final Pattern PARALLEL_END_SUITE = Pattern.compile("Test Suite '([^/].+?)' \\S+ (?:at\\s+(.*)\\.|on '.*'.*)");
+    private static final Pattern PARALLEL_START_TESTCASE = Pattern.compile("Test [Cc]ase '-\\[(\\S+)\\s+(\\S+)\\]' started.*");
+    private static final Pattern PARALLEL_END_TESTCASE = Pattern.compile("Test [Cc]ase '-\\[(\\S+)\\s+(\\S+)\\]' (passed|failed)(?: on '.*')? \\((\\S+) seconds\\)\\.?");
+    /**
+     * Number of finished test cases a suite holds in memory before they are spooled to disk.
+     */
+    private static final int SPOOL_THRESHOLD = 64;
     private File testReportsDir;
     protected OutputStream captureOutputStream;
+    protected HostNameResolver hostNames;
     protected int exitCode;
     protected TestSuite currentTestSuite;
     protected TestCase currentTestCase;
+    private TestSuiteWriter currentTestSuiteWriter;
+    private boolean parallelTesting;
+    private final Map<String, OpenSuite> openSuites = new LinkedHashMap<>();
+    private final Map<String, TestCase> openTestCases = new HashMap<>();
+    private final Set<String> runningTestCases = new HashSet<>();
+    private final Map<String, Integer> reportsPerSuite = new HashMap<>();
+    private int reportedSuites;
+    private int reportedTests;
+    private int reportedFailures;
+    private int reportedErrors;
+
+    /**
+     * A suite being parsed with parallel testing, along with the writer its finished test cases are spooled to.
+     */
+    private static final class OpenSuite {
+        final TestSuite suite;
+        TestSuiteWriter writer;
+
+        OpenSuite(TestSuite suite) {
+            this.suite = suite;
+        }
+    }
 
     protected XCodeBuildOutputParser() {
         super();
@@ -87,10 +126,34 @@ public class XCodeBuildOutputParser {
         this();
         this.captureOutputStream = new LineBasedFilterOutputStream(log);
         this.testReportsDir = workspace;
+        this.hostNames = HostNameResolver.local();
+    }
+
+    /**
+     * With parallel testing xcodebuild interleaves the output of several simulator clones, so several suites and
+     * test cases are in flight at once. In that mode the parser keeps the state of each suite by name and of each
+     * test case by class and method, instead of assuming that events arrive one suite and one test case at a time.
+     */
+    public void setParallelTesting(boolean parallelTesting) {
+        this.parallelTesting = parallelTesting;
     }
 
+    public boolean isParallelTesting() {
+        return parallelTesting;
+    }
+
+    /**
+     * Forwards the Xcode output unchanged and hands every complete line to {@link #handleLine(String)}.
+     * Bulk writes are scanned for newlines and passed downstream in one call, and lines are decoded as UTF-8
+     * only once they are complete, so multi-byte characters split across writes are not mangled.
+     */
     public class LineBasedFilterOutputStream extends FilterOutputStream {
-        StringBuilder buffer = new StringBuilder();
+        private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private byte[] buffer = new byte[256];
+        private int count;
+        private CharBuffer chars = CharBuffer.allocate(256);
 
         public LineBasedFilterOutputStream(OutputStream log) {
             super(log);
@@ -98,41 +161,74 @@ public class XCodeBuildOutputParser {
 
         @Override
         public void write(int b) throws IOException {
-            super.write(b);
-            if((char)b == '\n') {
-                try {
-                    handleLine(buffer.toString());
-                    buffer = new StringBuilder();
-                } catch(Exception e) {  // Very fugly
-                    throw new IOException(e);
-                }
+            out.write(b);
+            if((byte)b == '\n') {
+                endLine();
             } else {
-                buffer.append((char)b);
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                }
+                buffer[count++] = (byte)b;
             }
         }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            int start = off;
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                if (b[i] == '\n') {
+                    append(b, start, i - start);
+                    endLine();
+                    start = i + 1;
+                }
+            }
+            append(b, start, end - start);
+        }
+
+        private void append(byte[] b, int off, int len) {
+            if (count + len > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, count + len));
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        private void endLine() throws IOException {
+            String line = decodeLine();
+            count = 0;
+            try {
+                handleLine(line);
+            } catch(Exception e) {  // Very fugly
+                lineFailed(e);
+            }
+        }
+
+        private String decodeLine() {
+            // a UTF-8 line never decodes to more chars than it has bytes
+            if (chars.capacity() < count) {
+                chars = CharBuffer.allocate(Math.max(chars.capacity() << 1, count));
+            }
+            chars.clear();
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(buffer, 0, count), chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            return chars.toString();
+        }
+
+        protected void lineFailed(Exception e) throws IOException {
+            throw new IOException(e);
+        }
     }
 
 	private Date parseDate(String text) throws ParseException {
-		Date date;
-		ParseException parseException;
-
-		date = null;
-		parseException = null;
-
-		for (DateFormat dateFormat : dateFormats) {
-			try {
-				date = dateFormat.parse(text);
-				break;
-			} catch (ParseException exception) {
-				parseException = exception;
-			}
-		}
-
-		if ((date == null) && (parseException != null)) {
-			throw parseException;
-		}
-
-		return date;
+		return TIMESTAMPS.parse(text);
+	}
+
+	private Date parseOptionalDate(String text) throws ParseException {
+		return text != null ? parseDate(text) : null;
 	}
 
 	private void requireTestSuite() {
@@ -156,29 +252,119 @@ public class XCodeBuildOutputParser {
         }
     }
 
+    /**
+     * Adds a finished test case to the current suite, spooling the suite's test cases to disk once there are
+     * enough of them, so that memory use does not grow with the size of the suite.
+     */
+    private void addTestCase(TestCase testCase) throws IOException, JAXBException {
+        currentTestSuiteWriter = addTestCase(currentTestSuite, currentTestSuiteWriter, testCase);
+    }
+
+    private TestSuiteWriter addTestCase(TestSuite suite, TestSuiteWriter writer, TestCase testCase)
+            throws IOException, JAXBException {
+        List<TestCase> testCases = suite.getTestCases();
+        testCases.add(testCase);
+        if (testCases.size() >= SPOOL_THRESHOLD) {
+            if (writer == null) {
+                writer = newTestSuiteWriter();
+            }
+            for (TestCase c : testCases) {
+                writer.append(c);
+            }
+            testCases.clear();
+        }
+        return writer;
+    }
+
+    private TestSuiteWriter newTestSuiteWriter() {
+        return new TestSuiteWriter(spoolDirectory());
+    }
+
+    /**
+     * The directory the test cases of large suites are spooled to, or {@code null} for the temporary directory.
+     * Spools next to the reports, so that the spool of a suite that never ends is not left in the temporary directory.
+     */
+    protected File spoolDirectory() {
+        return testReportsDir;
+    }
+
+    private void discardTestSuiteWriter() throws IOException {
+        if (currentTestSuiteWriter != null) {
+            currentTestSuiteWriter.close();
+            currentTestSuiteWriter = null;
+        }
+    }
+
     private void writeTestReport() throws IOException, InterruptedException,
             JAXBException {
-        try (OutputStream testReportOutputStream = outputForSuite()) {
-            JAXBContext jaxbContext = JAXBContext.newInstance(TestSuite.class);
-            Marshaller marshaller = jaxbContext.createMarshaller();
-            marshaller.marshal(currentTestSuite, testReportOutputStream);
+        TestSuiteWriter writer = currentTestSuiteWriter != null ? currentTestSuiteWriter : newTestSuiteWriter();
+        currentTestSuiteWriter = null;
+        countReport(currentTestSuite);
+        writeTestReport(currentTestSuite, reportFileName(currentTestSuite), writer);
+    }
+
+    private void countReport(TestSuite suite) {
+        reportedSuites++;
+        reportedTests += suite.getTests();
+        reportedFailures += suite.getFailures();
+        reportedErrors += suite.getErrors();
+    }
+
+    /**
+     * Names the report of a suite. A suite is reported more than once when a simulator clone crashes and another
+     * clone restarts it, so the later reports are numbered instead of overwriting the first one.
+     */
+    private String reportFileName(TestSuite suite) {
+        Integer reports = reportsPerSuite.get(suite.getName());
+        int n = reports != null ? reports + 1 : 1;
+        reportsPerSuite.put(suite.getName(), n);
+        return n == 1 ? "TEST-" + suite.getName() + ".xml" : "TEST-" + suite.getName() + "-" + n + ".xml";
+    }
+
+    /**
+     * Writes the report of a finished suite to the given file and closes its writer. The suite is not modified by
+     * the parser afterwards, so subclasses may write it from another thread.
+     */
+    protected void writeTestReport(TestSuite suite, String fileName, TestSuiteWriter writer) throws IOException,
+            InterruptedException, JAXBException {
+        suite.setHostname(hostNames.get());
+        try (OutputStream testReportOutputStream = outputForReport(fileName)) {
+            writer.writeTo(suite, testReportOutputStream);
+        } finally {
+            writer.close();
         }
     }
 
-    protected OutputStream outputForSuite() throws IOException,
+    protected OutputStream outputForReport(String fileName) throws IOException,
             InterruptedException {
-        return new FileOutputStream(new File(testReportsDir, "TEST-" + currentTestSuite.getName() + ".xml"));
+        return new FileOutputStream(new File(testReportsDir, fileName));
+    }
+
+    private static Matcher match(Pattern pattern, String line) {
+        Matcher m = pattern.matcher(line);
+        return m.matches() ? m : null;
     }
 
     protected void handleLine(String line) throws ParseException, IOException, InterruptedException, JAXBException {
-        Matcher m = START_SUITE.matcher(line);
-        if(m.matches()) {
-            currentTestSuite = new TestSuite(InetAddress.getLocalHost().getHostName(), m.group(1), parseDate(m.group(2)));
+        if (parallelTesting) {
+            handleParallelLine(line);
             return;
         }
 
-        m = END_SUITE.matcher(line);
-        if(m.matches()) {
+        // Nearly all of the output is compiler noise that matches nothing, so each pattern is only run when the
+        // line contains the literal text the pattern requires. The patterns are still tried in the same order.
+        boolean suiteLine = line.startsWith("Test Suite '");
+        boolean caseLine = !suiteLine && line.startsWith("Test Case '-[");
+
+        Matcher m = suiteLine && line.contains("started at") ? match(START_SUITE, line) : null;
+        if(m != null) {
+            discardTestSuiteWriter();
+            currentTestSuite = new TestSuite(null, m.group(1), parseDate(m.group(2)));
+            return;
+        }
+
+        m = suiteLine && line.contains(" at") ? match(END_SUITE, line) : null;
+        if(m != null) {
             if(currentTestSuite==null) return; // if there is no current suite, do nothing
 
             currentTestSuite.setEndTime(parseDate(m.group(2)));
@@ -188,26 +374,26 @@ public class XCodeBuildOutputParser {
             return;
         }
 
-        m = START_TESTCASE.matcher(line);
-        if(m.matches()) {
+        m = caseLine && line.contains("]' started") ? match(START_TESTCASE, line) : null;
+        if(m != null) {
             currentTestCase = new TestCase(currentTestSuite.getName(), m.group(1));
             return;
         }
 
-        m = END_TESTCASE.matcher(line);
-        if(m.matches()) {
+        m = caseLine && line.contains("]' passed (") ? match(END_TESTCASE, line) : null;
+        if(m != null) {
             requireTestSuite();
             requireTestCase(m.group(1));
 
             currentTestCase.setTime(Float.valueOf(m.group(2)));
-            currentTestSuite.getTestCases().add(currentTestCase);
+            addTestCase(currentTestCase);
             currentTestSuite.addTest();
             currentTestCase = null;
             return;
         }
 
-        m = ERROR_TESTCASE.matcher(line);
-        if(m.matches()) {
+        m = line.contains(": error: -[") ? match(ERROR_TESTCASE, line) : null;
+        if(m != null) {
 
             String errorLocation = m.group(1);
             String testSuite = m.group(2);
@@ -222,8 +408,8 @@ public class XCodeBuildOutputParser {
             return;
         }
 	
-        m = ERROR_UI_TESTCASE.matcher(line);
-        if(m.matches()) {
+        m = line.contains("Assertion Failure: ") ? match(ERROR_UI_TESTCASE, line) : null;
+        if(m != null) {
             String errorLocation = m.group(1);
             String errorMessage = m.group(2);
 
@@ -232,30 +418,24 @@ public class XCodeBuildOutputParser {
             return;
         }
 
-        m = FAILED_TESTCASE.matcher(line);
-        if(m.matches()) {
+        m = caseLine && line.contains("]' failed (") ? match(FAILED_TESTCASE, line) : null;
+        if(m != null) {
             requireTestSuite();
             requireTestCase(m.group(1));
             currentTestSuite.addTest();
             currentTestSuite.addFailure();
             currentTestCase.setTime(Float.valueOf(m.group(2)));
-            currentTestSuite.getTestCases().add(currentTestCase);
+            addTestCase(currentTestCase);
             currentTestCase = null;
             return;
         }
 
-        m = FAILED_WITH_EXIT_CODE.matcher(line);
-        if(m.matches()) {
-            exitCode = Integer.parseInt(m.group(1));
+        if(handleExitCode(line)) {
             return;
         }
 
-        if(line.matches("BUILD FAILED") || line.matches("\\*\\* TEST FAILED \\*\\*")) {
-            exitCode = -1;
-        }
-        
-        m = TERMINATING_EXCEPTION.matcher(line);
-        if(m.matches()) {
+        m = line.contains("*** Terminating app due to uncaught exception '") ? match(TERMINATING_EXCEPTION, line) : null;
+        if(m != null) {
             exitCode = -1;
             
             requireTestSuite();
@@ -263,7 +443,7 @@ public class XCodeBuildOutputParser {
                 TestError error = new TestError(m.group(2), m.group(1));
                 currentTestCase.getErrors().add(error);
                 
-                currentTestSuite.getTestCases().add(currentTestCase);
+                addTestCase(currentTestCase);
                 currentTestSuite.addTest();
                 currentTestSuite.addError();
                 
@@ -274,11 +454,218 @@ public class XCodeBuildOutputParser {
         }
     }
 
+    private boolean handleExitCode(String line) {
+        Matcher m = line.startsWith("failed with exit code ") ? match(FAILED_WITH_EXIT_CODE, line) : null;
+        if(m != null) {
+            exitCode = Integer.parseInt(m.group(1));
+            return true;
+        }
+
+        if(line.equals("BUILD FAILED") || line.equals("** TEST FAILED **")) {
+            exitCode = -1;
+        }
+        return false;
+    }
+
+    /**
+     * The parallel testing counterpart of the serial cascade in {@link #handleLine(String)}. Test cases are looked
+     * up by class and method, and belong to the suite named after their class. Failures that only carry a source
+     * location, and crashes, are attributed to the {@link #runningTestCase() running test case}.
+     */
+    private void handleParallelLine(String line) throws ParseException, IOException, InterruptedException,
+            JAXBException {
+        boolean suiteLine = line.startsWith("Test Suite '");
+        boolean caseLine = !suiteLine && (line.startsWith("Test Case '-[") || line.startsWith("Test case '-["));
+
+        Matcher m = suiteLine && line.contains("' started ") ? match(PARALLEL_START_SUITE, line) : null;
+        if(m != null) {
+            String name = m.group(1);
+            if(!isAggregateSuite(name)) {
+                OpenSuite previous = openSuites.put(name, new OpenSuite(
+                        new TestSuite(null, name, parseOptionalDate(m.group(2)))));
+                if(previous != null && previous.writer != null) {
+                    previous.writer.close();
+                }
+            }
+            return;
+        }
+
+        m = suiteLine ? match(PARALLEL_END_SUITE, line) : null;
+        if(m != null) {
+            OpenSuite open = openSuites.remove(m.group(1));
+            if(open == null) return; // aggregate suites and suites that were never started are not reported
+
+            Date endTime = parseOptionalDate(m.group(2));
+            if(endTime != null && open.suite.getStartTime() != null) {
+                open.suite.setEndTime(endTime);
+            }
+            writeTestReport(open);
+            return;
+        }
+
+        m = caseLine && line.contains("]' started") ? match(PARALLEL_START_TESTCASE, line) : null;
+        if(m != null) {
+            String key = testCaseKey(m.group(1), m.group(2));
+            openTestCases.put(key, new TestCase(suiteFor(m.group(1)).suite.getName(), m.group(2)));
+            runningTestCases.add(key);
+            return;
+        }
+
+        m = caseLine && (line.contains("]' passed ") || line.contains("]' failed ")) ? match(PARALLEL_END_TESTCASE, line) : null;
+        if(m != null) {
+            OpenSuite open = suiteFor(m.group(1));
+            TestCase testCase = removeTestCase(m.group(1), m.group(2));
+            testCase.setTime(Float.valueOf(m.group(4)));
+            open.suite.addTest();
+            if(m.group(3).equals("failed")) {
+                open.suite.addFailure();
+            }
+            open.writer = addTestCase(open.suite, open.writer, testCase);
+            return;
+        }
+
+        m = line.contains(": error: -[") ? match(ERROR_TESTCASE, line) : null;
+        if(m != null) {
+            String key = testCaseKey(m.group(2), m.group(3));
+            TestCase testCase = openTestCases.get(key);
+            if(testCase == null) {
+                // the summary lines printed for parallel runs report failures before the test case's result
+                testCase = new TestCase(suiteFor(m.group(2)).suite.getName(), m.group(3));
+                openTestCases.put(key, testCase);
+            }
+            testCase.getFailures().add(new TestFailure(m.group(4), m.group(1)));
+            return;
+        }
+
+        m = line.contains("Assertion Failure: ") ? match(ERROR_UI_TESTCASE, line) : null;
+        if(m != null) {
+            String key = runningTestCase();
+            TestCase testCase = key != null ? openTestCases.get(key) : null;
+            if(testCase != null) {
+                testCase.getFailures().add(new TestFailure(m.group(2), m.group(1)));
+            }
+            return;
+        }
+
+        if(handleExitCode(line)) {
+            return;
+        }
+
+        m = line.contains("*** Terminating app due to uncaught exception '") ? match(TERMINATING_EXCEPTION, line) : null;
+        if(m != null) {
+            exitCode = -1;
+
+            String key = runningTestCase();
+            TestCase testCase = key != null ? openTestCases.remove(key) : null;
+            if(testCase != null) {
+                runningTestCases.remove(key);
+                // the crash ends the clone's run of the suite, so it is reported like a suite that finished
+                OpenSuite open = suiteFor(key.substring(0, key.indexOf(' ')));
+                openSuites.remove(open.suite.getName());
+                testCase.getErrors().add(new TestError(m.group(2), m.group(1)));
+                open.writer = addTestCase(open.suite, open.writer, testCase);
+                open.suite.addTest();
+                open.suite.addError();
+                writeTestReport(open);
+            }
+        }
+    }
+
+    /**
+     * Returns the key of the only test case running, or {@code null} when there are several. The lines that do not
+     * name their test case do not name their simulator clone either, so with several clones running at once they
+     * cannot be attributed.
+     */
+    private String runningTestCase() {
+        return runningTestCases.size() == 1 ? runningTestCases.iterator().next() : null;
+    }
+
+    private static boolean isAggregateSuite(String name) {
+        return name.equals("All tests") || name.equals("Selected tests") || name.endsWith(".xctest");
+    }
+
+    private static String testCaseKey(String className, String method) {
+        return className + " " + method;
+    }
+
+    /**
+     * Returns the open suite of a test class, starting one if its start was not logged. Swift classes are logged
+     * with their module name, which the suite name does not have.
+     */
+    private OpenSuite suiteFor(String className) {
+        OpenSuite open = openSuites.get(className);
+        if(open == null) {
+            String name = className.substring(className.lastIndexOf('.') + 1);
+            open = openSuites.get(name);
+            if(open == null) {
+                open = new OpenSuite(new TestSuite(null, name, null));
+                openSuites.put(name, open);
+            }
+        }
+        return open;
+    }
+
+    private TestCase removeTestCase(String className, String method) {
+        String key = testCaseKey(className, method);
+        runningTestCases.remove(key);
+        TestCase testCase = openTestCases.remove(key);
+        return testCase != null ? testCase : new TestCase(suiteFor(className).suite.getName(), method);
+    }
+
+    private void writeTestReport(OpenSuite open) throws IOException, InterruptedException, JAXBException {
+        TestSuiteWriter writer = open.writer != null ? open.writer : newTestSuiteWriter();
+        open.writer = null;
+        countReport(open.suite);
+        writeTestReport(open.suite, reportFileName(open.suite), writer);
+    }
+
     public OutputStream getOutputStream() {
         return captureOutputStream;
     }
 
+    /**
+     * Writes the reports of the suites whose end was never logged, which happens with parallel testing, and waits
+     * until the reports of all the suites parsed so far have been written. The spool of a serial suite that never
+     * ended is deleted.
+     */
+    public void awaitReports() throws IOException, InterruptedException {
+        discardTestSuiteWriter();
+        for (Iterator<OpenSuite> it = openSuites.values().iterator(); it.hasNext();) {
+            OpenSuite open = it.next();
+            it.remove();
+            try {
+                writeTestReport(open);
+            } catch (JAXBException e) {
+                throw new IOException(e);
+            }
+        }
+        openTestCases.clear();
+        runningTestCases.clear();
+    }
+
     public int getExitCode() {
         return exitCode;
     }
+
+    /**
+     * The number of suite reports written so far.
+     */
+    public int getReportedSuites() {
+        return reportedSuites;
+    }
+
+    /**
+     * The number of test cases in the suite reports written so far.
+     */
+    public int getReportedTests() {
+        return reportedTests;
+    }
+
+    public int getReportedFailures() {
+        return reportedFailures;
+    }
+
+    public int getReportedErrors() {
+        return reportedErrors;
+    }
 }
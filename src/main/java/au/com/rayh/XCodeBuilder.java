@@ -34,29 +34,37 @@ import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.AutoCompletionCandidates;
 import hudson.model.BuildListener;
+import hudson.model.Computer;
+import hudson.model.Item;
+import hudson.model.Node;
+import hudson.model.Project;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
+import hudson.util.ArgumentListBuilder;
 import hudson.util.CopyOnWriteList;
 import hudson.util.QuotedStringTokenizer;
 import jenkins.tasks.SimpleBuildStep;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.tokenmacro.MacroEvaluationException;
 import org.jenkinsci.plugins.tokenmacro.TokenMacro;
+import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 
 import javax.inject.Inject;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectStreamException;
-import java.text.SimpleDateFormat;
+import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 import java.util.Collection;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -67,10 +75,6 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
 
     private static final int SIGTERM = 143;
 
-    private static final String MANIFEST_PLIST_TEMPLATE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">"
-            + "<plist version=\"1.0\"><dict><key>items</key><array><dict><key>assets</key><array><dict><key>kind</key><string>software-package</string><key>url</key><string>${IPA_URL_BASE}/${IPA_NAME}</string></dict></array>"
-            + "<key>metadata</key><dict><key>bundle-identifier</key><string>${BUNDLE_ID}</string><key>bundle-version</key><string>${BUNDLE_VERSION}</string><key>kind</key><string>software</string><key>title</key><string>${APP_NAME}</string></dict></dict></array></dict></plist>";
-
     private static final String EXPORT_PLIST_TEMPLATE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">"
             + "<plist version=\"1.0\"><dict>"
             + "<key>method</key><string>${IPA_EXPORT_METHOD}</string>"
@@ -289,6 +293,12 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
 
     @SuppressFBWarnings("DM_DEFAULT_ENCODING")
     private boolean _perform(Run<?,?> build, FilePath projectRoot, Launcher launcher, EnvVars envs, TaskListener listener) throws InterruptedException, IOException {
+        try (Probes probes = new Probes(build.getExternalizableId())) {
+            return _perform(build, projectRoot, launcher, envs, listener, probes);
+        }
+    }
+
+    private boolean _perform(Run<?,?> build, FilePath projectRoot, Launcher launcher, EnvVars envs, TaskListener listener, Probes probes) throws InterruptedException, IOException {
 
         // check that the configured tools exist
         if (!new FilePath(projectRoot.getChannel(), getGlobalConfiguration().getXcodebuildPath()).exists()) {
@@ -323,6 +333,7 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
         // End expanding all string variables in parameters
 
         // Set the working directory
+        FilePath workspace = projectRoot;
         if (!StringUtils.isEmpty(xcodeProjectPath)) {
             projectRoot = projectRoot.child(xcodeProjectPath);
         }
@@ -373,37 +384,63 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
             buildDirectory = projectRoot.child("build").child(configuration + "-" + buildPlatform);
         }
 
+        // Start the probes that only depend on Xcode and the project files; their results are logged in order below
+        Future<ToolchainFacts.Fact> xcodeVersionProbe = probes.fact(projectRoot, launcher, envs, ToolchainFacts.Source.XCODE, getGlobalConfiguration().getXcodebuildPath(), "-version");
+        Future<ToolchainFacts.Fact> sdksProbe = probes.fact(projectRoot, launcher, envs, ToolchainFacts.Source.XCODE, getGlobalConfiguration().getXcodebuildPath(), "-showsdks");
+        Future<ProjectVersions.Versions> versionsProbe = probes.act(projectRoot, new ProjectVersions.Read(xcodeProjectFile));
+
         // XCode Version
-        int returnCode = launcher.launch().envs(envs).cmds(getGlobalConfiguration().getXcodebuildPath(), "-version").stdout(listener).pwd(projectRoot).join();
+        ToolchainFacts.Fact xcodeVersion = Probes.get(xcodeVersionProbe);
+        listener.getLogger().println("$ " + xcodeVersion.getCommandLine());
+        listener.getLogger().print(xcodeVersion.getOutput());
+        int returnCode = xcodeVersion.getReturnCode();
         if (returnCode > 0) {
             listener.fatalError(Messages.XCodeBuilder_xcodeVersionNotFound());
             return false; // We fail the build if XCode isn't deployed
         }
 
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // Read both versions from the project files in one go, and only ask agvtool when they cannot tell
+        ProjectVersions.Versions projectVersions = null;
+        try {
+            projectVersions = Probes.get(versionsProbe);
+        } catch (IOException e) {
+            listener.getLogger().println(Messages.XCodeBuilder_projectVersionsUnreadable(e.getMessage()));
+        }
+        Future<Probes.Output> marketingVersionProbe = null;
+        Future<Probes.Output> projectVersionProbe = null;
+        if (projectVersions == null) {
+            marketingVersionProbe = probes.launch(launcher, envs, projectRoot, getGlobalConfiguration().getAgvtoolPath(), "mvers", "-terse1");
+            projectVersionProbe = probes.launch(launcher, envs, projectRoot, getGlobalConfiguration().getAgvtoolPath(), "vers", "-terse");
+        }
 
         // Try to read CFBundleShortVersionString from project
         listener.getLogger().println(Messages.XCodeBuilder_fetchingCFBundleShortVersionString());
         String cfBundleShortVersionString = "";
-        returnCode = launcher.launch().envs(envs).cmds(getGlobalConfiguration().getAgvtoolPath(), "mvers", "-terse1").stdout(output).pwd(projectRoot).join();
-        // only use this version number if we found it
-        if (returnCode == 0)
-            cfBundleShortVersionString = output.toString().trim();
+        if (projectVersions != null) {
+            cfBundleShortVersionString = projectVersions.getMarketingVersion();
+        } else {
+            Probes.Output output = Probes.get(marketingVersionProbe);
+            // only use this version number if we found it
+            if (output.getReturnCode() == 0)
+                cfBundleShortVersionString = output.getText().trim();
+        }
         if (StringUtils.isEmpty(cfBundleShortVersionString))
             listener.getLogger().println(Messages.XCodeBuilder_CFBundleShortVersionStringNotFound());
         else
             listener.getLogger().println(Messages.XCodeBuilder_CFBundleShortVersionStringFound(cfBundleShortVersionString));
         listener.getLogger().println(Messages.XCodeBuilder_CFBundleShortVersionStringValue(cfBundleShortVersionString));
 
-        output.reset();
-
         // Try to read CFBundleVersion from project
         listener.getLogger().println(Messages.XCodeBuilder_fetchingCFBundleVersion());
         String cfBundleVersion = "";
-        returnCode = launcher.launch().envs(envs).cmds(getGlobalConfiguration().getAgvtoolPath(), "vers", "-terse").stdout(output).pwd(projectRoot).join();
-        // only use this version number if we found it
-        if (returnCode == 0)
-            cfBundleVersion = output.toString().trim();
+        if (projectVersions != null) {
+            cfBundleVersion = projectVersions.getProjectVersion();
+        } else {
+            Probes.Output output = Probes.get(projectVersionProbe);
+            // only use this version number if we found it
+            if (output.getReturnCode() == 0)
+                cfBundleVersion = output.getText().trim();
+        }
         if (StringUtils.isEmpty(cfBundleVersion))
             listener.getLogger().println(Messages.XCodeBuilder_CFBundleVersionNotFound());
         else
@@ -417,9 +454,10 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
         // Update the bundle ID
         if (this.changeBundleID != null && this.changeBundleID) {
         	listener.getLogger().println(Messages.XCodeBuilder_CFBundleIdentifierChanged(bundleIDInfoPlistPath, bundleID));
-        	returnCode = launcher.launch().envs(envs).cmds("/usr/libexec/PlistBuddy", "-c",  "Set :CFBundleIdentifier " + bundleID, bundleIDInfoPlistPath).stdout(listener).pwd(projectRoot).join();
-
-        	if (returnCode > 0) {
+        	try {
+        		projectRoot.child(bundleIDInfoPlistPath).act(new InfoPlist.Set(":CFBundleIdentifier", bundleID));
+        	} catch (IOException e) {
+        		listener.getLogger().println(e.getMessage());
         		listener.fatalError(Messages.XCodeBuilder_CFBundleIdentifierInfoPlistNotFound(bundleIDInfoPlistPath));
         		return false;
         	}
@@ -432,7 +470,11 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
                 // https://wiki.jenkins-ci.org/display/JENKINS/Token+Macro+Plugin
                 cfBundleShortVersionString = TokenMacro.expandAll(build, projectRoot, listener, cfBundleShortVersionStringValue);
                 listener.getLogger().println(Messages.XCodeBuilder_CFBundleShortVersionStringUpdate(cfBundleShortVersionString));
-                returnCode = launcher.launch().envs(envs).cmds(getGlobalConfiguration().getAgvtoolPath(), "new-marketing-version", cfBundleShortVersionString).stdout(listener).pwd(projectRoot).join();
+                if (projectVersions != null) {
+                    returnCode = updateProjectVersions(projectRoot, xcodeProjectFile, cfBundleShortVersionString, null, listener);
+                } else {
+                    returnCode = launcher.launch().envs(envs).cmds(getGlobalConfiguration().getAgvtoolPath(), "new-marketing-version", cfBundleShortVersionString).stdout(listener).pwd(projectRoot).join();
+                }
                 if (returnCode > 0) {
                     listener.fatalError(Messages.XCodeBuilder_CFBundleShortVersionStringUpdateError(cfBundleShortVersionString));
                     return false;
@@ -451,7 +493,11 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
                 // https://wiki.jenkins-ci.org/display/JENKINS/Token+Macro+Plugin
                 cfBundleVersion = TokenMacro.expandAll(build, projectRoot, listener, cfBundleVersionValue);
                 listener.getLogger().println(Messages.XCodeBuilder_CFBundleVersionUpdate(cfBundleVersion));
-                returnCode = launcher.launch().envs(envs).cmds(getGlobalConfiguration().getAgvtoolPath(), "new-version", "-all", cfBundleVersion).stdout(listener).pwd(projectRoot).join();
+                if (projectVersions != null) {
+                    returnCode = updateProjectVersions(projectRoot, xcodeProjectFile, null, cfBundleVersion, listener);
+                } else {
+                    returnCode = launcher.launch().envs(envs).cmds(getGlobalConfiguration().getAgvtoolPath(), "new-version", "-all", cfBundleVersion).stdout(listener).pwd(projectRoot).join();
+                }
                 if (returnCode > 0) {
                     listener.fatalError(Messages.XCodeBuilder_CFBundleVersionUpdateError(cfBundleVersion));
                     return false;
@@ -488,27 +534,32 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
             }
             String keychainPath = envs.expand(keychain.getKeychainPath());
             String keychainPwd = envs.expand(keychain.getKeychainPassword());
-            launcher.launch().envs(envs).cmds("/usr/bin/security", "list-keychains", "-s", keychainPath).stdout(listener).pwd(projectRoot).join();
-            launcher.launch().envs(envs).cmds("/usr/bin/security", "default-keychain", "-d", "user", "-s", keychainPath).stdout(listener).pwd(projectRoot).join();
-            if (StringUtils.isEmpty(keychainPwd))
-                returnCode = launcher.launch().envs(envs).cmds("/usr/bin/security", "unlock-keychain", keychainPath).stdout(listener).pwd(projectRoot).join();
-            else
-                returnCode = launcher.launch().envs(envs).cmds("/usr/bin/security", "unlock-keychain", "-p", keychainPwd, keychainPath).masks(false, false, false, true, false).stdout(listener).pwd(projectRoot).join();
+            Computer computer = projectRoot.toComputer();
+            Node node = computer != null ? computer.getNode() : null;
+            if (node == null) {
+                listener.fatalError(Messages.XCodeBuilder_nodeOffline());
+                return false;
+            }
+            // other builds on the node may have keychains of their own in the search list
+            KeychainSearchList.lease(build, node, launcher, envs, projectRoot, listener, keychainPath);
+            ArgumentListBuilder unlock = new ArgumentListBuilder("/usr/bin/security", "unlock-keychain");
+            if (!StringUtils.isEmpty(keychainPwd))
+                unlock.add("-p").addMasked(keychainPwd);
+            unlock.add(keychainPath);
+
+            CommandBatch batch = new CommandBatch();
+            batch.add(unlock).stopOnFailure();
+            // Show the keychain info after unlocking, if not, OS X will prompt for the keychain password
+            batch.add("/usr/bin/security", "show-keychain-info", keychainPath);
+            returnCode = batch.execute(launcher, envs, projectRoot, listener).get(0).getExitCode();
 
             if (returnCode > 0) {
                 listener.fatalError(Messages.XCodeBuilder_unlockKeychainFailed());
                 return false;
             }
-
-            // Show the keychain info after unlocking, if not, OS X will prompt for the keychain password
-            launcher.launch().envs(envs).cmds("/usr/bin/security", "show-keychain-info", keychainPath).stdout(listener).pwd(projectRoot).join();
         }
 
-        // display useful setup information
-        listener.getLogger().println(Messages.XCodeBuilder_DebugInfoLineDelimiter());
-        listener.getLogger().println(Messages.XCodeBuilder_DebugInfoAvailablePProfiles());
-        /*returnCode =*/ launcher.launch().envs(envs).cmds("/usr/bin/security", "find-identity", "-p", "codesigning", "-v").stdout(listener).pwd(projectRoot).join();
-
+        // display useful setup information; the keychain probes have to wait for it to be unlocked
         Team team = getDevelopmentTeam();
         if(team == null)
         {
@@ -516,21 +567,48 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
             return false;
         }
         String developmentTeamID = envs.expand(team.getTeamID());
+        Future<ToolchainFacts.Fact> identitiesProbe = probes.fact(projectRoot, launcher, envs, ToolchainFacts.Source.KEYCHAINS, ToolchainFacts.FIND_IDENTITY);
+        Future<Probes.Output> certificateProbe = null;
         if (!StringUtils.isEmpty(developmentTeamID)) {
+            certificateProbe = probes.launch(launcher, envs, projectRoot, "/usr/bin/security", "find-certificate", "-a", "-c", developmentTeamID, "-Z", "|", "grep", "^SHA-1");
+        }
+        // the project files usually give the same answer as xcodebuild -list, without the wait
+        Future<XcodeBuildListParser> projectFilesProbe = probes.act(projectRoot, new XcodeProjectParser.Parse(xcodeWorkspaceFile, xcodeProjectFile));
+
+        listener.getLogger().println(Messages.XCodeBuilder_DebugInfoLineDelimiter());
+        listener.getLogger().println(Messages.XCodeBuilder_DebugInfoAvailablePProfiles());
+        ToolchainFacts.Fact identities = Probes.get(identitiesProbe);
+        listener.getLogger().println("$ " + identities.getCommandLine());
+        listener.getLogger().print(identities.getOutput());
+
+        if (certificateProbe != null) {
             listener.getLogger().println(Messages.XCodeBuilder_DebugInfoCanFindPProfile());
-            /*returnCode =*/ launcher.launch().envs(envs).cmds("/usr/bin/security", "find-certificate", "-a", "-c", developmentTeamID, "-Z", "|", "grep", "^SHA-1").stdout(listener).pwd(projectRoot).join();
+            listener.getLogger().print(Probes.get(certificateProbe).getText());
             // We could fail here, but this doesn't seem to work as it should right now (output not properly redirected. We might need a parser)
         }
 
         listener.getLogger().println(Messages.XCodeBuilder_DebugInfoAvailableSDKs());
-        /*returnCode =*/ launcher.launch().envs(envs).cmds(getGlobalConfiguration().getXcodebuildPath(), "-showsdks").stdout(listener).pwd(projectRoot).join();
-
-        XcodeBuildListParser xcodebuildListParser;
-        {
+        ToolchainFacts.Fact sdks = Probes.get(sdksProbe);
+        listener.getLogger().println("$ " + sdks.getCommandLine());
+        listener.getLogger().print(sdks.getOutput());
+
+        listener.getLogger().println(Messages.XCodeBuilder_DebugInfoAvailableSchemes());
+        XcodeBuildListParser xcodebuildListParser = null;
+        try {
+            xcodebuildListParser = Probes.get(projectFilesProbe);
+        } catch (IOException e) {
+            listener.getLogger().println(Messages.XCodeBuilder_DebugInfoProjectFilesUnreadable(e.getMessage()));
+        }
+        if (xcodebuildListParser != null) {
+            listener.getLogger().println(Messages.XCodeBuilder_DebugInfoProjectFilesSchemes());
+            printList(listener.getLogger(), "Targets:", xcodebuildListParser.getTargets());
+            printList(listener.getLogger(), "Build Configurations:", xcodebuildListParser.getConfigurations());
+            printList(listener.getLogger(), "Schemes:", xcodebuildListParser.getSchemes());
+        }
+        if (xcodebuildListParser == null) {
+            // xcodebuild -list -workspace $workspace
             List<String> commandLine = Lists.newArrayList(getGlobalConfiguration().getXcodebuildPath());
             commandLine.add("-list");
-            // xcodebuild -list -workspace $workspace
-            listener.getLogger().println(Messages.XCodeBuilder_DebugInfoAvailableSchemes());
             if (!StringUtils.isEmpty(xcodeWorkspaceFile)) {
                 commandLine.add("-workspace");
                 commandLine.add(xcodeWorkspaceFile + ".xcworkspace");
@@ -539,12 +617,22 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
                 commandLine.add(xcodeProjectFile);
             }
 
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            returnCode = launcher.launch().envs(envs).cmds(commandLine).stdout(baos).pwd(projectRoot).start().joinWithTimeout(10, TimeUnit.SECONDS, listener);
-            String xcodeBuildListOutput = baos.toString("UTF-8");
-            listener.getLogger().println(xcodeBuildListOutput);
-            boolean timedOut = returnCode == SIGTERM;
-            if (returnCode > 0 && !timedOut) return false;
+            XcodeBuildListCache listCache = XcodeBuildListCache.of(projectRoot, commandLine, xcodeVersion.getOutput());
+            String xcodeBuildListOutput = listCache != null ? listCache.get() : null;
+            if (xcodeBuildListOutput != null) {
+                listener.getLogger().println(Messages.XCodeBuilder_DebugInfoCachedSchemes(listCache.getName()));
+                listener.getLogger().println(xcodeBuildListOutput);
+            } else {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                returnCode = launcher.launch().envs(envs).cmds(commandLine).stdout(baos).pwd(projectRoot).start().joinWithTimeout(10, TimeUnit.SECONDS, listener);
+                xcodeBuildListOutput = baos.toString("UTF-8");
+                listener.getLogger().println(xcodeBuildListOutput);
+                boolean timedOut = returnCode == SIGTERM;
+                if (returnCode > 0 && !timedOut) return false;
+                if (returnCode == 0 && listCache != null) {
+                    listCache.put(xcodeBuildListOutput);
+                }
+            }
 
             xcodebuildListParser = new XcodeBuildListParser(xcodeBuildListOutput);
         }
@@ -552,7 +640,7 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
 
         // Build
         StringBuilder xcodeReport = new StringBuilder(Messages.XCodeBuilder_invokeXcodebuild());
-        XCodeBuildOutputParser reportGenerator = new JenkinsXCodeBuildOutputParser(projectRoot, listener);
+        boolean parallelTesting = false;
         List<String> commandLine = Lists.newArrayList(getGlobalConfiguration().getXcodebuildPath());
 
         // Prioritizing schema over target setting
@@ -661,194 +749,42 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
 
         // Additional (custom) xcodebuild arguments
         if (!StringUtils.isEmpty(xcodebuildArguments)) {
-            commandLine.addAll(splitXcodeBuildArguments(xcodebuildArguments));
+            List<String> customArguments = splitXcodeBuildArguments(xcodebuildArguments);
+            commandLine.addAll(customArguments);
+            parallelTesting = isParallelTestingEnabled(customArguments);
         }
 
         listener.getLogger().println(xcodeReport.toString());
-        returnCode = launcher.launch().envs(envs).cmds(commandLine).stdout(reportGenerator.getOutputStream()).pwd(projectRoot).join();
+        int testExitCode;
+        if (getGlobalConfiguration().isParseTestOutputOnAgent()) {
+            // xcodebuild runs next to the workspace, so its output does not have to cross the channel to be parsed
+            XcodebuildOnAgent.Result result = projectRoot.act(new XcodebuildOnAgent(commandLine, envs, parallelTesting, listener));
+            listener.getLogger().println(Messages.XCodeBuilder_testReportSummary(result.suites, result.tests, result.failures, result.errors));
+            returnCode = result.returnCode;
+            testExitCode = result.exitCode;
+        } else {
+            XCodeBuildOutputParser reportGenerator = new JenkinsXCodeBuildOutputParser(projectRoot, listener, build.getRootDir());
+            reportGenerator.setParallelTesting(parallelTesting);
+            returnCode = launcher.launch().envs(envs).cmds(commandLine).stdout(reportGenerator.getOutputStream()).pwd(projectRoot).join();
+            reportGenerator.awaitReports();
+            testExitCode = reportGenerator.getExitCode();
+        }
         if (allowFailingBuildResults != null && !allowFailingBuildResults) {
-            if (reportGenerator.getExitCode() != 0) return false;
+            if (testExitCode != 0) return false;
             if (returnCode > 0) return false;
         }
 
         // Package IPA
         if (buildIpa) {
-
-            if (!buildDirectory.exists() || !buildDirectory.isDirectory()) {
-                listener.fatalError(Messages.XCodeBuilder_NotExistingBuildDirectory(buildDirectory.absolutize().getRemote()));
-                return false;
-            }
-
-            // clean IPA
-            FilePath ipaOutputPath = null;
-            if (ipaOutputDirectory != null && ! StringUtils.isEmpty(ipaOutputDirectory)) {
-            	ipaOutputPath = buildDirectory.child(ipaOutputDirectory);
-
-            	// Create if non-existent
-            	if (! ipaOutputPath.exists()) {
-            		ipaOutputPath.mkdirs();
-            	}
-            }
-
-            if (ipaOutputPath == null) {
-            	ipaOutputPath = buildDirectory;
-            }
-
-            /*listener.getLogger().println(Messages.XCodeBuilder_cleaningIPA());
-            for (FilePath path : ipaOutputPath.list("*.ipa")) {
-                path.delete();
-            }
-            listener.getLogger().println(Messages.XCodeBuilder_cleaningDSYM());
-            for (FilePath path : ipaOutputPath.list("*-dSYM.zip")) {
-                path.delete();
-            */
-            // packaging IPA
-            listener.getLogger().println(Messages.XCodeBuilder_packagingIPA());
-
-
-            FilePath exportPlistLocation = ipaOutputPath.child(ipaExportMethod + developmentTeamID + "Export.plist");
             String exportPlist = EXPORT_PLIST_TEMPLATE
                     .replace("${IPA_EXPORT_METHOD}", ipaExportMethod)
                     .replace("${DEVELOPMENT_TEAM}", developmentTeamID);
-            exportPlistLocation.write(exportPlist, "UTF-8");
 
-
-            List<FilePath> archives = buildDirectory.list(new XCArchiveFileFilter());
-            // FilePath is based on File.listFiles() which can randomly fail | http://stackoverflow.com/questions/3228147/retrieving-the-underlying-error-when-file-listfiles-return-null
-            if (archives == null) {
-                listener.fatalError(Messages.XCodeBuilder_NoArchivesInBuildDirectory(buildDirectory.absolutize().getRemote()));
+            IpaExporter exporter = new IpaExporter(launcher, envs, workspace, projectRoot, buildDirectory, getGlobalConfiguration().getXcodebuildPath(),
+                    configuration, buildPlatform, sdk, ipaName, ipaManifestPlistUrl, build.getExternalizableId());
+            if (!exporter.exportAll(ipaOutputDirectory, ipaExportMethod + developmentTeamID + "Export.plist", exportPlist, listener)) {
                 return false;
             }
-
-            for (FilePath archive : archives) {
-                String version = "";
-                String shortVersion = "";
-
-                try {
-                    output.reset();
-                    returnCode = launcher.launch().envs(envs).cmds("/usr/libexec/PlistBuddy", "-c", "Print :ApplicationProperties:CFBundleVersion", archive.absolutize().child("Info.plist").getRemote()).stdout(output).pwd(projectRoot).join();
-                    if (returnCode == 0) {
-                        version = output.toString().trim();
-                    }
-
-                    output.reset();
-                    returnCode = launcher.launch().envs(envs).cmds("/usr/libexec/PlistBuddy", "-c", "Print :ApplicationProperties:CFBundleShortVersionString", archive.absolutize().child("Info.plist").getRemote()).stdout(output).pwd(projectRoot).join();
-                    if (returnCode == 0) {
-                        shortVersion = output.toString().trim();
-                    }
-                }
-                catch(Exception ex) {
-                    listener.getLogger().println("Failed to get version from Info.plist: " + ex.toString());
-                    return false;
-                }
-
-               	if (StringUtils.isEmpty(version) && StringUtils.isEmpty(shortVersion)) {
-               		listener.getLogger().println("You have to provide a value for either the marketing or technical version. Found neither.");
-               		return false;
-               	}
-
-                String lastModified = new SimpleDateFormat("yyyy.MM.dd").format(new Date(archive.lastModified()));
-
-                String baseName = archive.getBaseName().replaceAll(" ", "_") + (shortVersion.isEmpty() ? "" : "-" + shortVersion) + (version.isEmpty() ? "" : "-" + version);
-                // If custom .ipa name pattern has been provided, use it and expand version and build date variables
-                if (! StringUtils.isEmpty(ipaName)) {
-                	EnvVars customVars = new EnvVars(
-                		"BASE_NAME", archive.getBaseName().replaceAll(" ", "_"),
-                		"VERSION", version,
-                		"SHORT_VERSION", shortVersion,
-                		"BUILD_DATE", lastModified
-                	);
-                    baseName = customVars.expand(ipaName);
-                }
-
-                String ipaFileName = baseName + ".ipa";
-                FilePath ipaLocation = ipaOutputPath.child(ipaFileName);
-
-                FilePath payload = ipaOutputPath.child("Payload");
-                payload.deleteRecursive();
-                payload.mkdirs();
-
-                listener.getLogger().println("Packaging " + archive.getBaseName() + ".xcarchive => " + ipaLocation.absolutize().getRemote());
-                if (buildPlatform.contains("simulator")) {
-                    listener.getLogger().println(Messages.XCodeBuilder_warningPackagingIPAForSimulatorSDK(sdk));
-                }
-
-
-                List<String> packageCommandLine = new ArrayList<>();
-                packageCommandLine.add(getGlobalConfiguration().getXcodebuildPath());
-                packageCommandLine.addAll(Lists.newArrayList("-exportArchive", "-archivePath", archive.absolutize().getRemote(), "-exportPath", ipaOutputPath.absolutize().getRemote(), "-exportOptionsPlist", exportPlistLocation.absolutize().getRemote()));
-                returnCode = launcher.launch().envs(envs).stdout(listener).pwd(projectRoot).cmds(packageCommandLine).join();
-                if (returnCode > 0) {
-                    listener.getLogger().println("Failed to build " + ipaLocation.absolutize().getRemote());
-                    return false;
-                }
-                //rename exported ipa
-                FilePath exportedIpa = ipaOutputPath.child(archive.getBaseName() + ".ipa");
-                if (exportedIpa.exists()) {
-                    exportedIpa.renameTo(ipaLocation);
-                }
-
-                // also zip up the symbols, if present
-                listener.getLogger().println("Archiving dSYM");
-                List<FilePath> dSYMs = buildDirectory.absolutize().child(configuration + "-" + buildPlatform).list(new DSymFileFilter());
-
-                if (dSYMs != null){
-                    if (dSYMs.isEmpty())
-                        listener.getLogger().println("No dSYM file found in " + buildDirectory.absolutize().child(configuration + "-" + buildPlatform) + "!");
-
-                    for (FilePath dSYM : dSYMs) {
-                        returnCode = launcher.launch()
-                                .envs(envs)
-                                .stdout(listener)
-                                .pwd(buildDirectory)
-                                .cmds("ditto",
-                                        "-c",
-                                        "-k",
-                                        "--keepParent",
-                                        "-rsrc",
-                                        dSYM.absolutize().getRemote(),
-                                        ipaOutputPath.child(baseName + "-dSYM.zip")
-                                                .absolutize()
-                                                .getRemote())
-                                .join();
-
-                        if (returnCode > 0) {
-                            listener.getLogger().println(Messages.XCodeBuilder_zipFailed(baseName));
-                            return false;
-                        }
-                    }
-                }
-
-                if(!StringUtils.isEmpty(ipaManifestPlistUrl)) {
-                    FilePath app = buildDirectory.absolutize().child(configuration + "-" + buildPlatform).child(archive.getBaseName() + ".app");
-                    FilePath ipaManifestLocation = ipaOutputPath.child(baseName + ".plist");
-                    listener.getLogger().println("Creating Manifest Plist => " + ipaManifestLocation.absolutize().getRemote());
-
-                    String displayName = "";
-                    String bundleId = "";
-
-                    output.reset();
-                    returnCode = launcher.launch().envs(envs).cmds("/usr/libexec/PlistBuddy", "-c", "Print :CFBundleIdentifier", app.absolutize().child("Info.plist").getRemote()).stdout(output).pwd(projectRoot).join();
-                    if (returnCode == 0) {
-                        bundleId = output.toString().trim();
-                    }
-                    output.reset();
-                    returnCode = launcher.launch().envs(envs).cmds("/usr/libexec/PlistBuddy", "-c", "Print :CFBundleDisplayName", app.absolutize().child("Info.plist").getRemote()).stdout(output).pwd(projectRoot).join();
-                    if (returnCode == 0) {
-                        displayName = output.toString().trim();
-                    }
-
-                    String manifest = MANIFEST_PLIST_TEMPLATE
-                                        .replace("${IPA_URL_BASE}", ipaManifestPlistUrl)
-                                        .replace("${IPA_NAME}", ipaFileName)
-                                        .replace("${BUNDLE_ID}", bundleId)
-                                        .replace("${BUNDLE_VERSION}", shortVersion)
-                                        .replace("${APP_NAME}", displayName);
-
-                    ipaManifestLocation.write(manifest, "UTF-8");
-                }
-                payload.deleteRecursive();
-            }
         }
 
         return true;
@@ -897,6 +833,49 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
         return result;
     }
 
+    /**
+     * Whether the arguments turn on parallel testing, in which case xcodebuild interleaves the output of the
+     * simulator clones.
+     */
+    static boolean isParallelTestingEnabled(List<String> xcodebuildArguments) {
+        int i = xcodebuildArguments.lastIndexOf("-parallel-testing-enabled");
+        return i >= 0 && i + 1 < xcodebuildArguments.size() && "YES".equalsIgnoreCase(xcodebuildArguments.get(i + 1));
+    }
+
+    /**
+     * Sets versions like agvtool does, and logs each value that changes.
+     *
+     * @return 0 on success, 1 on failure, like agvtool
+     */
+    private static int updateProjectVersions(FilePath projectRoot, String xcodeProjectFile, String marketingVersion,
+            String projectVersion, TaskListener listener) throws IOException, InterruptedException {
+        List<ProjectVersions.Change> changes;
+        try {
+            changes = projectRoot.act(new ProjectVersions.Update(xcodeProjectFile, marketingVersion, projectVersion, false));
+        } catch (IOException e) {
+            listener.getLogger().println(e.getMessage());
+            return 1;
+        }
+        if (changes == null) {
+            return 1;
+        }
+        for (ProjectVersions.Change change : changes) {
+            listener.getLogger().println(Messages.XCodeBuilder_projectVersionChanged(change.getFile(), change.getKey(), change.getOldValue(), change.getNewValue()));
+        }
+        return 0;
+    }
+
+    private static void printList(PrintStream logger, String heading, List<String> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        logger.println(heading);
+        for (String item : items) {
+            logger.println("        " + item);
+        }
+        logger.println();
+    }
+
     public GlobalConfigurationImpl getGlobalConfiguration() {
     	return getDescriptor().getGlobalConfiguration();
     }
@@ -972,5 +951,68 @@ public class XCodeBuilder extends Builder implements SimpleBuildStep {
 	    public String getUUID() {
 	    	return "" + UUID.randomUUID().getMostSignificantBits();
 	    }
+
+        public AutoCompletionCandidates doAutoCompleteTarget(@AncestorInPath Item item, @QueryParameter String value) {
+            XcodeBuildListParser lists = readProjectFiles(item, false);
+            return candidates(lists != null ? lists.getTargets() : null, value);
+        }
+
+        public AutoCompletionCandidates doAutoCompleteConfiguration(@AncestorInPath Item item, @QueryParameter String value) {
+            XcodeBuildListParser lists = readProjectFiles(item, false);
+            return candidates(lists != null ? lists.getConfigurations() : null, value);
+        }
+
+        public AutoCompletionCandidates doAutoCompleteXcodeSchema(@AncestorInPath Item item, @QueryParameter String value) {
+            XcodeBuildListParser lists = readProjectFiles(item, true);
+            return candidates(lists != null ? lists.getSchemes() : null, value);
+        }
+
+        /**
+         * Reads the project files in the last workspace of a job, where the saved configuration of its Xcode
+         * step says they are.
+         */
+        private static XcodeBuildListParser readProjectFiles(Item item, boolean useWorkspaceFile) {
+            if (!(item instanceof AbstractProject) || !item.hasPermission(Item.CONFIGURE)) {
+                return null;
+            }
+            FilePath projectRoot = ((AbstractProject<?, ?>) item).getSomeWorkspace();
+            if (projectRoot == null) {
+                return null;
+            }
+            String xcodeWorkspaceFile = null;
+            String xcodeProjectFile = null;
+            if (item instanceof Project) {
+                XCodeBuilder builder = ((Project<?, ?>) item).getBuildersList().get(XCodeBuilder.class);
+                if (builder != null) {
+                    if (isLiteral(builder.xcodeProjectPath)) {
+                        projectRoot = projectRoot.child(builder.xcodeProjectPath);
+                    }
+                    xcodeWorkspaceFile = useWorkspaceFile && isLiteral(builder.xcodeWorkspaceFile) ? builder.xcodeWorkspaceFile : null;
+                    xcodeProjectFile = isLiteral(builder.xcodeProjectFile) ? builder.xcodeProjectFile : null;
+                }
+            }
+            try {
+                return projectRoot.act(new XcodeProjectParser.Parse(xcodeWorkspaceFile, xcodeProjectFile));
+            } catch (IOException | InterruptedException e) {
+                return null;
+            }
+        }
+
+        private static boolean isLiteral(String value) {
+            return !StringUtils.isEmpty(value) && !value.contains("$");
+        }
+
+        private static AutoCompletionCandidates candidates(List<String> names, String value) {
+            AutoCompletionCandidates c = new AutoCompletionCandidates();
+            if (names != null) {
+                String prefix = StringUtils.defaultString(value).toLowerCase();
+                for (String name : names) {
+                    if (name.toLowerCase().startsWith(prefix)) {
+                        c.add(name);
+                    }
+                }
+            }
+            return c;
+        }
     }
 }
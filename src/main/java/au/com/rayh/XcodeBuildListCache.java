@@ -0,0 +1,297 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Keeps the output of {@code xcodebuild -list} on each node, so that it is only run again when the project
+ * changes. Resolving the Swift packages of a large workspace can make it take longer than the build is willing
+ * to wait.
+ * <p>
+ * Entries live under the root of the node and are keyed by a fingerprint of everything the output depends on:
+ * the command line, the Xcode version and the contents of the project and workspace files, shared and user
+ * schemes and {@code Package.resolved} files found in the {@code .xcodeproj} and {@code .xcworkspace} bundles of
+ * the project directory. Only the {@value #MAX_ENTRIES} most recently used entries of a node are kept.
+ */
+final class XcodeBuildListCache {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    static final int MAX_ENTRIES = 256;
+    /**
+     * How long the temporary file of a write can be left before it is considered abandoned by a build that died.
+     */
+    static final long ABANDONED_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final String ENTRY_SUFFIX = ".txt";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Pattern PROJECT_LOCATION = Pattern.compile("location\\s*=\\s*\"(group|container|absolute):([^\"]+\\.xcodeproj)\"");
+
+    private final FilePath entry;
+
+    private XcodeBuildListCache(FilePath entry) {
+        this.entry = entry;
+    }
+
+    /**
+     * The cache entry for a {@code -list} run, or null if the node of the workspace cannot be found.
+     *
+     * @param projectRoot the directory xcodebuild runs in
+     * @param commandLine the {@code -list} command line
+     * @param xcodeVersion the output of {@code xcodebuild -version}
+     */
+    static XcodeBuildListCache of(FilePath projectRoot, List<String> commandLine, String xcodeVersion)
+            throws IOException, InterruptedException {
+        Computer computer = projectRoot.toComputer();
+        Node node = computer != null ? computer.getNode() : null;
+        FilePath nodeRoot = node != null ? node.getRootPath() : null;
+        if (nodeRoot == null) {
+            return null;
+        }
+        String key = projectRoot.act(new Fingerprint(commandLine, xcodeVersion));
+        return new XcodeBuildListCache(nodeRoot.child("xcode-plugin").child("xcodebuild-list").child(key + ENTRY_SUFFIX));
+    }
+
+    /**
+     * The cached output, or null on a miss.
+     */
+    String get() throws IOException, InterruptedException {
+        return entry.act(new Get());
+    }
+
+    /**
+     * Stores the output, then evicts the least recently used entries of the node.
+     */
+    void put(String xcodeBuildListOutput) throws IOException, InterruptedException {
+        entry.act(new Put(xcodeBuildListOutput));
+    }
+
+    String getName() {
+        return entry.getName();
+    }
+
+    /**
+     * Reads an entry and marks it as used.
+     */
+    static final class Get extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        public String invoke(File entry, VirtualChannel channel) throws IOException {
+            if (!entry.isFile()) {
+                return null;
+            }
+            String output = FileUtils.readFileToString(entry, "UTF-8");
+            // the modification time orders the entries for eviction
+            entry.setLastModified(System.currentTimeMillis());
+            return output;
+        }
+    }
+
+    /**
+     * Writes an entry and evicts the least recently used ones, along with the temporary files of writes that were
+     * abandoned.
+     */
+    static final class Put extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String output;
+
+        Put(String output) {
+            this.output = output;
+        }
+
+        public Void invoke(File entry, VirtualChannel channel) throws IOException {
+            File dir = entry.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            // each writer has its own temporary file, and the move means a concurrent build never reads half an entry
+            File temp = File.createTempFile(entry.getName(), TEMP_SUFFIX, dir);
+            try {
+                FileUtils.writeStringToFile(temp, output, "UTF-8");
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                // only left behind when the write or the move failed
+                temp.delete();
+            }
+            evict(dir, MAX_ENTRIES, System.currentTimeMillis());
+            return null;
+        }
+    }
+
+    /**
+     * Deletes all but the {@code maxEntries} most recently used entries of a cache directory, and the temporary
+     * files older than {@link #ABANDONED_MILLIS}.
+     */
+    static void evict(File dir, int maxEntries, long now) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                entries.add(file);
+            } else if (file.getName().endsWith(TEMP_SUFFIX) && now - file.lastModified() > ABANDONED_MILLIS) {
+                file.delete();
+            }
+        }
+        if (entries.size() <= maxEntries) {
+            return;
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long x = b.lastModified();
+                long y = a.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (File stale : entries.subList(maxEntries, entries.size())) {
+            stale.delete();
+        }
+    }
+
+    /**
+     * Computes the SHA-256 fingerprint of a {@code -list} run on the node that holds the project.
+     */
+    static final class Fingerprint extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> commandLine;
+        private final String xcodeVersion;
+
+        Fingerprint(List<String> commandLine, String xcodeVersion) {
+            this.commandLine = new ArrayList<>(commandLine);
+            this.xcodeVersion = xcodeVersion;
+        }
+
+        public String invoke(File projectRoot, VirtualChannel channel) throws IOException {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            for (String argument : commandLine) {
+                update(digest, argument);
+            }
+            update(digest, xcodeVersion);
+
+            Set<String> digested = new HashSet<>();
+            File[] bundles = projectRoot.listFiles();
+            if (bundles != null) {
+                Arrays.sort(bundles);
+                for (File bundle : bundles) {
+                    String name = bundle.getName();
+                    if (bundle.isDirectory() && (name.endsWith(".xcodeproj") || name.endsWith(".xcworkspace"))) {
+                        digestBundle(digest, bundle, name, digested);
+                    }
+                }
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+
+        private static void digestBundle(MessageDigest digest, File bundle, String path, Set<String> digested)
+                throws IOException {
+            if (!digested.add(bundle.getCanonicalPath())) {
+                return;
+            }
+            digestFiles(digest, bundle, path);
+            if (path.endsWith(".xcworkspace")) {
+                // the projects of a workspace usually live in subdirectories
+                File contents = new File(bundle, "contents.xcworkspacedata");
+                if (contents.isFile()) {
+                    Matcher m = PROJECT_LOCATION.matcher(FileUtils.readFileToString(contents, "UTF-8"));
+                    while (m.find()) {
+                        File project = m.group(1).equals("absolute") ? new File(m.group(2))
+                                : new File(bundle.getParentFile(), m.group(2));
+                        if (project.isDirectory()) {
+                            digestBundle(digest, project, m.group(2), digested);
+                        }
+                    }
+                }
+            }
+        }
+
+        private static void digestFiles(MessageDigest digest, File dir, String path) throws IOException {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                String relativePath = path + "/" + name;
+                if (file.isDirectory()) {
+                    digestFiles(digest, file, relativePath);
+                } else if (name.equals("project.pbxproj") || name.equals("contents.xcworkspacedata")
+                        || name.endsWith(".xcscheme") || name.equals("Package.resolved")) {
+                    update(digest, relativePath + " " + file.length());
+                    try (InputStream in = new FileInputStream(file)) {
+                        byte[] buffer = new byte[8192];
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            digest.update(buffer, 0, n);
+                        }
+                    }
+                }
+            }
+        }
+
+        private static void update(MessageDigest digest, String value) {
+            digest.update(String.valueOf(value).getBytes(UTF8));
+            digest.update((byte) 0);
+        }
+    }
+}
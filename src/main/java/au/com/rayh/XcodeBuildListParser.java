@@ -1,5 +1,6 @@
 package au.com.rayh;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.commons.lang.StringUtils;
@@ -8,7 +9,8 @@ import org.apache.commons.lang.StringUtils;
 /**
  * Created by ud10404 on 5/9/14.
  */
-public class XcodeBuildListParser {
+public class XcodeBuildListParser implements Serializable {
+    private static final long serialVersionUID = 1L;
 
     private List<String> targets = new ArrayList<>();
     private List<String> configurations = new ArrayList<>();
@@ -38,6 +40,12 @@ public class XcodeBuildListParser {
         }
     }
 
+    XcodeBuildListParser(List<String> targets, List<String> configurations, List<String> schemes) {
+        this.targets.addAll(targets);
+        this.configurations.addAll(configurations);
+        this.schemes.addAll(schemes);
+    }
+
     public List<String> getTargets() {
         return this.targets;
     }
@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import au.com.rayh.plist.OpenStepPlistParser;
+import au.com.rayh.plist.PlistException;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads the targets, build configurations and schemes that {@code xcodebuild -list} would print straight from
+ * the project files, without starting xcodebuild.
+ * <p>
+ * Targets come from the {@code PBXProject} object of {@code project.pbxproj} in the order the project lists
+ * them, build configurations from its configuration list. Schemes are the {@code .xcscheme} files shared in
+ * {@code xcshareddata} or kept in {@code xcuserdata} by the user running xcodebuild, named after the file as
+ * xcodebuild names them.
+ * A workspace has the schemes of its own bundle and of every project referenced by
+ * {@code contents.xcworkspacedata}.
+ * <p>
+ * Whenever xcodebuild would generate schemes on the fly, for projects without any scheme files or with Swift
+ * package dependencies, the answer cannot be reproduced here and null is returned instead.
+ */
+public final class XcodeProjectParser {
+    private static final String PROJECT_FILE = "project.pbxproj";
+    private static final String WORKSPACE_FILE = "contents.xcworkspacedata";
+
+    private XcodeProjectParser() {
+    }
+
+    /**
+     * Reads a {@code .xcodeproj} bundle.
+     *
+     * @return the lists, or null if only xcodebuild can tell
+     */
+    public static XcodeBuildListParser parseProject(File xcodeproj) throws IOException {
+        Map<?, ?> project = readProject(xcodeproj);
+        if (project == null) {
+            return null;
+        }
+        Map<?, ?> objects = asMap(project.get("objects"));
+        Map<?, ?> root = asMap(objects.get(project.get("rootObject")));
+        if (!asList(root.get("packageReferences")).isEmpty()) {
+            return null;
+        }
+
+        List<String> targets = new ArrayList<>();
+        for (Object id : asList(root.get("targets"))) {
+            addName(targets, objects.get(id));
+        }
+        List<String> configurations = new ArrayList<>();
+        Map<?, ?> configurationList = asMap(objects.get(root.get("buildConfigurationList")));
+        for (Object id : asList(configurationList.get("buildConfigurations"))) {
+            addName(configurations, objects.get(id));
+        }
+
+        Set<String> schemes = newSchemeSet();
+        addSchemes(schemes, xcodeproj);
+        if (schemes.isEmpty()) {
+            return null;
+        }
+        return new XcodeBuildListParser(targets, configurations, new ArrayList<>(schemes));
+    }
+
+    /**
+     * Reads a {@code .xcworkspace} bundle. Like xcodebuild, only the schemes are listed for a workspace.
+     *
+     * @return the lists, or null if only xcodebuild can tell
+     */
+    public static XcodeBuildListParser parseWorkspace(File xcworkspace) throws IOException {
+        File contents = new File(xcworkspace, WORKSPACE_FILE);
+        if (!contents.isFile() || new File(xcworkspace, "xcshareddata/swiftpm/Package.resolved").exists()) {
+            return null;
+        }
+        Set<String> schemes = newSchemeSet();
+        addSchemes(schemes, xcworkspace);
+        for (File xcodeproj : workspaceProjects(xcworkspace)) {
+            Map<?, ?> project = readProject(xcodeproj);
+            if (project == null) {
+                continue;
+            }
+            Map<?, ?> root = asMap(asMap(project.get("objects")).get(project.get("rootObject")));
+            if (!asList(root.get("packageReferences")).isEmpty()) {
+                return null;
+            }
+            addSchemes(schemes, xcodeproj);
+        }
+        if (schemes.isEmpty()) {
+            return null;
+        }
+        return new XcodeBuildListParser(Collections.<String>emptyList(), Collections.<String>emptyList(),
+                new ArrayList<>(schemes));
+    }
+
+    /**
+     * Reads the project or workspace that {@code xcodebuild -list} would pick in a directory.
+     *
+     * @param xcodeWorkspaceFile the workspace name without its extension, or empty
+     * @param xcodeProjectFile the project file, or empty to use the only project of the directory
+     * @return the lists, or null if only xcodebuild can tell
+     */
+    public static XcodeBuildListParser parse(File projectRoot, String xcodeWorkspaceFile, String xcodeProjectFile)
+            throws IOException {
+        if (!StringUtils.isEmpty(xcodeWorkspaceFile)) {
+            return parseWorkspace(new File(projectRoot, xcodeWorkspaceFile + ".xcworkspace"));
+        }
+        File xcodeproj = findProject(projectRoot, xcodeProjectFile);
+        return xcodeproj != null ? parseProject(xcodeproj) : null;
+    }
+
+    /**
+     * The {@code .xcodeproj} bundle a tool run in a directory works on: the given one, or else the only one there.
+     *
+     * @param xcodeProjectFile the project file with or without its extension, or empty
+     * @return the bundle, or null if the directory has several projects or none
+     */
+    static File findProject(File projectRoot, String xcodeProjectFile) {
+        if (!StringUtils.isEmpty(xcodeProjectFile)) {
+            File xcodeproj = new File(projectRoot, xcodeProjectFile);
+            if (!xcodeproj.isDirectory() && !xcodeProjectFile.endsWith(".xcodeproj")) {
+                xcodeproj = new File(projectRoot, xcodeProjectFile + ".xcodeproj");
+            }
+            return xcodeproj;
+        }
+        File[] projects = projectRoot.listFiles();
+        File found = null;
+        if (projects != null) {
+            for (File project : projects) {
+                if (project.getName().endsWith(".xcodeproj") && project.isDirectory()) {
+                    if (found != null) {
+                        // xcodebuild and agvtool refuse to guess between several projects
+                        return null;
+                    }
+                    found = project;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Runs {@link #parse(File, String, String)} on the node that holds the project.
+     */
+    static final class Parse extends MasterToSlaveFileCallable<XcodeBuildListParser> {
+        private static final long serialVersionUID = 1L;
+
+        private final String xcodeWorkspaceFile;
+        private final String xcodeProjectFile;
+
+        Parse(String xcodeWorkspaceFile, String xcodeProjectFile) {
+            this.xcodeWorkspaceFile = xcodeWorkspaceFile;
+            this.xcodeProjectFile = xcodeProjectFile;
+        }
+
+        public XcodeBuildListParser invoke(File projectRoot, VirtualChannel channel) throws IOException {
+            return parse(projectRoot, xcodeWorkspaceFile, xcodeProjectFile);
+        }
+    }
+
+    /**
+     * The projects referenced by a workspace, resolving locations relative to their enclosing groups.
+     */
+    static List<File> workspaceProjects(final File xcworkspace) throws IOException {
+        final List<File> projects = new ArrayList<>();
+        final Deque<File> groups = new ArrayDeque<>();
+        groups.push(xcworkspace.getAbsoluteFile().getParentFile());
+        DefaultHandler handler = new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                File location = resolve(attributes.getValue("location"));
+                if ("Group".equals(qName)) {
+                    groups.push(location != null ? location : groups.peek());
+                } else if ("FileRef".equals(qName) && location != null && location.getName().endsWith(".xcodeproj")) {
+                    projects.add(location);
+                }
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) {
+                if ("Group".equals(qName)) {
+                    groups.pop();
+                }
+            }
+
+            private File resolve(String location) {
+                if (location == null) {
+                    return null;
+                }
+                int colon = location.indexOf(':');
+                String kind = colon < 0 ? "" : location.substring(0, colon);
+                String path = location.substring(colon + 1);
+                switch (kind) {
+                    case "absolute":
+                        return new File(path);
+                    case "container":
+                        return path.isEmpty() ? xcworkspace.getAbsoluteFile().getParentFile()
+                                : new File(xcworkspace.getAbsoluteFile().getParentFile(), path);
+                    case "group":
+                        return path.isEmpty() ? groups.peek() : new File(groups.peek(), path);
+                    case "self":
+                        // the workspace embedded in a project refers to that project
+                        return xcworkspace.getAbsoluteFile().getParentFile();
+                    default:
+                        return null;
+                }
+            }
+        };
+        parseXml(new File(xcworkspace, WORKSPACE_FILE), handler);
+        return projects;
+    }
+
+    private static Map<?, ?> readProject(File xcodeproj) throws IOException {
+        File pbxproj = new File(xcodeproj, PROJECT_FILE);
+        if (!pbxproj.isFile()) {
+            return null;
+        }
+        Object project = OpenStepPlistParser.parse(FileUtils.readFileToString(pbxproj, "UTF-8"));
+        if (!(project instanceof Map)) {
+            throw new PlistException(pbxproj + " is not a project file");
+        }
+        return (Map<?, ?>) project;
+    }
+
+    private static Set<String> newSchemeSet() {
+        return new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    private static void addSchemes(Set<String> schemes, File bundle) throws IOException {
+        addSchemeFiles(schemes, new File(bundle, "xcshareddata/xcschemes"));
+        // xcodebuild ignores the schemes of other users, like the ones committed along with the project
+        String user = System.getProperty("user.name");
+        addSchemeFiles(schemes, new File(bundle, "xcuserdata/" + user + ".xcuserdatad/xcschemes"));
+    }
+
+    private static void addSchemeFiles(Set<String> schemes, File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".xcscheme") && file.isFile() && isScheme(file)) {
+                schemes.add(name.substring(0, name.length() - ".xcscheme".length()));
+            }
+        }
+    }
+
+    /**
+     * Whether a file is an XML document with a {@code Scheme} root, as xcodebuild skips anything else.
+     */
+    private static boolean isScheme(File file) throws IOException {
+        final boolean[] scheme = new boolean[1];
+        try {
+            parseXml(file, new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes)
+                        throws SAXException {
+                    scheme[0] = "Scheme".equals(qName);
+                    // the root element is all that matters
+                    throw new StopParsing();
+                }
+            });
+        } catch (PlistException e) {
+            return false;
+        }
+        return scheme[0];
+    }
+
+    private static void parseXml(File file, DefaultHandler handler) throws IOException {
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            SAXParser parser = factory.newSAXParser();
+            parser.parse(file, handler);
+        } catch (StopParsing e) {
+            // done
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new PlistException("Cannot read " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void addName(List<String> names, Object object) {
+        Object name = asMap(object).get("name");
+        if (name instanceof String) {
+            names.add((String) name);
+        }
+    }
+
+    private static Map<?, ?> asMap(Object value) {
+        return value instanceof Map ? (Map<?, ?>) value : Collections.emptyMap();
+    }
+
+    private static List<?> asList(Object value) {
+        return value instanceof List ? (List<?>) value : Collections.emptyList();
+    }
+
+    private static final class StopParsing extends SAXException {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs xcodebuild on the agent that holds the workspace and parses its output there, writing the test reports
+ * straight into the workspace. Only the log lines and a {@link Result} travel back to the controller, instead of
+ * the whole output being parsed on the controller.
+ */
+final class XcodebuildOnAgent extends MasterToSlaveFileCallable<XcodebuildOnAgent.Result> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> commandLine;
+    private final EnvVars envs;
+    private final boolean parallelTesting;
+    private final TaskListener listener;
+
+    XcodebuildOnAgent(List<String> commandLine, EnvVars envs, boolean parallelTesting, TaskListener listener) {
+        this.commandLine = new ArrayList<>(commandLine);
+        this.envs = envs;
+        this.parallelTesting = parallelTesting;
+        this.listener = listener;
+    }
+
+    public Result invoke(File projectRoot, VirtualChannel channel) throws IOException, InterruptedException {
+        File testReportsDir = new File(projectRoot, "test-reports");
+        if (!testReportsDir.isDirectory() && !testReportsDir.mkdirs()) {
+            throw new IOException("Failed to create " + testReportsDir);
+        }
+
+        XCodeBuildOutputParser parser = new XCodeBuildOutputParser(testReportsDir, listener.getLogger());
+        parser.setParallelTesting(parallelTesting);
+        int returnCode = new Launcher.LocalLauncher(listener).launch().envs(envs).cmds(commandLine)
+                .stdout(parser.getOutputStream()).pwd(projectRoot).join();
+        parser.getOutputStream().flush();
+        parser.awaitReports();
+        return new Result(returnCode, parser);
+    }
+
+    /**
+     * What the controller needs to know about an xcodebuild run once it is over.
+     */
+    static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int returnCode;
+        final int exitCode;
+        final int suites;
+        final int tests;
+        final int failures;
+        final int errors;
+
+        Result(int returnCode, XCodeBuildOutputParser parser) {
+            this.returnCode = returnCode;
+            this.exitCode = parser.getExitCode();
+            this.suites = parser.getReportedSuites();
+            this.tests = parser.getReportedTests();
+            this.failures = parser.getReportedFailures();
+            this.errors = parser.getReportedErrors();
+        }
+    }
+}
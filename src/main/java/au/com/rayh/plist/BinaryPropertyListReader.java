@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.plist;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads binary ({@code bplist00}) property lists.
+ */
+final class BinaryPropertyListReader {
+    /** Seconds from the Unix epoch to 2001-01-01, the epoch of binary dates. */
+    static final long EPOCH_2001 = 978307200L;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF16 = Charset.forName("UTF-16BE");
+    private static final int TRAILER_SIZE = 32;
+
+    private final byte[] data;
+    private int offsetSize;
+    private int refSize;
+    private int objectCount;
+    private long[] offsets;
+    /** Objects that are being read, to catch references that loop. */
+    private boolean[] reading;
+
+    BinaryPropertyListReader(byte[] data) {
+        this.data = data;
+    }
+
+    Object read() throws PlistException {
+        if (data.length < 8 + TRAILER_SIZE) {
+            throw new PlistException("Truncated binary property list");
+        }
+        int trailer = data.length - TRAILER_SIZE;
+        offsetSize = data[trailer + 6] & 0xff;
+        refSize = data[trailer + 7] & 0xff;
+        long count = number(trailer + 8, 8);
+        long top = number(trailer + 16, 8);
+        long tableOffset = number(trailer + 24, 8);
+        if (offsetSize < 1 || offsetSize > 8 || refSize < 1 || refSize > 8 || count < 1 || count > data.length
+                || top < 0 || top >= count || tableOffset < 8 || tableOffset + count * offsetSize > trailer) {
+            throw new PlistException("Malformed binary property list trailer");
+        }
+        objectCount = (int) count;
+        offsets = new long[objectCount];
+        for (int i = 0; i < objectCount; i++) {
+            offsets[i] = number((int) tableOffset + i * offsetSize, offsetSize);
+            if (offsets[i] < 8 || offsets[i] >= tableOffset) {
+                throw new PlistException("Malformed binary property list offset table");
+            }
+        }
+        reading = new boolean[objectCount];
+        return object((int) top);
+    }
+
+    private Object object(int ref) throws PlistException {
+        if (ref < 0 || ref >= objectCount) {
+            throw new PlistException("Object reference " + ref + " out of range");
+        }
+        if (reading[ref]) {
+            throw new PlistException("Object " + ref + " refers to itself");
+        }
+        reading[ref] = true;
+        try {
+            return readObject((int) offsets[ref]);
+        } finally {
+            reading[ref] = false;
+        }
+    }
+
+    private Object readObject(int offset) throws PlistException {
+        int marker = data[offset] & 0xff;
+        int type = marker >> 4;
+        int info = marker & 0x0f;
+        switch (type) {
+            case 0x0:
+                if (info == 0x8) {
+                    return Boolean.FALSE;
+                } else if (info == 0x9) {
+                    return Boolean.TRUE;
+                }
+                throw new PlistException("Unsupported object marker 0x" + Integer.toHexString(marker));
+            case 0x1: {
+                if (info > 4) {
+                    throw new PlistException("Unsupported integer marker 0x" + Integer.toHexString(marker));
+                }
+                int size = 1 << info;
+                check(offset + 1, size);
+                if (size == 16) {
+                    // 128-bit integers only ever hold values that fit in their low 64 bits
+                    return number(offset + 9, 8);
+                }
+                // shorter integers are unsigned, 8-byte ones signed
+                return number(offset + 1, size);
+            }
+            case 0x2: {
+                int size = info < 4 ? 1 << info : 0;
+                check(offset + 1, size);
+                if (size == 4) {
+                    return (double) Float.intBitsToFloat((int) number(offset + 1, 4));
+                } else if (size == 8) {
+                    return Double.longBitsToDouble(number(offset + 1, 8));
+                }
+                throw new PlistException("Unsupported real of " + size + " bytes");
+            }
+            case 0x3: {
+                check(offset + 1, 8);
+                double seconds = Double.longBitsToDouble(number(offset + 1, 8));
+                return new Date(Math.round((seconds + EPOCH_2001) * 1000));
+            }
+            case 0x4: {
+                int[] length = length(offset, info);
+                check(length[1], length[0]);
+                return Arrays.copyOfRange(data, length[1], length[1] + length[0]);
+            }
+            case 0x5: {
+                int[] length = length(offset, info);
+                check(length[1], length[0]);
+                return new String(data, length[1], length[0], ASCII);
+            }
+            case 0x6: {
+                int[] length = length(offset, info);
+                check(length[1], length[0] * 2);
+                return new String(data, length[1], length[0] * 2, UTF16);
+            }
+            case 0xA: {
+                int[] length = length(offset, info);
+                check(length[1], length[0] * refSize);
+                List<Object> array = new ArrayList<>(length[0]);
+                for (int i = 0; i < length[0]; i++) {
+                    array.add(object(ref(length[1] + i * refSize)));
+                }
+                return array;
+            }
+            case 0xD: {
+                int[] length = length(offset, info);
+                check(length[1], length[0] * refSize * 2);
+                Map<String, Object> dictionary = PropertyList.newDictionary();
+                int values = length[1] + length[0] * refSize;
+                for (int i = 0; i < length[0]; i++) {
+                    Object key = object(ref(length[1] + i * refSize));
+                    if (!(key instanceof String)) {
+                        throw new PlistException("Dictionary key is not a string");
+                    }
+                    dictionary.put((String) key, object(ref(values + i * refSize)));
+                }
+                return dictionary;
+            }
+            default:
+                throw new PlistException("Unsupported object marker 0x" + Integer.toHexString(marker));
+        }
+    }
+
+    /**
+     * The length of a variable sized object and the offset of its contents.
+     */
+    private int[] length(int offset, int info) throws PlistException {
+        if (info != 0xf) {
+            return new int[] {info, offset + 1};
+        }
+        check(offset + 1, 1);
+        int marker = data[offset + 1] & 0xff;
+        if (marker >> 4 != 0x1) {
+            throw new PlistException("Malformed object length");
+        }
+        int size = 1 << (marker & 0xf);
+        check(offset + 2, size);
+        long length = number(offset + 2, size);
+        if (length < 0 || length > data.length) {
+            throw new PlistException("Object length " + length + " out of range");
+        }
+        return new int[] {(int) length, offset + 2 + size};
+    }
+
+    private int ref(int offset) {
+        return (int) number(offset, refSize);
+    }
+
+    private void check(int offset, long size) throws PlistException {
+        if (offset < 0 || size < 0 || offset + size > data.length - TRAILER_SIZE) {
+            throw new PlistException("Object overruns the binary property list");
+        }
+    }
+
+    private long number(int offset, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = value << 8 | (data[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.plist;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes binary ({@code bplist00}) property lists. Equal strings are written once, like CoreFoundation does.
+ */
+final class BinaryPropertyListWriter {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF16 = Charset.forName("UTF-16BE");
+
+    /** Objects in the order they are written, the root first. */
+    private final List<Object> objects = new ArrayList<>();
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int refSize;
+
+    byte[] write(Object root) throws PlistException {
+        collect(root);
+        int count = objects.size();
+        refSize = sizeOf(count - 1);
+
+        write("bplist00".getBytes(ASCII));
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = out.size();
+            writeObject(objects.get(i));
+        }
+
+        long tableOffset = out.size();
+        int offsetSize = sizeOf(tableOffset);
+        for (long offset : offsets) {
+            number(offset, offsetSize);
+        }
+        for (int i = 0; i < 6; i++) {
+            out.write(0);
+        }
+        out.write(offsetSize);
+        out.write(refSize);
+        number(count, 8);
+        number(0, 8);
+        number(tableOffset, 8);
+        return out.toByteArray();
+    }
+
+    private int collect(Object value) throws PlistException {
+        if (value instanceof String) {
+            Integer ref = strings.get(value);
+            if (ref != null) {
+                return ref;
+            }
+            strings.put((String) value, objects.size());
+        }
+        int ref = objects.size();
+        if (value instanceof Map) {
+            Map<?, ?> dictionary = (Map<?, ?>) value;
+            int[] children = new int[dictionary.size() * 2];
+            objects.add(new Container(children));
+            int i = 0;
+            for (Object key : dictionary.keySet()) {
+                children[i++] = collect(String.valueOf(key));
+            }
+            for (Object element : dictionary.values()) {
+                children[i++] = collect(element);
+            }
+        } else if (value instanceof List) {
+            List<?> array = (List<?>) value;
+            int[] children = new int[array.size()];
+            objects.add(new Container(children, true));
+            int i = 0;
+            for (Object element : array) {
+                children[i++] = collect(element);
+            }
+        } else if (value instanceof String || value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte || value instanceof Double
+                || value instanceof Float || value instanceof Boolean || value instanceof Date
+                || value instanceof byte[]) {
+            objects.add(value);
+        } else {
+            throw new PlistException("Cannot write " + (value == null ? "null" : value.getClass().getName()) + " to a property list");
+        }
+        return ref;
+    }
+
+    private void writeObject(Object value) {
+        if (value instanceof Container) {
+            Container container = (Container) value;
+            int length = container.array ? container.children.length : container.children.length / 2;
+            marker(container.array ? 0xA : 0xD, length);
+            for (int child : container.children) {
+                number(child, refSize);
+            }
+        } else if (value instanceof String) {
+            String string = (String) value;
+            if (isAscii(string)) {
+                marker(0x5, string.length());
+                write(string.getBytes(ASCII));
+            } else {
+                marker(0x6, string.length());
+                write(string.getBytes(UTF16));
+            }
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? 0x09 : 0x08);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.write(0x23);
+            number(Double.doubleToLongBits(((Number) value).doubleValue()), 8);
+        } else if (value instanceof Number) {
+            integer(((Number) value).longValue());
+        } else if (value instanceof Date) {
+            out.write(0x33);
+            double seconds = ((Date) value).getTime() / 1000.0 - BinaryPropertyListReader.EPOCH_2001;
+            number(Double.doubleToLongBits(seconds), 8);
+        } else {
+            byte[] data = (byte[]) value;
+            marker(0x4, data.length);
+            write(data);
+        }
+    }
+
+    private void marker(int type, int length) {
+        if (length < 0xf) {
+            out.write(type << 4 | length);
+        } else {
+            out.write(type << 4 | 0xf);
+            integer(length);
+        }
+    }
+
+    private void integer(long value) {
+        if (value < 0) {
+            out.write(0x13);
+            number(value, 8);
+        } else {
+            int size = sizeOf(value);
+            out.write(0x10 | Integer.numberOfTrailingZeros(size));
+            number(value, size);
+        }
+    }
+
+    /**
+     * The number of bytes, 1, 2, 4 or 8, that an unsigned value takes.
+     */
+    private static int sizeOf(long value) {
+        if (value < 0x100) {
+            return 1;
+        } else if (value < 0x10000) {
+            return 2;
+        } else if (value < 0x100000000L) {
+            return 4;
+        }
+        return 8;
+    }
+
+    private void number(long value, int size) {
+        for (int i = size - 1; i >= 0; i--) {
+            out.write((int) (value >>> (i * 8)));
+        }
+    }
+
+    private void write(byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static boolean isAscii(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A dictionary or array, with the refs of its keys and values or of its elements.
+     */
+    private static final class Container {
+        final int[] children;
+        final boolean array;
+
+        Container(int[] children) {
+            this(children, false);
+        }
+
+        Container(int[] children, boolean array) {
+            this.children = children;
+            this.array = array;
+        }
+    }
+}
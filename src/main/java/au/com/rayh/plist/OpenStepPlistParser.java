@@ -0,0 +1,324 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.plist;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads property lists in the old OpenStep (ASCII) format, which is what {@code project.pbxproj} files use.
+ * <p>
+ * Dictionaries are returned as {@link Map}s that keep the order of their keys, arrays as {@link List}s, data as
+ * {@code byte[]} and everything else as {@link String}s, since the format does not type them any further.
+ * The parser makes one pass over the text, so that multi-megabyte project files take milliseconds.
+ */
+public final class OpenStepPlistParser {
+    private final String text;
+    private final int length;
+    private int pos;
+
+    private OpenStepPlistParser(String text) {
+        this.text = text;
+        this.length = text.length();
+    }
+
+    /**
+     * Parses a property list with a single root value.
+     */
+    public static Object parse(String text) throws PlistException {
+        OpenStepPlistParser parser = new OpenStepPlistParser(text);
+        Object root = parser.parseValue();
+        parser.skipWhitespace();
+        if (parser.pos < parser.length) {
+            throw parser.error("Unexpected text after the root object");
+        }
+        return root;
+    }
+
+    /**
+     * Writes a string the way Xcode does in project files: as it is when that is unambiguous, else quoted.
+     */
+    public static String quote(String value) {
+        boolean plain = !value.isEmpty();
+        for (int i = 0; i < value.length() && plain; i++) {
+            plain = isUnquotedChar(value.charAt(i));
+        }
+        if (plain) {
+            return value;
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    quoted.append('\\').append(c);
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private Object parseValue() throws PlistException {
+        skipWhitespace();
+        if (pos >= length) {
+            throw error("Unexpected end of text");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                return parseDictionary();
+            case '(':
+                return parseArray();
+            case '<':
+                return parseData();
+            case '"':
+            case '\'':
+                return parseQuotedString(c);
+            default:
+                return parseUnquotedString();
+        }
+    }
+
+    private Map<String, Object> parseDictionary() throws PlistException {
+        pos++;
+        Map<String, Object> dictionary = new LinkedHashMap<>();
+        while (true) {
+            skipWhitespace();
+            if (pos >= length) {
+                throw error("Unterminated dictionary");
+            }
+            if (text.charAt(pos) == '}') {
+                pos++;
+                return dictionary;
+            }
+            String key = parseString();
+            expect('=');
+            Object value = parseValue();
+            dictionary.put(key, value);
+            skipWhitespace();
+            if (pos < length && text.charAt(pos) == ';') {
+                pos++;
+            } else if (pos >= length || text.charAt(pos) != '}') {
+                throw error("Expected ';' or '}'");
+            }
+        }
+    }
+
+    private List<Object> parseArray() throws PlistException {
+        pos++;
+        List<Object> array = new ArrayList<>();
+        while (true) {
+            skipWhitespace();
+            if (pos >= length) {
+                throw error("Unterminated array");
+            }
+            if (text.charAt(pos) == ')') {
+                pos++;
+                return array;
+            }
+            array.add(parseValue());
+            skipWhitespace();
+            if (pos < length && text.charAt(pos) == ',') {
+                pos++;
+            } else if (pos >= length || text.charAt(pos) != ')') {
+                throw error("Expected ',' or ')'");
+            }
+        }
+    }
+
+    private byte[] parseData() throws PlistException {
+        pos++;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int high = -1;
+        while (pos < length) {
+            char c = text.charAt(pos++);
+            if (c == '>') {
+                if (high >= 0) {
+                    throw error("Odd number of hex digits in data");
+                }
+                return data.toByteArray();
+            }
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                throw error("Invalid character in data");
+            }
+            if (high < 0) {
+                high = digit;
+            } else {
+                data.write(high << 4 | digit);
+                high = -1;
+            }
+        }
+        throw error("Unterminated data");
+    }
+
+    private String parseString() throws PlistException {
+        skipWhitespace();
+        if (pos < length && (text.charAt(pos) == '"' || text.charAt(pos) == '\'')) {
+            return parseQuotedString(text.charAt(pos));
+        }
+        return parseUnquotedString();
+    }
+
+    private String parseUnquotedString() throws PlistException {
+        int start = pos;
+        while (pos < length && isUnquotedChar(text.charAt(pos))) {
+            pos++;
+        }
+        if (pos == start) {
+            throw error("Unexpected character '" + (pos < length ? text.charAt(pos) : ' ') + "'");
+        }
+        return text.substring(start, pos);
+    }
+
+    private static boolean isUnquotedChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '$' || c == '+' || c == '/' || c == ':' || c == '.' || c == '-';
+    }
+
+    private String parseQuotedString(char quote) throws PlistException {
+        int start = ++pos;
+        // most strings have no escapes, so they can be cut out of the text as they are
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (c == quote) {
+                return text.substring(start, pos++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            pos++;
+        }
+        StringBuilder value = new StringBuilder(text.substring(start, pos));
+        while (pos < length) {
+            char c = text.charAt(pos++);
+            if (c == quote) {
+                return value.toString();
+            }
+            if (c == '\\') {
+                value.append(parseEscape());
+            } else {
+                value.append(c);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private char parseEscape() throws PlistException {
+        if (pos >= length) {
+            throw error("Unterminated string");
+        }
+        char c = text.charAt(pos++);
+        switch (c) {
+            case 'a': return '\u0007';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'v': return '\u000b';
+            case 'U':
+            case 'u':
+                return (char) parseNumber(16, 4);
+            default:
+                if (c >= '0' && c <= '7') {
+                    pos--;
+                    return (char) parseNumber(8, 3);
+                }
+                return c;
+        }
+    }
+
+    private int parseNumber(int radix, int maxDigits) throws PlistException {
+        int value = 0;
+        int digits = 0;
+        while (digits < maxDigits && pos < length) {
+            int digit = Character.digit(text.charAt(pos), radix);
+            if (digit < 0) {
+                break;
+            }
+            value = value * radix + digit;
+            pos++;
+            digits++;
+        }
+        if (digits == 0) {
+            throw error("Invalid escape sequence");
+        }
+        return value;
+    }
+
+    private void expect(char c) throws PlistException {
+        skipWhitespace();
+        if (pos >= length || text.charAt(pos) != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private void skipWhitespace() throws PlistException {
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (c == '/' && pos + 1 < length && text.charAt(pos + 1) == '/') {
+                int end = text.indexOf('\n', pos);
+                pos = end < 0 ? length : end + 1;
+            } else if (c == '/' && pos + 1 < length && text.charAt(pos + 1) == '*') {
+                int end = text.indexOf("*/", pos + 2);
+                if (end < 0) {
+                    throw error("Unterminated comment");
+                }
+                pos = end + 2;
+            } else if (Character.isWhitespace(c) || c == '\uFEFF') {
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private PlistException error(String message) {
+        int line = 1;
+        for (int i = 0; i < pos && i < length; i++) {
+            if (text.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return new PlistException(message + " at line " + line);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.plist;
+
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes property lists in the XML and binary ({@code bplist00}) formats, and reads the old OpenStep
+ * format, so that {@code Info.plist} files can be handled without {@code PlistBuddy}.
+ * <p>
+ * Values are represented by {@link Map} (with the order of keys kept), {@link List}, {@link String},
+ * {@link Long}, {@link Double}, {@link Boolean}, {@link Date} and {@code byte[]}.
+ * <p>
+ * Values are addressed with the key paths of PlistBuddy: {@code :ApplicationProperties:CFBundleVersion} names
+ * a key of a nested dictionary and a number names an element of an array.
+ */
+public final class PropertyList {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] BINARY_MAGIC = "bplist00".getBytes(UTF8);
+
+    public enum Format {
+        XML, BINARY, OPENSTEP
+    }
+
+    private PropertyList() {
+    }
+
+    /**
+     * Tells the format of the bytes of a property list from their start.
+     */
+    public static Format detect(byte[] data) {
+        if (startsWith(data, BINARY_MAGIC)) {
+            return Format.BINARY;
+        }
+        int i = 0;
+        if (startsWith(data, new byte[] {(byte) 0xef, (byte) 0xbb, (byte) 0xbf})) {
+            i = 3;
+        }
+        while (i < data.length && Character.isWhitespace(data[i])) {
+            i++;
+        }
+        if (i + 1 < data.length && data[i] == '<' && (data[i + 1] == '?' || data[i + 1] == '!' || data[i + 1] == 'p')) {
+            return Format.XML;
+        }
+        return Format.OPENSTEP;
+    }
+
+    public static Object parse(byte[] data) throws PlistException {
+        switch (detect(data)) {
+            case BINARY:
+                return new BinaryPropertyListReader(data).read();
+            case XML:
+                return XmlPropertyListReader.read(data);
+            default:
+                return OpenStepPlistParser.parse(new String(data, UTF8));
+        }
+    }
+
+    /**
+     * Writes a property list. The OpenStep format cannot hold all types, and is written as XML.
+     */
+    public static byte[] format(Object root, Format format) throws PlistException {
+        if (format == Format.BINARY) {
+            return new BinaryPropertyListWriter().write(root);
+        }
+        return XmlPropertyListWriter.write(root);
+    }
+
+    /**
+     * The value at a key path, or null if there is none.
+     */
+    public static Object get(Object root, String keyPath) {
+        Object value = root;
+        for (String key : split(keyPath)) {
+            value = child(value, key);
+            if (value == null) {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Replaces the value at a key path, converting the new value to the type of the one it replaces the way
+     * PlistBuddy does.
+     *
+     * @throws PlistException if there is no value at the key path, or if the value does not fit its type
+     */
+    @SuppressWarnings("unchecked")
+    public static void set(Object root, String keyPath, String value) throws PlistException {
+        String[] keys = split(keyPath);
+        if (keys.length == 0) {
+            throw new PlistException("Cannot replace the root of a property list");
+        }
+        Object parent = root;
+        for (int i = 0; i < keys.length - 1 && parent != null; i++) {
+            parent = child(parent, keys[i]);
+        }
+        String key = keys[keys.length - 1];
+        Object old = child(parent, key);
+        if (old == null) {
+            throw new PlistException("Entry " + keyPath + " does not exist");
+        }
+        Object converted = convert(old, value, keyPath);
+        if (parent instanceof Map) {
+            ((Map<String, Object>) parent).put(key, converted);
+        } else {
+            ((List<Object>) parent).set(Integer.parseInt(key), converted);
+        }
+    }
+
+    /**
+     * The text PlistBuddy prints for a value that is not a container, or null for dictionaries and arrays.
+     */
+    public static String toText(Object value) {
+        if (value instanceof Map || value instanceof List || value == null) {
+            return null;
+        }
+        if (value instanceof byte[]) {
+            return new String((byte[]) value, UTF8);
+        }
+        if (value instanceof Date) {
+            return XmlPropertyListWriter.formatDate((Date) value);
+        }
+        return value.toString();
+    }
+
+    static Map<String, Object> newDictionary() {
+        return new LinkedHashMap<>();
+    }
+
+    private static Object convert(Object old, String value, String keyPath) throws PlistException {
+        try {
+            if (old instanceof String) {
+                return value;
+            } else if (old instanceof Long) {
+                return Long.valueOf(value.trim());
+            } else if (old instanceof Double) {
+                return Double.valueOf(value.trim());
+            } else if (old instanceof Boolean) {
+                return "true".equalsIgnoreCase(value.trim()) || "yes".equalsIgnoreCase(value.trim()) || "1".equals(value.trim());
+            } else if (old instanceof Date) {
+                return XmlPropertyListReader.parseDate(value.trim());
+            } else if (old instanceof byte[]) {
+                return value.getBytes(UTF8);
+            }
+        } catch (NumberFormatException e) {
+            throw new PlistException("Cannot set " + keyPath + " to " + value, e);
+        }
+        throw new PlistException("Cannot set the container " + keyPath + " to a value");
+    }
+
+    private static Object child(Object parent, String key) {
+        if (parent instanceof Map) {
+            return ((Map<?, ?>) parent).get(key);
+        }
+        if (parent instanceof List) {
+            List<?> list = (List<?>) parent;
+            try {
+                int index = Integer.parseInt(key);
+                return index >= 0 && index < list.size() ? list.get(index) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static String[] split(String keyPath) {
+        String path = keyPath.startsWith(":") ? keyPath.substring(1) : keyPath;
+        return path.isEmpty() ? new String[0] : path.split(":", -1);
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.plist;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.codec.binary.Base64;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads XML property lists in one pass with SAX.
+ */
+final class XmlPropertyListReader extends DefaultHandler {
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+    /** Open dictionaries and arrays. */
+    private final Deque<Object> containers = new ArrayDeque<>();
+    /** The key of the next value of each open dictionary. */
+    private final Deque<String> keys = new ArrayDeque<>();
+    private final StringBuilder text = new StringBuilder();
+    private Object root;
+    private boolean seenRoot;
+
+    private XmlPropertyListReader() {
+    }
+
+    static Object read(byte[] data) throws PlistException {
+        XmlPropertyListReader reader = new XmlPropertyListReader();
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            factory.newSAXParser().parse(new ByteArrayInputStream(data), reader);
+        } catch (SAXException | ParserConfigurationException | IOException e) {
+            throw new PlistException("Malformed XML property list: " + e.getMessage(), e);
+        }
+        if (!reader.seenRoot) {
+            throw new PlistException("Empty XML property list");
+        }
+        return reader.root;
+    }
+
+    static Date parseDate(String value) throws PlistException {
+        SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(value);
+        } catch (ParseException e) {
+            throw new PlistException("Malformed date " + value, e);
+        }
+    }
+
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId) {
+        // never fetch the DTD from apple.com
+        return new InputSource(new StringReader(""));
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        text.setLength(0);
+        if ("dict".equals(qName)) {
+            containers.push(PropertyList.newDictionary());
+            keys.push("");
+        } else if ("array".equals(qName)) {
+            containers.push(new ArrayList<>());
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        text.append(ch, start, length);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        String value = text.toString();
+        text.setLength(0);
+        try {
+            switch (qName) {
+                case "plist":
+                    return;
+                case "key":
+                    if (!(containers.peek() instanceof Map)) {
+                        throw new SAXException("<key> outside of a <dict>");
+                    }
+                    keys.pop();
+                    keys.push(value);
+                    return;
+                case "dict":
+                    keys.pop();
+                    add(containers.pop());
+                    return;
+                case "array":
+                    add(containers.pop());
+                    return;
+                case "string":
+                    add(value);
+                    return;
+                case "integer":
+                    add(Long.valueOf(value.trim()));
+                    return;
+                case "real":
+                    add(Double.valueOf(value.trim()));
+                    return;
+                case "true":
+                    add(Boolean.TRUE);
+                    return;
+                case "false":
+                    add(Boolean.FALSE);
+                    return;
+                case "date":
+                    add(parseDate(value.trim()));
+                    return;
+                case "data":
+                    add(Base64.decodeBase64(value.replaceAll("\\s", "")));
+                    return;
+                default:
+                    throw new SAXException("Unknown element <" + qName + ">");
+            }
+        } catch (NumberFormatException | PlistException e) {
+            throw new SAXException("Malformed <" + qName + ">: " + value.trim());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void add(Object value) throws SAXException {
+        Object container = containers.peek();
+        if (container instanceof Map) {
+            String key = keys.peek();
+            ((Map<String, Object>) container).put(key, value);
+        } else if (container instanceof List) {
+            ((List<Object>) container).add(value);
+        } else if (seenRoot) {
+            throw new SAXException("More than one root value");
+        } else {
+            root = value;
+            seenRoot = true;
+        }
+    }
+}
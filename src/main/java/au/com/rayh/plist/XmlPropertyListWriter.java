@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.plist;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Writes XML property lists laid out the way Xcode writes them.
+ */
+final class XmlPropertyListWriter {
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n"
+            + "<plist version=\"1.0\">\n";
+
+    private final StringBuilder xml = new StringBuilder(HEADER);
+
+    private XmlPropertyListWriter() {
+    }
+
+    static byte[] write(Object root) throws PlistException {
+        XmlPropertyListWriter writer = new XmlPropertyListWriter();
+        writer.value(root, 0);
+        writer.xml.append("</plist>\n");
+        return writer.xml.toString().getBytes(PropertyList.UTF8);
+    }
+
+    static String formatDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    private void value(Object value, int depth) throws PlistException {
+        if (value instanceof Map) {
+            Map<?, ?> dictionary = (Map<?, ?>) value;
+            if (dictionary.isEmpty()) {
+                indent(depth).append("<dict/>\n");
+                return;
+            }
+            indent(depth).append("<dict>\n");
+            for (Map.Entry<?, ?> entry : dictionary.entrySet()) {
+                element(depth + 1, "key", String.valueOf(entry.getKey()));
+                value(entry.getValue(), depth + 1);
+            }
+            indent(depth).append("</dict>\n");
+        } else if (value instanceof List) {
+            List<?> array = (List<?>) value;
+            if (array.isEmpty()) {
+                indent(depth).append("<array/>\n");
+                return;
+            }
+            indent(depth).append("<array>\n");
+            for (Object element : array) {
+                value(element, depth + 1);
+            }
+            indent(depth).append("</array>\n");
+        } else if (value instanceof String) {
+            element(depth, "string", (String) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            element(depth, "integer", value.toString());
+        } else if (value instanceof Double || value instanceof Float) {
+            element(depth, "real", value.toString());
+        } else if (value instanceof Boolean) {
+            indent(depth).append((Boolean) value ? "<true/>\n" : "<false/>\n");
+        } else if (value instanceof Date) {
+            element(depth, "date", formatDate((Date) value));
+        } else if (value instanceof byte[]) {
+            data(depth, (byte[]) value);
+        } else {
+            throw new PlistException("Cannot write " + (value == null ? "null" : value.getClass().getName()) + " to a property list");
+        }
+    }
+
+    private void element(int depth, String name, String text) {
+        indent(depth).append('<').append(name).append('>');
+        escape(text);
+        xml.append("</").append(name).append(">\n");
+    }
+
+    private void data(int depth, byte[] data) {
+        String base64 = new String(Base64.encodeBase64(data), PropertyList.UTF8);
+        indent(depth).append("<data>\n");
+        for (int i = 0; i < base64.length(); i += 68) {
+            indent(depth).append(base64, i, Math.min(base64.length(), i + 68)).append('\n');
+        }
+        indent(depth).append("</data>\n");
+    }
+
+    private StringBuilder indent(int depth) {
+        for (int i = 0; i < depth; i++) {
+            xml.append('\t');
+        }
+        return xml;
+    }
+
+    private void escape(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    xml.append("&amp;");
+                    break;
+                case '<':
+                    xml.append("&lt;");
+                    break;
+                case '>':
+                    xml.append("&gt;");
+                    break;
+                default:
+                    xml.append(c);
+            }
+        }
+    }
+}
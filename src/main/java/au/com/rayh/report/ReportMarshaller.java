@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.report;
+
+import java.io.OutputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+
+/**
+ * Shared JAXB binding for the JUnit report model.
+ * <p>
+ * Building a {@link JAXBContext} reflects over the whole model and costs milliseconds, while the context itself is
+ * thread-safe, so one instance is shared. {@link Marshaller}s are cheap but not thread-safe, so each thread reuses
+ * its own.
+ */
+public final class ReportMarshaller {
+    private static volatile JAXBContext context;
+
+    private static final QName TESTCASE = new QName("testcase");
+
+    private static final ThreadLocal<Marshaller> MARSHALLERS = new ThreadLocal<>();
+    private static final ThreadLocal<Marshaller> FRAGMENT_MARSHALLERS = new ThreadLocal<>();
+
+    private ReportMarshaller() {
+    }
+
+    public static JAXBContext getContext() throws JAXBException {
+        JAXBContext c = context;
+        if (c == null) {
+            synchronized (ReportMarshaller.class) {
+                c = context;
+                if (c == null) {
+                    context = c = JAXBContext.newInstance(TestSuite.class, TestCase.class, TestFailure.class, TestError.class);
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns the marshaller of the calling thread. It must not be handed to other threads.
+     */
+    public static Marshaller getMarshaller() throws JAXBException {
+        Marshaller m = MARSHALLERS.get();
+        if (m == null) {
+            m = getContext().createMarshaller();
+            MARSHALLERS.set(m);
+        }
+        return m;
+    }
+
+    public static void marshal(TestSuite suite, OutputStream out) throws JAXBException {
+        getMarshaller().marshal(suite, out);
+    }
+
+    /**
+     * Writes a single {@code <testcase>} element, without any XML declaration.
+     */
+    public static void marshalFragment(TestCase testCase, OutputStream out) throws JAXBException {
+        Marshaller m = FRAGMENT_MARSHALLERS.get();
+        if (m == null) {
+            m = getContext().createMarshaller();
+            m.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+            FRAGMENT_MARSHALLERS.set(m);
+        }
+        m.marshal(new JAXBElement<>(TESTCASE, TestCase.class, testCase), out);
+    }
+}
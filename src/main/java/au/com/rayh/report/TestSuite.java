@@ -100,6 +100,14 @@ public class TestSuite {
         tests+=1;
     }
     
+    public String getHostname() {
+        return hostname;
+    }
+
+    public void setHostname(String hostname) {
+        this.hostname = hostname;
+    }
+
     public String getName() {
         return name;
     }
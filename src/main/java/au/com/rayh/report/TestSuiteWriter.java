@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.report;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.GregorianCalendar;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a JUnit {@code <testsuite>} document without holding all of its test cases in memory.
+ * <p>
+ * Finished test cases are {@link #append appended} to a temporary spool file. The counts and the time of a suite
+ * are attributes of the root element, so the header is only written by {@link #writeTo} once the suite is closed,
+ * followed by the spooled test cases and then by the ones still held by the {@link TestSuite}.
+ * The output is the same as marshalling the whole {@link TestSuite} with JAXB.
+ */
+public class TestSuiteWriter implements Closeable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>".getBytes(UTF8);
+    private static final XMLOutputFactory XML_OUTPUT = XMLOutputFactory.newInstance();
+
+    private final File spoolDirectory;
+    private File spool;
+    private OutputStream spoolOutput;
+
+    /**
+     * Spools to the default temporary-file directory.
+     */
+    public TestSuiteWriter() {
+        this(null);
+    }
+
+    /**
+     * @param spoolDirectory the directory of the spool file, or {@code null} for the default temporary-file directory
+     */
+    public TestSuiteWriter(File spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    /**
+     * Spools a finished test case to disk.
+     */
+    public void append(TestCase testCase) throws IOException, JAXBException {
+        if (spoolOutput == null) {
+            if (spool != null) {
+                throw new IllegalStateException("The report has already been written");
+            }
+            spool = File.createTempFile("TEST-", ".xml.spool", spoolDirectory);
+            spoolOutput = new BufferedOutputStream(new FileOutputStream(spool));
+        }
+        ReportMarshaller.marshalFragment(testCase, spoolOutput);
+    }
+
+    /**
+     * Writes the complete report of the given suite: its header, the spooled test cases and the test cases
+     * the suite still holds. The stream is not closed.
+     */
+    public void writeTo(TestSuite suite, OutputStream out) throws IOException, JAXBException {
+        closeSpool();
+        try {
+            out.write(XML_DECLARATION);
+            XMLStreamWriter xml = XML_OUTPUT.createXMLStreamWriter(out, "UTF-8");
+            boolean empty = spool == null && suite.testcases.isEmpty();
+            if (empty) {
+                xml.writeEmptyElement("testsuite");
+            } else {
+                xml.writeStartElement("testsuite");
+            }
+            xml.writeAttribute("failures", String.valueOf(suite.failures));
+            xml.writeAttribute("errors", String.valueOf(suite.errors));
+            if (suite.hostname != null) {
+                xml.writeAttribute("hostname", suite.hostname);
+            }
+            if (suite.name != null) {
+                xml.writeAttribute("name", suite.name);
+            }
+            xml.writeAttribute("tests", String.valueOf(suite.tests));
+            xml.writeAttribute("time", String.valueOf(suite.time));
+            if (suite.endTime != null) {
+                GregorianCalendar timestamp = new GregorianCalendar();
+                timestamp.setTime(suite.endTime);
+                xml.writeAttribute("timestamp", DatatypeConverter.printDateTime(timestamp));
+            }
+            if (!empty) {
+                // close the start tag, so that the test case fragments can be written right after it
+                xml.writeCharacters("");
+                xml.flush();
+                if (spool != null) {
+                    try (InputStream in = new FileInputStream(spool)) {
+                        copy(in, out);
+                    }
+                }
+                for (TestCase testCase : suite.testcases) {
+                    ReportMarshaller.marshalFragment(testCase, out);
+                }
+                xml.writeEndElement();
+            }
+            xml.writeEndDocument();
+            xml.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Deletes the spool file.
+     */
+    public void close() throws IOException {
+        closeSpool();
+        if (spool != null && !spool.delete() && spool.exists()) {
+            throw new IOException("Unable to delete " + spool);
+        }
+        spool = null;
+    }
+
+    private void closeSpool() throws IOException {
+        if (spoolOutput != null) {
+            try {
+                spoolOutput.close();
+            } finally {
+                spoolOutput = null;
+            }
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommandBatchTest {
+    @Test
+    public void shouldRunTheCommandsInOrderAndCaptureTheirOutput() throws Exception {
+        CommandBatch.Command first = command("echo one; echo two >&2");
+        CommandBatch.Command second = command("echo $GREETING; exit 3");
+        File pwd = new File(System.getProperty("java.io.tmpdir"));
+
+        List<CommandBatch.Result> results = new CommandBatch.Run(Arrays.asList(first, second),
+                Collections.singletonMap("GREETING", "hello"), pwd.getPath()).call();
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertEquals("one\ntwo\n", new String(results.get(0).getOutput(), "UTF-8"));
+        assertEquals(3, results.get(1).getExitCode());
+        assertEquals("hello\n", new String(results.get(1).getOutput(), "UTF-8"));
+    }
+
+    @Test
+    public void shouldStopAtACommandThatFails() throws Exception {
+        List<CommandBatch.Result> results = new CommandBatch.Run(Arrays.asList(
+                command("exit 1").stopOnFailure(), command("echo never")), null, null).call();
+        assertEquals(1, results.get(0).getExitCode());
+        assertFalse(results.get(1).isRun());
+        assertFalse(results.get(1).isSuccess());
+        assertEquals(0, results.get(1).getOutput().length);
+
+        results = new CommandBatch.Run(Arrays.asList(command("exit 1"), command("echo still")), null, null).call();
+        assertTrue(results.get(1).isSuccess());
+    }
+
+    @Test
+    public void shouldKillACommandThatIsInterrupted() throws Exception {
+        final CommandBatch.Run run = new CommandBatch.Run(Collections.singletonList(new CommandBatch().add("sleep", "60")),
+                null, null);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    run.call();
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        thread.start();
+        Thread.sleep(500);
+        thread.interrupt();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertTrue(failure.get() instanceof IOException);
+    }
+
+    @Test
+    public void shouldMaskArgumentsInTheCommandLine() {
+        CommandBatch.Command command = new CommandBatch.Command(new String[] {"security", "unlock-keychain", "-p", "secret", "ci.keychain"},
+                new boolean[] {false, false, false, true, false});
+        assertEquals("security unlock-keychain -p ******** ci.keychain", command.toString());
+    }
+
+    private static CommandBatch.Command command(String script) {
+        return new CommandBatch().add("sh", "-c", script);
+    }
+}
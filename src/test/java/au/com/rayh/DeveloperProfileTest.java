@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class DeveloperProfileTest {
+    @Test
+    public void shouldReadTheCertificatesOnce() throws Exception {
+        byte[] image = image();
+        List<X509Certificate> certificates = DeveloperProfile.certificates("reuse", image, "secret").certificates;
+        assertEquals(1, certificates.size());
+        assertEquals("iPhone Distribution: Example Ltd (ABCDE12345)", DeveloperProfile.certificates("reuse", image, "secret").names.get(certificates.get(0)));
+
+        assertSame(certificates, DeveloperProfile.certificates("reuse", image.clone(), "secret").certificates);
+    }
+
+    @Test
+    public void shouldReadTheCertificatesAgainWhenTheImageChanges() throws Exception {
+        byte[] image = image();
+        DeveloperProfile.Certificates first = DeveloperProfile.certificates("image", image, "secret");
+
+        // the same profile zipped again, with a comment that makes the image differ
+        byte[] changed = image.clone();
+        changed[changed.length - 2] = 1;
+        byte[] withComment = new byte[changed.length + 1];
+        System.arraycopy(changed, 0, withComment, 0, changed.length);
+        withComment[changed.length] = 'x';
+
+        DeveloperProfile.Certificates second = DeveloperProfile.certificates("image", withComment, "secret");
+        assertNotSame(first, second);
+        assertEquals(first.certificates, second.certificates);
+    }
+
+    @Test
+    public void shouldReadTheCertificatesAgainWhenThePasswordChanges() throws Exception {
+        byte[] image = image();
+        DeveloperProfile.certificates("password", image, "secret");
+        try {
+            DeveloperProfile.certificates("password", image, "wrong");
+            fail("the cached certificates must not be returned for another password");
+        } catch (IOException expected) {
+            // PKCS12 reports a wrong password as an IOException
+        }
+    }
+
+    private byte[] image() throws IOException {
+        return IOUtils.toByteArray(getClass().getResourceAsStream("/DeveloperProfile/profile.zip"));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DsymIndexTest {
+    private static final byte[] ARM64_UUID = uuid(0x11);
+    private static final byte[] ARMV7_UUID = uuid(0xA0);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot();
+    }
+
+    @Test
+    public void shouldReadTheUuidOfAThinBinary() throws Exception {
+        File binary = new File(dir, "App");
+        FileUtils.writeByteArrayToFile(binary, thin(0x0100000C, 0, true, ARM64_UUID));
+        assertEquals("[arm64=11121314-1516-1718-191A-1B1C1D1E1F20]", MachO.uuids(binary).toString());
+    }
+
+    @Test
+    public void shouldReadTheUuidsOfAFatBinary() throws Exception {
+        File binary = new File(dir, "App");
+        FileUtils.writeByteArrayToFile(binary, fat(thin(12, 9, false, ARMV7_UUID), thin(0x0100000C, 0, true, ARM64_UUID)));
+        assertEquals("[armv7=A0A1A2A3-A4A5-A6A7-A8A9-AAABACADAEAF, arm64=11121314-1516-1718-191A-1B1C1D1E1F20]",
+                MachO.uuids(binary).toString());
+    }
+
+    @Test
+    public void shouldKeepSlicesWhoseArchitecturesShareAName() throws Exception {
+        File binary = new File(dir, "App");
+        // both subtypes are named arm
+        FileUtils.writeByteArrayToFile(binary, fat(thin(12, 0, false, ARMV7_UUID), thin(12, 5, false, ARM64_UUID)));
+        assertEquals("[arm=A0A1A2A3-A4A5-A6A7-A8A9-AAABACADAEAF, arm=11121314-1516-1718-191A-1B1C1D1E1F20]",
+                MachO.uuids(binary).toString());
+    }
+
+    @Test
+    public void shouldIgnoreFilesThatAreNotBinaries() throws Exception {
+        File text = new File(dir, "Info.plist");
+        FileUtils.writeStringToFile(text, "<plist version=\"1.0\"/>", "UTF-8");
+        assertTrue(MachO.uuids(text).isEmpty());
+    }
+
+    @Test
+    public void shouldRecordTheDsymOfEachUuid() throws Exception {
+        File dSYM = new File(dir, "App.app.dSYM");
+        FileUtils.writeByteArrayToFile(new File(dSYM, "Contents/Resources/DWARF/App"),
+                fat(thin(12, 9, false, ARMV7_UUID), thin(0x0100000C, 0, true, ARM64_UUID)));
+        FileUtils.writeStringToFile(new File(dSYM, "Contents/Info.plist"), "<plist/>", "UTF-8");
+
+        List<DsymIndex.Binary> binaries = new DsymIndex.Scan().invoke(dSYM, null);
+        assertEquals(2, binaries.size());
+
+        DsymIndex index = new DsymIndex(new File(dir, "index"));
+        index.add("ios-app#12", "/build/App-1.0-12-dSYM.zip", binaries);
+        // exporting the same dSYM again does not record it twice
+        index.add("ios-app#12", "/build/App-1.0-12-dSYM.zip", binaries);
+
+        assertEquals(Arrays.asList("arm64\tios-app#12\t/build/App-1.0-12-dSYM.zip\tApp.app.dSYM/Contents/Resources/DWARF/App"),
+                lines("11121314-1516-1718-191A-1B1C1D1E1F20"));
+        assertEquals(Arrays.asList("armv7\tios-app#12\t/build/App-1.0-12-dSYM.zip\tApp.app.dSYM/Contents/Resources/DWARF/App"),
+                lines("A0A1A2A3-A4A5-A6A7-A8A9-AAABACADAEAF"));
+    }
+
+    @Test
+    public void shouldForgetTheDsymsOfADeletedBuild() throws Exception {
+        List<DsymIndex.Binary> binaries = Arrays.asList(
+                new DsymIndex.Binary("11121314-1516-1718-191A-1B1C1D1E1F20", "arm64", "App.app.dSYM/Contents/Resources/DWARF/App"),
+                new DsymIndex.Binary("A0A1A2A3-A4A5-A6A7-A8A9-AAABACADAEAF", "armv7", "App.app.dSYM/Contents/Resources/DWARF/App"));
+        DsymIndex index = new DsymIndex(new File(dir, "index"));
+        index.add("ios-app#12", "build/ipa/App-1.0-12-dSYM.zip", binaries);
+        index.add("ios-app#13", "build/ipa/App-1.0-13-dSYM.zip", binaries.subList(0, 1));
+
+        index.remove("ios-app#12");
+        assertEquals(Arrays.asList("arm64\tios-app#13\tbuild/ipa/App-1.0-13-dSYM.zip\tApp.app.dSYM/Contents/Resources/DWARF/App"),
+                lines("11121314-1516-1718-191A-1B1C1D1E1F20"));
+        assertTrue(lines("A0A1A2A3-A4A5-A6A7-A8A9-AAABACADAEAF").isEmpty());
+
+        index.remove("ios-app#13");
+        index.remove("ios-app#14");
+        assertTrue(lines("11121314-1516-1718-191A-1B1C1D1E1F20").isEmpty());
+    }
+
+    /**
+     * The lines the index holds for a UUID.
+     */
+    private List<String> lines(String uuid) throws Exception {
+        File file = new File(dir, "index/" + uuid.substring(0, 2) + "/" + uuid);
+        return file.isFile() ? FileUtils.readLines(file, "UTF-8") : Collections.<String>emptyList();
+    }
+
+    private static byte[] uuid(int first) {
+        byte[] uuid = new byte[16];
+        for (int i = 0; i < uuid.length; i++) {
+            uuid[i] = (byte) (first + i);
+        }
+        return uuid;
+    }
+
+    /**
+     * A dSYM-like binary with a segment load command followed by its UUID.
+     */
+    private static byte[] thin(int cpuType, int cpuSubtype, boolean is64, byte[] uuid) {
+        int headerSize = is64 ? 32 : 28;
+        int segmentSize = is64 ? 72 : 56;
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + segmentSize + 24).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(is64 ? 0xFEEDFACF : 0xFEEDFACE);
+        buffer.putInt(cpuType);
+        buffer.putInt(cpuSubtype);
+        buffer.putInt(0xA);
+        buffer.putInt(2);
+        buffer.putInt(segmentSize + 24);
+        buffer.putInt(0);
+        if (is64) {
+            buffer.putInt(0);
+        }
+        buffer.putInt(is64 ? 0x19 : 0x1);
+        buffer.putInt(segmentSize);
+        buffer.position(buffer.position() + segmentSize - 8);
+        buffer.putInt(0x1B);
+        buffer.putInt(24);
+        buffer.put(uuid);
+        return buffer.array();
+    }
+
+    private static byte[] fat(byte[]... slices) {
+        int offset = 4096;
+        ByteBuffer buffer = ByteBuffer.allocate(offset * (slices.length + 1));
+        buffer.putInt(0xCAFEBABE);
+        buffer.putInt(slices.length);
+        for (byte[] slice : slices) {
+            ByteBuffer header = ByteBuffer.wrap(slice).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(header.getInt(4));
+            buffer.putInt(header.getInt(8));
+            buffer.putInt(offset);
+            buffer.putInt(slice.length);
+            buffer.putInt(12);
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset);
+            target.put(slice);
+            offset += 4096;
+        }
+        return Arrays.copyOf(buffer.array(), offset - 4096 + slices[slices.length - 1].length);
+    }
+}
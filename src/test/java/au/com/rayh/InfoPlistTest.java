@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import au.com.rayh.plist.PlistException;
+import au.com.rayh.plist.PropertyList;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InfoPlistTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot();
+    }
+
+    @Test
+    public void shouldReadSeveralValuesAtOnce() throws Exception {
+        Map<String, String> values = new InfoPlist.Read(":ApplicationProperties:CFBundleVersion",
+                ":ApplicationProperties:CFBundleShortVersionString", ":ApplicationProperties", ":Missing")
+                .invoke(copy("xcarchive-Info.plist"), null);
+
+        assertEquals(2, values.size());
+        assertEquals("7", values.get(":ApplicationProperties:CFBundleVersion"));
+        assertEquals("2.0", values.get(":ApplicationProperties:CFBundleShortVersionString"));
+    }
+
+    @Test
+    public void shouldReadNothingFromAMissingFile() throws Exception {
+        assertEquals(Collections.emptyMap(), new InfoPlist.Read(":CFBundleIdentifier").invoke(new File(dir, "Info.plist"), null));
+    }
+
+    @Test
+    public void shouldSetValuesKeepingTheFormat() throws Exception {
+        File plist = copy("Info-binary.plist");
+        new InfoPlist.Set(":CFBundleIdentifier", "com.example.changed").invoke(plist, null);
+
+        byte[] data = FileUtils.readFileToByteArray(plist);
+        assertEquals(PropertyList.Format.BINARY, PropertyList.detect(data));
+        assertEquals("com.example.changed", PropertyList.get(PropertyList.parse(data), ":CFBundleIdentifier"));
+        assertEquals("Sample App é", new InfoPlist.Read(":CFBundleDisplayName").invoke(plist, null).get(":CFBundleDisplayName"));
+        assertArrayEquals(new String[] {"Info-binary.plist"}, dir.list());
+    }
+
+    @Test
+    public void shouldKeepThePermissionsOfTheFile() throws Exception {
+        File plist = copy("Info-binary.plist");
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rwxr-x---");
+        Files.setPosixFilePermissions(plist.toPath(), permissions);
+
+        new InfoPlist.Set(":CFBundleIdentifier", "com.example.changed").invoke(plist, null);
+        assertEquals(permissions, Files.getPosixFilePermissions(plist.toPath()));
+    }
+
+    @Test
+    public void shouldSetTheSameFileConcurrently() throws Exception {
+        final File plist = copy("Info-binary.plist");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> sets = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                final String identifier = "com.example.app" + i;
+                sets.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        return new InfoPlist.Set(":CFBundleIdentifier", identifier).invoke(plist, null);
+                    }
+                }));
+            }
+            for (Future<Void> set : sets) {
+                set.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertArrayEquals(new String[] {"Info-binary.plist"}, dir.list());
+        String identifier = new InfoPlist.Read(":CFBundleIdentifier").invoke(plist, null).get(":CFBundleIdentifier");
+        assertTrue(identifier, identifier.startsWith("com.example.app"));
+    }
+
+    @Test
+    public void shouldNotCreateMissingFilesOrKeys() throws Exception {
+        try {
+            new InfoPlist.Set(":CFBundleIdentifier", "com.example").invoke(new File(dir, "Info.plist"), null);
+            fail();
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        File plist = copy("xcarchive-Info.plist");
+        byte[] before = FileUtils.readFileToByteArray(plist);
+        try {
+            new InfoPlist.Set(":CFBundleIdentifier", "com.example").invoke(plist, null);
+            fail();
+        } catch (PlistException e) {
+            // expected
+        }
+        assertEquals(new String(before, "UTF-8"), FileUtils.readFileToString(plist, "UTF-8"));
+    }
+
+    private File copy(String name) throws Exception {
+        File file = new File(dir, name);
+        FileUtils.copyFile(FileUtils.toFile(ClassLoader.getSystemResource("plist/" + name)), file);
+        return file;
+    }
+}
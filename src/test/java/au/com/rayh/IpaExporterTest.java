@@ -0,0 +1,306 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IpaExporterTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = tmp.getRoot();
+    }
+
+    @Test
+    public void shouldReportAMissingBuildDirectory() throws Exception {
+        IpaExporter.Plan plan = prepare(new File(dir, "missing"), 4);
+        assertTrue(plan.missing);
+        assertNull(plan.archives);
+    }
+
+    @Test
+    public void shouldInspectTheBuildDirectoryInOneGo() throws Exception {
+        plist(new File(dir, "Lite.xcarchive/Info.plist"), "ApplicationProperties", "<dict>"
+                + "<key>CFBundleShortVersionString</key><string>2.1</string>"
+                + "<key>CFBundleVersion</key><string> 42 </string></dict>");
+        FileUtils.writeStringToFile(new File(dir, "Broken.xcarchive/Info.plist"), "<plist", "UTF-8");
+        plist(new File(dir, "Pro.xcarchive/Info.plist"), "ApplicationProperties", "<dict/>");
+        assertTrue(new File(dir, "Pro.xcarchive/dSYMs/Pro.app.dSYM/Contents").mkdirs());
+        assertTrue(new File(dir, "Pro.xcarchive/dSYMs/Kit.framework.dSYM/Contents").mkdirs());
+        assertTrue(new File(dir, "Release-iphoneos/Lite.app.dSYM/Contents").mkdirs());
+        assertTrue(new File(dir, "Release-iphoneos/Pro.app.dSYM/Contents").mkdirs());
+        assertTrue(new File(dir, "Release-iphoneos/Lite.app").mkdirs());
+
+        IpaExporter.Plan plan = prepare(dir, 4);
+
+        assertFalse(plan.missing);
+        assertEquals(new File(dir, "ipa").getPath(), plan.ipaOutputPath);
+        assertEquals("<plist/>", FileUtils.readFileToString(new File(plan.exportPlist), "UTF-8"));
+
+        assertEquals(3, plan.archives.size());
+        IpaExporter.Archive broken = plan.archives.get(0);
+        assertEquals("Broken", broken.baseName);
+        assertNotNull(broken.versionFailure);
+        assertTrue(broken.dSYMs.isEmpty());
+        IpaExporter.Archive lite = plan.archives.get(1);
+        assertEquals("Lite.xcarchive", lite.name);
+        assertEquals(new File(dir, "Lite.xcarchive").getPath(), lite.path);
+        assertEquals("42", lite.version);
+        assertEquals("2.1", lite.shortVersion);
+        assertNull(lite.versionFailure);
+        // each archive zips its own dSYMs, preferably the ones in the archive
+        assertEquals(Arrays.asList(new File(dir, "Release-iphoneos/Lite.app.dSYM").getPath()), lite.dSYMs);
+        assertEquals(Arrays.asList(new File(dir, "Pro.xcarchive/dSYMs/Kit.framework.dSYM").getPath(),
+                new File(dir, "Pro.xcarchive/dSYMs/Pro.app.dSYM").getPath()), plan.archives.get(2).dSYMs);
+
+        // one staging directory per worker, and no more workers than archives
+        assertEquals(3, plan.payloads.size());
+        for (String payload : plan.payloads) {
+            assertTrue(new File(payload).isDirectory());
+        }
+    }
+
+    @Test
+    public void shouldMoveTheExportIntoPlaceAndZipTheSymbols() throws Exception {
+        File output = new File(dir, "ipa");
+        File payload = new File(output, "Payload/0");
+        FileUtils.writeStringToFile(new File(payload, "Lite.ipa"), "ipa", "UTF-8");
+        FileUtils.writeStringToFile(new File(payload, "DistributionSummary.plist"), "summary", "UTF-8");
+        FileUtils.writeStringToFile(new File(output, "DistributionSummary.plist"), "previous archive", "UTF-8");
+        FileUtils.writeStringToFile(new File(payload, "Apps/Lite.ipa"), "thinned", "UTF-8");
+        FileUtils.writeStringToFile(new File(output, "Apps/Pro.ipa"), "previous archive", "UTF-8");
+        File dSYM = new File(dir, "Release-iphoneos/Lite.app.dSYM");
+        FileUtils.writeStringToFile(new File(dSYM, "Contents/Resources/DWARF/Lite"), "not a binary", "UTF-8");
+        File app = new File(dir, "Release-iphoneos/Lite.app");
+        plist(new File(app, "Info.plist"), "CFBundleIdentifier", "<string>com.example.lite</string>");
+
+        IpaExporter.Finished finished = new IpaExporter.Finish(payload.getPath(), "Lite.ipa", "Lite-2.1-42.ipa",
+                Arrays.asList(dSYM.getPath()), "Lite-2.1-42-dSYM.zip", "Lite-2.1-42.plist", "https://example.com/apps",
+                new File(app, "Info.plist").getPath(), "2.1").invoke(output, null);
+
+        assertNull(finished.zipFailure);
+        assertNull(finished.scanFailure);
+        assertTrue(finished.binaries.isEmpty());
+        assertEquals("ipa", FileUtils.readFileToString(new File(output, "Lite-2.1-42.ipa"), "UTF-8"));
+        assertEquals("summary", FileUtils.readFileToString(new File(output, "DistributionSummary.plist"), "UTF-8"));
+        assertEquals("thinned", FileUtils.readFileToString(new File(output, "Apps/Lite.ipa"), "UTF-8"));
+        assertFalse(new File(output, "Apps/Pro.ipa").exists());
+        assertEquals(0, payload.list().length);
+        try (ZipFile zip = new ZipFile(new File(output, "Lite-2.1-42-dSYM.zip"))) {
+            assertNotNull(zip.getEntry("Lite.app.dSYM/Contents/Resources/DWARF/Lite"));
+        }
+        String manifest = FileUtils.readFileToString(new File(output, "Lite-2.1-42.plist"), "UTF-8");
+        assertTrue(manifest.contains("<string>https://example.com/apps/Lite-2.1-42.ipa</string>"));
+        assertTrue(manifest.contains("<string>com.example.lite</string>"));
+    }
+
+    @Test
+    public void shouldMoveTheSideFilesOfConcurrentExportsOneAtATime() throws Exception {
+        final File output = new File(dir, "ipa");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 20; round++) {
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<IpaExporter.Finished>> finishes = new ArrayList<>();
+                for (final String name : Arrays.asList("Lite", "Pro")) {
+                    final File payload = new File(output, "Payload/" + name);
+                    FileUtils.writeStringToFile(new File(payload, name + ".ipa"), name, "UTF-8");
+                    for (String side : Arrays.asList("DistributionSummary.plist", "ExportOptions.plist", "Packaging.log")) {
+                        FileUtils.writeStringToFile(new File(payload, side), name, "UTF-8");
+                    }
+                    for (int i = 0; i < 50; i++) {
+                        FileUtils.writeStringToFile(new File(payload, "Apps/" + name + i + ".ipa"), name, "UTF-8");
+                    }
+                    finishes.add(executor.submit(new Callable<IpaExporter.Finished>() {
+                        public IpaExporter.Finished call() throws Exception {
+                            start.await();
+                            return new IpaExporter.Finish(payload.getPath(), name + ".ipa", name + "-42.ipa",
+                                    Collections.<String>emptyList(), name + "-42-dSYM.zip", null, null, null, "")
+                                    .invoke(output, null);
+                        }
+                    }));
+                }
+                start.countDown();
+                for (Future<IpaExporter.Finished> finish : finishes) {
+                    finish.get();
+                }
+
+                // the side files all come from whichever export was moved last
+                String last = FileUtils.readFileToString(new File(output, "DistributionSummary.plist"), "UTF-8");
+                assertEquals(last, FileUtils.readFileToString(new File(output, "ExportOptions.plist"), "UTF-8"));
+                assertEquals(last, FileUtils.readFileToString(new File(output, "Packaging.log"), "UTF-8"));
+                String[] apps = new File(output, "Apps").list();
+                assertEquals(50, apps.length);
+                for (String app : apps) {
+                    assertTrue(app, app.startsWith(last));
+                }
+                assertEquals("Lite", FileUtils.readFileToString(new File(output, "Lite-42.ipa"), "UTF-8"));
+                assertEquals("Pro", FileUtils.readFileToString(new File(output, "Pro-42.ipa"), "UTF-8"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldExportEveryArchiveAndLogThemInOrder() throws Exception {
+        File xcodebuild = tmp.newFile("xcodebuild");
+        // exports <archive>.ipa and an Apps directory, like an export with app thinning
+        FileUtils.writeStringToFile(xcodebuild, "#!/bin/sh\n"
+                + "while [ $# -gt 0 ]; do\n"
+                + "  case \"$1\" in -archivePath) archive=\"$2\"; shift;; -exportPath) export=\"$2\"; shift;; esac\n"
+                + "  shift\n"
+                + "done\n"
+                + "name=$(basename \"$archive\" .xcarchive)\n"
+                + "[ \"$name\" = Broken ] && exit 1\n"
+                + "echo \"exported $name\"\n"
+                + "mkdir -p \"$export/Apps\" && echo \"$name\" > \"$export/$name.ipa\" && echo \"$name\" > \"$export/Apps/$name.ipa\"\n", "UTF-8");
+        assertTrue(xcodebuild.setExecutable(true));
+
+        File build = tmp.newFolder("build");
+        assertTrue(new File(build, "Release-iphoneos").mkdirs());
+        for (String name : Arrays.asList("Broken", "Lite", "Pro", "Max")) {
+            plist(new File(build, name + ".xcarchive/Info.plist"), "ApplicationProperties",
+                    "<dict><key>CFBundleVersion</key><string>42</string></dict>");
+        }
+        for (String name : Arrays.asList("Lite", "Pro")) {
+            FileUtils.writeStringToFile(new File(build, "Release-iphoneos/" + name + ".app.dSYM/Contents/Resources/DWARF/" + name),
+                    "not a binary", "UTF-8");
+        }
+
+        IpaExporter exporter = new IpaExporter(new Launcher.LocalLauncher(TaskListener.NULL), new EnvVars(),
+                new FilePath(dir), new FilePath(dir), new FilePath(build), xcodebuild.getPath(), "Release", "iphoneos", "iphoneos", null, null, "job#1");
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        assertFalse(exporter.exportAll("ipa", "Export.plist", "<plist/>", new StreamTaskListener(log)));
+
+        File output = new File(build, "ipa");
+        for (String name : Arrays.asList("Lite", "Pro", "Max")) {
+            assertEquals(name + "\n", FileUtils.readFileToString(new File(output, name + "-42.ipa"), "UTF-8"));
+        }
+        String text = log.toString("UTF-8");
+        // in the order the build directory lists them, whichever finished first
+        assertTrue(text.indexOf("exported Lite") < text.indexOf("exported Max"));
+        assertTrue(text.indexOf("exported Max") < text.indexOf("exported Pro"));
+        assertTrue(text.contains("Broken.xcarchive: "));
+        List<String> files = new ArrayList<>(Arrays.asList(output.list()));
+        Collections.sort(files);
+        assertEquals(Arrays.asList("Apps", "Export.plist", "Lite-42-dSYM.zip", "Lite-42.ipa", "Max-42.ipa",
+                "Pro-42-dSYM.zip", "Pro-42.ipa"), files);
+        try (ZipFile zip = new ZipFile(new File(output, "Lite-42-dSYM.zip"))) {
+            assertNotNull(zip.getEntry("Lite.app.dSYM/Contents/Resources/DWARF/Lite"));
+            assertNull(zip.getEntry("Pro.app.dSYM/Contents/Resources/DWARF/Pro"));
+        }
+    }
+
+    @Test
+    public void shouldClearTheStagingDirectoriesWhenAborted() throws Exception {
+        File xcodebuild = tmp.newFile("xcodebuild");
+        FileUtils.writeStringToFile(xcodebuild, "#!/bin/sh\nexec sleep 60\n", "UTF-8");
+        assertTrue(xcodebuild.setExecutable(true));
+        File build = tmp.newFolder("build");
+        for (String name : Arrays.asList("Lite", "Pro")) {
+            plist(new File(build, name + ".xcarchive/Info.plist"), "ApplicationProperties",
+                    "<dict><key>CFBundleVersion</key><string>42</string></dict>");
+        }
+
+        final IpaExporter exporter = new IpaExporter(new Launcher.LocalLauncher(TaskListener.NULL), new EnvVars(),
+                new FilePath(dir), new FilePath(dir), new FilePath(build), xcodebuild.getPath(), "Release", "iphoneos", "iphoneos", null, null, "job#1");
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    exporter.exportAll("ipa", "Export.plist", "<plist/>", new StreamTaskListener(new ByteArrayOutputStream()));
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        thread.start();
+        File payload = new File(build, "ipa/Payload");
+        for (int i = 0; i < 100 && !payload.isDirectory(); i++) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(500);
+        thread.interrupt();
+        thread.join(10000);
+
+        assertFalse(thread.isAlive());
+        assertTrue(String.valueOf(failure.get()), failure.get() instanceof InterruptedException);
+        assertFalse(payload.exists());
+    }
+
+    @Test
+    public void shouldNameTheZipsByTheirPathInTheWorkspace() throws Exception {
+        IpaExporter exporter = new IpaExporter(null, new EnvVars(), new FilePath(new File("/ws")), new FilePath(new File("/ws/App")),
+                new FilePath(new File("/ws/App/build")), "xcodebuild", "Release", "iphoneos", "iphoneos", null, null, "job#1");
+        assertEquals("App/build/ipa/App-dSYM.zip", exporter.workspacePath(new FilePath(new File("/ws/App/build/ipa/App-dSYM.zip"))));
+        assertEquals("/tmp/symroot/App-dSYM.zip", exporter.workspacePath(new FilePath(new File("/tmp/symroot/App-dSYM.zip"))));
+        assertEquals("/ws2/App-dSYM.zip", exporter.workspacePath(new FilePath(new File("/ws2/App-dSYM.zip"))));
+    }
+
+    private static IpaExporter.Plan prepare(File buildDirectory, int workers) throws Exception {
+        return new IpaExporter.Prepare("ipa", "Export.plist", "<plist/>", "Release-iphoneos", workers).invoke(buildDirectory, null);
+    }
+
+    private static void plist(File file, String key, String value) throws Exception {
+        FileUtils.writeStringToFile(file, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<plist version=\"1.0\"><dict>"
+                + "<key>" + key + "</key>" + value + "</dict></plist>\n", "UTF-8");
+    }
+}
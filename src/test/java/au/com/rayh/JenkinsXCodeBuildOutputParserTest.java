@@ -32,7 +32,9 @@ package au.com.rayh;
 import hudson.FilePath;
 import hudson.console.ConsoleNote;
 import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -41,13 +43,22 @@ import java.io.PrintWriter;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  *
  * @author ray
  */
 public class JenkinsXCodeBuildOutputParserTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     OutputParserTests test;
 
     @Before
@@ -126,4 +137,44 @@ public class JenkinsXCodeBuildOutputParserTest {
     public void shouldParseFailedTestCase() throws Exception {
     	test.shouldParseFailedTestCase();
     }
+
+    @Test
+    public void shouldSpoolNextToTheReportsOfALocalWorkspace() throws Exception {
+        File workspace = tmp.newFolder("workspace");
+        JenkinsXCodeBuildOutputParser parser = new JenkinsXCodeBuildOutputParser(new FilePath(workspace),
+                new StreamTaskListener(new ByteArrayOutputStream()));
+        File reportsDir = new File(workspace, "test-reports");
+
+        startLargeSuite(parser);
+        String[] spools = reportsDir.list();
+        assertEquals(1, spools.length);
+        assertTrue(spools[0].endsWith(".xml.spool"));
+
+        parser.awaitReports();
+        assertEquals(0, reportsDir.list().length);
+    }
+
+    @Test
+    public void shouldSpoolToTheGivenDirectory() throws Exception {
+        File workspace = tmp.newFolder("workspace");
+        File buildDir = tmp.newFolder("build");
+        JenkinsXCodeBuildOutputParser parser = new JenkinsXCodeBuildOutputParser(new FilePath(workspace),
+                new StreamTaskListener(new ByteArrayOutputStream()), buildDir);
+
+        startLargeSuite(parser);
+        assertArrayEquals(new String[0], new File(workspace, "test-reports").list());
+        assertEquals(1, buildDir.list().length);
+
+        parser.awaitReports();
+        assertEquals(0, buildDir.list().length);
+    }
+
+    private static void startLargeSuite(XCodeBuildOutputParser parser) throws IOException {
+        PrintStream log = new PrintStream(parser.getOutputStream(), true, "UTF-8");
+        log.println("Test Suite 'LargeTests' started at 2014-12-12 05:02:01 +0000");
+        for (int i = 0; i < 100; i++) {
+            log.println("Test Case '-[LargeTests test" + i + "]' started.");
+            log.println("Test Case '-[LargeTests test" + i + "]' passed (0.001 seconds).");
+        }
+    }
 }
\ No newline at end of file
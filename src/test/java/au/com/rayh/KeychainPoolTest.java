@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeychainPoolTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldNameTheKeychainAfterTheProfile() {
+        byte[] fingerprint = new byte[32];
+        fingerprint[0] = (byte) 0xAB;
+        fingerprint[7] = 0x01;
+        assertEquals("jenkins-ab00000000000001", KeychainPool.keychainName(fingerprint));
+    }
+
+    @Test
+    public void shouldLetTheFirstBuildBuildTheKeychainWhileTheOthersWait() throws Exception {
+        KeychainPool.Lease first = acquire("shared", "jenkins-shared", "job#1");
+        assertTrue(first.isBuild());
+
+        Future<KeychainPool.Lease> second = executor.submit(new Callable<KeychainPool.Lease>() {
+            public KeychainPool.Lease call() throws Exception {
+                return acquire("shared", "jenkins-shared", "job#2");
+            }
+        });
+        try {
+            second.get(200, TimeUnit.MILLISECONDS);
+            fail("the keychain is still being built");
+        } catch (TimeoutException expected) {
+            // waiting for the first build
+        }
+
+        new KeychainPool.Built("jenkins-shared", "job#1", true).call();
+        KeychainPool.Lease reused = second.get(5, TimeUnit.SECONDS);
+        assertFalse(reused.isBuild());
+        assertEquals(first.getPassword(), reused.getPassword());
+    }
+
+    @Test
+    public void shouldBuildAgainAfterAFailedBuild() throws Exception {
+        assertTrue(acquire("failed", "jenkins-failed", "job#1").isBuild());
+        new KeychainPool.Built("jenkins-failed", "job#1", false).call();
+        assertTrue(acquire("failed", "jenkins-failed", "job#2").isBuild());
+    }
+
+    @Test
+    public void shouldDeleteTheKeychainOfAnOlderProfileOnceNobodyUsesIt() throws Exception {
+        acquire("changing", "jenkins-old", "job#1");
+        new KeychainPool.Built("jenkins-old", "job#1", true).call();
+
+        // the profile changed while job#1 still signs with the old keychain
+        KeychainPool.Lease changed = acquire("changing", "jenkins-new", "job#2");
+        assertTrue(changed.isBuild());
+        assertEquals(Collections.<String>emptyList(), changed.getObsolete());
+        new KeychainPool.Built("jenkins-new", "job#2", true).call();
+
+        assertTrue(new KeychainPool.Release("jenkins-old", "job#1").call());
+        assertFalse(new KeychainPool.Release("jenkins-new", "job#2").call());
+        assertFalse(acquire("changing", "jenkins-new", "job#3").isBuild());
+    }
+
+    @Test
+    public void shouldHandOverUnusedOlderKeychainsToTheNextBuild() throws Exception {
+        acquire("unused", "jenkins-unused-old", "job#1");
+        new KeychainPool.Built("jenkins-unused-old", "job#1", true).call();
+        assertFalse(new KeychainPool.Release("jenkins-unused-old", "job#1").call());
+
+        KeychainPool.Lease changed = acquire("unused", "jenkins-unused-new", "job#2");
+        assertEquals(Collections.singletonList("jenkins-unused-old"), changed.getObsolete());
+    }
+
+    @Test
+    public void shouldTakeOverFromABuildThatTakesTooLong() throws Exception {
+        KeychainPool.Lease hung = acquire("hung", "jenkins-hung", "job#1");
+        assertTrue(hung.isBuild());
+
+        KeychainPool.Lease takeover = new KeychainPool.Acquire("hung", "jenkins-hung", "job#2", 100).call();
+        assertTrue(takeover.isBuild());
+        assertNotEquals(hung.getPassword(), takeover.getPassword());
+
+        // what the build that was taken over reports is ignored
+        new KeychainPool.Built("jenkins-hung", "job#1", false).call();
+        new KeychainPool.Built("jenkins-hung", "job#2", true).call();
+        KeychainPool.Lease reused = acquire("hung", "jenkins-hung", "job#3");
+        assertFalse(reused.isBuild());
+        assertEquals(takeover.getPassword(), reused.getPassword());
+    }
+
+    @Test
+    public void shouldOnlyForgetTheKeychainThatCouldNotBeUnlocked() throws Exception {
+        acquire("deleted", "jenkins-deleted", "job#1");
+        new KeychainPool.Built("jenkins-deleted", "job#1", true).call();
+        KeychainPool.Lease second = acquire("deleted", "jenkins-deleted", "job#2");
+        KeychainPool.Lease third = acquire("deleted", "jenkins-deleted", "job#3");
+
+        // both fail to unlock it; the first to tell builds it again, without the other one undoing that
+        new KeychainPool.Forget("jenkins-deleted", second.getPassword()).call();
+        KeychainPool.Lease rebuilt = acquire("deleted", "jenkins-deleted", "job#2");
+        assertTrue(rebuilt.isBuild());
+        new KeychainPool.Forget("jenkins-deleted", third.getPassword()).call();
+        new KeychainPool.Built("jenkins-deleted", "job#2", true).call();
+        new KeychainPool.Forget("jenkins-deleted", third.getPassword()).call();
+
+        KeychainPool.Lease reused = acquire("deleted", "jenkins-deleted", "job#4");
+        assertFalse(reused.isBuild());
+        assertEquals(rebuilt.getPassword(), reused.getPassword());
+    }
+
+    private static KeychainPool.Lease acquire(String profileId, String keychain, String build) throws Exception {
+        return new KeychainPool.Acquire(profileId, keychain, build).call();
+    }
+}
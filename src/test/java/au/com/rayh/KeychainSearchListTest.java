@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KeychainSearchListTest {
+    @Test
+    public void shouldLeaveAnUnknownNodeAlone() {
+        KeychainSearchList.State state = new KeychainSearchList.State();
+        assertNull(state.searchList());
+        assertNull(state.defaultKeychain());
+    }
+
+    @Test
+    public void shouldMergeTheKeychainsOfTheRunningBuilds() {
+        KeychainSearchList.State state = new KeychainSearchList.State();
+        state.base = Arrays.asList("/login.keychain", "/ci.keychain");
+        state.baseDefault = "/login.keychain";
+
+        state.leases.put("a#1", "/a.keychain");
+        state.leases.put("b#1", "/b.keychain");
+        state.leases.put("a#2", "/a.keychain");
+        assertEquals(Arrays.asList("/a.keychain", "/b.keychain"), state.searchList());
+        assertEquals("/a.keychain", state.defaultKeychain());
+
+        // the first build completing leaves the default to the next one
+        state.leases.remove("a#1");
+        assertEquals(Arrays.asList("/b.keychain", "/a.keychain"), state.searchList());
+        assertEquals("/b.keychain", state.defaultKeychain());
+
+        state.leases.clear();
+        assertEquals(Arrays.asList("/login.keychain", "/ci.keychain"), state.searchList());
+        assertEquals("/login.keychain", state.defaultKeychain());
+    }
+
+    @Test
+    public void shouldRestoreAnEmptySearchList() {
+        KeychainSearchList.State state = new KeychainSearchList.State();
+        state.base = Collections.emptyList();
+        assertEquals(Collections.<String>emptyList(), state.searchList());
+        assertNull(state.defaultKeychain());
+    }
+}
@@ -140,4 +140,21 @@ class OutputParserTests {
         assertEquals(1,parser.currentTestSuite.getTests());
         assertEquals(1,parser.currentTestSuite.getFailures());
     }
-}
\ No newline at end of file
+
+	void shouldParseFailedWithExitCode() throws Exception {
+        parser.handleLine("failed with exit code 65");
+        assertEquals(65, parser.exitCode);
+        parser.handleLine("CompileC build/Foo.o Foo.m normal x86_64 objective-c failed with exit code 1");
+        assertEquals(65, parser.exitCode);
+    }
+
+	void shouldParseBuildAndTestFailed() throws Exception {
+        parser.handleLine("** BUILD FAILED **");
+        assertEquals(0, parser.exitCode);
+        parser.handleLine("** TEST FAILED **");
+        assertEquals(-1, parser.exitCode);
+        parser.exitCode = 0;
+        parser.handleLine("BUILD FAILED");
+        assertEquals(-1, parser.exitCode);
+    }
+}
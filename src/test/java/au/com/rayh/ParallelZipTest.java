@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelZipTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot();
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldZipLikeDittoKeepingTheParent() throws Exception {
+        File dSYM = new File(dir, "App.app.dSYM");
+        byte[] dwarf = dwarf(300 * 1024 + 123);
+        write(dSYM, "Contents/Resources/DWARF/App", dwarf);
+        write(dSYM, "Contents/Info.plist", "<plist/>".getBytes("UTF-8"));
+        write(dSYM, "Contents/Resources/Empty", new byte[0]);
+
+        File zip = zip(dSYM);
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            List<String> names = new ArrayList<>();
+            for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+                names.add(entries.nextElement().getName());
+            }
+            assertEquals("[App.app.dSYM/, App.app.dSYM/Contents/, App.app.dSYM/Contents/Info.plist, "
+                    + "App.app.dSYM/Contents/Resources/, App.app.dSYM/Contents/Resources/DWARF/, "
+                    + "App.app.dSYM/Contents/Resources/DWARF/App, App.app.dSYM/Contents/Resources/Empty]", names.toString());
+
+            ZipEntry entry = zipFile.getEntry("App.app.dSYM/Contents/Resources/DWARF/App");
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertEquals(dwarf.length, entry.getSize());
+            assertTrue(entry.getCompressedSize() < dwarf.length / 2);
+            try (InputStream in = zipFile.getInputStream(entry)) {
+                assertArrayEquals(dwarf, IOUtils.toByteArray(in));
+            }
+            assertTrue(zipFile.getEntry("App.app.dSYM/Contents/").isDirectory());
+        }
+    }
+
+    @Test
+    public void shouldBeReadableAsAStream() throws Exception {
+        File dSYM = new File(dir, "App.app.dSYM");
+        byte[] dwarf = dwarf(64 * 1024);
+        write(dSYM, "Contents/Resources/DWARF/App", dwarf);
+        write(dSYM, "Contents/Info.plist", "<plist/>".getBytes("UTF-8"));
+
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip(dSYM)))) {
+            int files = 0;
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                byte[] data = IOUtils.toByteArray(in);
+                if (entry.getName().endsWith("/DWARF/App")) {
+                    assertArrayEquals(dwarf, data);
+                    files++;
+                } else if (entry.getName().endsWith("/Info.plist")) {
+                    assertEquals("<plist/>", new String(data, "UTF-8"));
+                    files++;
+                }
+            }
+            assertEquals(2, files);
+        }
+    }
+
+    @Test
+    public void shouldNotLeaveAPartialZipBehind() throws Exception {
+        File zip = new File(dir, "App-dSYM.zip");
+        List<String> sources = new ArrayList<>();
+        sources.add(new File(dir, "Missing.app.dSYM").getPath());
+        try {
+            new ParallelZip.Create(sources).invoke(zip, null);
+        } catch (Exception expected) {
+            // the source cannot be read
+        }
+        assertTrue(!zip.exists());
+    }
+
+    private File zip(File source) throws Exception {
+        File zip = new File(dir, "App-dSYM.zip");
+        // small pieces, so that every file spans several of them
+        try (ParallelZip writer = new ParallelZip(new FileOutputStream(zip), executor, 4096)) {
+            writer.add(source);
+        }
+        return zip;
+    }
+
+    private static byte[] dwarf(int length) {
+        // compressible, but not trivially: random words from a small vocabulary
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        String[] words = {"DW_TAG_subprogram ", "DW_AT_name ", "DW_AT_low_pc ", "0x", "\0", "Swift.String "};
+        while (out.size() < length) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            out.write(word, 0, word.length);
+            out.write(random.nextInt(256));
+        }
+        byte[] bytes = out.toByteArray();
+        byte[] exact = new byte[length];
+        System.arraycopy(bytes, 0, exact, 0, length);
+        return exact;
+    }
+
+    private static void write(File root, String path, byte[] content) throws Exception {
+        FileUtils.writeByteArrayToFile(new File(root, path), content);
+    }
+}
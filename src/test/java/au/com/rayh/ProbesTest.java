@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProbesTest {
+    @Test
+    public void shouldRunProbesAtTheSameTime() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        try (Probes probes = new Probes("test#1")) {
+            Future<String> first = probes.start(new Rendezvous(bothStarted, "first"));
+            Future<String> second = probes.start(new Rendezvous(bothStarted, "second"));
+            assertEquals("first", Probes.get(first));
+            assertEquals("second", Probes.get(second));
+        }
+    }
+
+    @Test
+    public void shouldFailTheWayTheProbeDid() throws Exception {
+        try (Probes probes = new Probes("test#1")) {
+            Future<String> probe = probes.start(new Callable<String>() {
+                public String call() throws IOException {
+                    throw new IOException("unreadable");
+                }
+            });
+            Probes.get(probe);
+            fail();
+        } catch (IOException e) {
+            assertEquals("unreadable", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldCancelProbesLeftRunning() throws Exception {
+        Future<String> probe;
+        try (Probes probes = new Probes("test#1")) {
+            probe = probes.start(new Rendezvous(new CountDownLatch(2), "never"));
+        }
+        assertTrue(probe.isCancelled());
+    }
+
+    @Test
+    public void shouldCountTheCallsToTheNode() throws Exception {
+        try (Probes probes = new Probes("test#1")) {
+            Probes.get(probes.start(new Rendezvous(new CountDownLatch(1), "local")));
+            assertEquals(0, probes.getRemotingCalls());
+
+            FilePath root = new FilePath(new File("."));
+            assertEquals("1", Probes.get(probes.act(root, new Echo("1"))));
+            assertEquals("2", Probes.get(probes.act(root, new Echo("2"))));
+            assertEquals(2, probes.getRemotingCalls());
+        }
+    }
+
+    private static final class Echo extends MasterToSlaveFileCallable<String> {
+        private final String value;
+
+        Echo(String value) {
+            this.value = value;
+        }
+
+        public String invoke(File f, VirtualChannel channel) {
+            return value;
+        }
+    }
+
+    private static final class Rendezvous implements Callable<String> {
+        private final CountDownLatch started;
+        private final String result;
+
+        Rendezvous(CountDownLatch started, String result) {
+            this.started = started;
+            this.result = result;
+        }
+
+        public String call() throws InterruptedException {
+            started.countDown();
+            // only returns once every probe sharing the latch is running
+            started.await();
+            return result;
+        }
+    }
+}
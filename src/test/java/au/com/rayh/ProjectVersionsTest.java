@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import au.com.rayh.plist.PropertyList;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProjectVersionsTest {
+    private static final String PBXPROJ = "Versioned.xcodeproj/project.pbxproj";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File projectRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        projectRoot = new File(tmp.getRoot(), "project");
+        FileUtils.copyDirectory(FileUtils.toFile(ClassLoader.getSystemResource("VersionedProject")), projectRoot);
+    }
+
+    @Test
+    public void shouldReadVersionsLikeAgvtool() throws Exception {
+        ProjectVersions.Versions versions = new ProjectVersions.Read(null).invoke(projectRoot, null);
+
+        assertEquals("2.1", versions.getMarketingVersion());
+        assertEquals("12", versions.getProjectVersion());
+    }
+
+    @Test
+    public void shouldResolveReferencesToBuildSettings() throws Exception {
+        FileUtils.deleteQuietly(new File(projectRoot, "App/Info.plist"));
+
+        ProjectVersions.Versions versions = new ProjectVersions.Read("Versioned.xcodeproj").invoke(projectRoot, null);
+
+        assertEquals("2.1", versions.getMarketingVersion());
+    }
+
+    @Test
+    public void shouldReportChangesWithoutWritingOnADryRun() throws Exception {
+        String pbxproj = read(PBXPROJ);
+        String appPlist = read("App/Info.plist");
+
+        List<ProjectVersions.Change> changes = new ProjectVersions.Update(null, "3.0", "13", true).invoke(projectRoot, null);
+
+        assertEquals(Arrays.asList(
+                PBXPROJ + ": CURRENT_PROJECT_VERSION (Debug) 12 -> 13",
+                PBXPROJ + ": CURRENT_PROJECT_VERSION (Release) 12 -> 13",
+                PBXPROJ + ": MARKETING_VERSION (Debug) 2.1 -> 3.0",
+                PBXPROJ + ": MARKETING_VERSION (Release) 2.1 -> 3.0",
+                "App" + File.separator + "Info.plist: CFBundleVersion 12 -> 13",
+                "App" + File.separator + "Info.plist: CFBundleShortVersionString 2.1 -> 3.0"),
+                describe(changes));
+        assertEquals(pbxproj, read(PBXPROJ));
+        assertEquals(appPlist, read("App/Info.plist"));
+    }
+
+    @Test
+    public void shouldOnlyChangeTheVersions() throws Exception {
+        String pbxproj = read(PBXPROJ);
+        byte[] widgetPlist = FileUtils.readFileToByteArray(new File(projectRoot, "Widget/Info.plist"));
+
+        new ProjectVersions.Update(null, "3.0 beta", "13", false).invoke(projectRoot, null);
+
+        assertEquals(pbxproj.replace("CURRENT_PROJECT_VERSION = 12;", "CURRENT_PROJECT_VERSION = 13;")
+                .replace("MARKETING_VERSION = 2.1;", "MARKETING_VERSION = \"3.0 beta\";"), read(PBXPROJ));
+        assertTrue(Arrays.equals(widgetPlist, FileUtils.readFileToByteArray(new File(projectRoot, "Widget/Info.plist"))));
+        ProjectVersions.Versions versions = new ProjectVersions.Read(null).invoke(projectRoot, null);
+        assertEquals("3.0 beta", versions.getMarketingVersion());
+        assertEquals("13", versions.getProjectVersion());
+        assertEquals("$(PRODUCT_BUNDLE_IDENTIFIER)", PropertyList.get(PropertyList.parse(
+                FileUtils.readFileToByteArray(new File(projectRoot, "App/Info.plist"))), ":CFBundleIdentifier"));
+
+        assertEquals(0, new ProjectVersions.Update(null, "3.0 beta", "13", false).invoke(projectRoot, null).size());
+    }
+
+    @Test
+    public void shouldAddTheBuildNumberToTheProjectWhenNoneIsSet() throws Exception {
+        String pbxproj = read(PBXPROJ).replace("\t\t\t\tCURRENT_PROJECT_VERSION = 12;\n", "");
+        FileUtils.writeStringToFile(new File(projectRoot, PBXPROJ), pbxproj, "UTF-8");
+
+        List<ProjectVersions.Change> changes = new ProjectVersions.Update(null, null, "1", false).invoke(projectRoot, null);
+
+        assertEquals(PBXPROJ + ": CURRENT_PROJECT_VERSION (Debug)  -> 1", describe(changes).get(0));
+        assertEquals(pbxproj.replace("\t\t\t\tGCC_PREPROCESSOR_DEFINITIONS", "\t\t\t\tCURRENT_PROJECT_VERSION = 1;\n\t\t\t\tGCC_PREPROCESSOR_DEFINITIONS")
+                .replace("\t\t\t\tSDKROOT = iphoneos;\n\t\t\t\tVERSIONING_SYSTEM", "\t\t\t\tCURRENT_PROJECT_VERSION = 1;\n\t\t\t\tSDKROOT = iphoneos;\n\t\t\t\tVERSIONING_SYSTEM"),
+                read(PBXPROJ));
+        assertEquals("1", new ProjectVersions.Read(null).invoke(projectRoot, null).getProjectVersion());
+    }
+
+    @Test
+    public void shouldLeaveAmbiguousDirectoriesToAgvtool() throws Exception {
+        FileUtils.copyDirectory(new File(projectRoot, "Versioned.xcodeproj"), new File(projectRoot, "Other.xcodeproj"));
+
+        assertNull(new ProjectVersions.Read(null).invoke(projectRoot, null));
+        assertNull(new ProjectVersions.Update(null, "1.0", "1", true).invoke(projectRoot, null));
+    }
+
+    private static List<String> describe(List<ProjectVersions.Change> changes) {
+        List<String> descriptions = new ArrayList<>();
+        for (ProjectVersions.Change change : changes) {
+            descriptions.add(change.getFile() + ": " + change.getKey() + " " + change.getOldValue() + " -> " + change.getNewValue());
+        }
+        return descriptions;
+    }
+
+    private String read(String path) throws Exception {
+        return FileUtils.readFileToString(new File(projectRoot, path), "UTF-8");
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProvisioningProfilesTest {
+    private static final byte[] SIGNED_DATA = {0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x07, 0x02};
+    private static final byte[] DATA = {0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x07, 0x01};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private String userHome;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot();
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", dir.getPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.setProperty("user.home", userHome);
+    }
+
+    @Test
+    public void shouldReadTheProfileFromItsEnvelope() throws Exception {
+        byte[] plist = plist("8a9a7b8c-0000-4000-8000-000000000001", "App Store", "2030-01-01T00:00:00Z");
+        assertArrayEquals(plist, ProvisioningProfiles.content(definite(plist)));
+        assertArrayEquals(plist, ProvisioningProfiles.content(indefinite(plist)));
+
+        ProvisioningProfiles.Profile profile = ProvisioningProfiles.decode("app.mobileprovision", indefinite(plist));
+        assertEquals("8a9a7b8c-0000-4000-8000-000000000001", profile.getUuid());
+        assertEquals("App Store", profile.getName());
+        assertFalse(profile.isExpired(new Date(0)));
+        assertTrue(profile.isExpired(new Date(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void shouldRejectWhatIsNotAnEnvelope() {
+        try {
+            ProvisioningProfiles.content("<plist/>".getBytes());
+            fail();
+        } catch (IOException expected) {
+            // not DER
+        }
+        try {
+            ProvisioningProfiles.content(der(0x30, der(0x06, DATA)));
+            fail();
+        } catch (IOException expected) {
+            // not signed data
+        }
+    }
+
+    @Test
+    public void shouldOnlyInstallTheProfilesThatChanged() throws Exception {
+        byte[] first = definite(plist("8a9a7b8c-0000-4000-8000-000000000001", "App Store", "2030-01-01T00:00:00Z"));
+        Map<String, byte[]> profiles = Collections.singletonMap("app.mobileprovision", first);
+
+        ProvisioningProfiles.Synced synced = new ProvisioningProfiles.Sync(profiles).call();
+        assertEquals(1, synced.getInstalled().size());
+        File installed = new File(dir, ProvisioningProfiles.DIRECTORY + "/8a9a7b8c-0000-4000-8000-000000000001.mobileprovision");
+        assertArrayEquals(first, FileUtils.readFileToByteArray(installed));
+
+        synced = new ProvisioningProfiles.Sync(profiles).call();
+        assertEquals(0, synced.getInstalled().size());
+        assertEquals(1, synced.getUnchanged().size());
+
+        // renewed under the same UUID
+        byte[] renewed = definite(plist("8a9a7b8c-0000-4000-8000-000000000001", "App Store", "2031-01-01T00:00:00Z"));
+        synced = new ProvisioningProfiles.Sync(Collections.singletonMap("app.mobileprovision", renewed)).call();
+        assertEquals(1, synced.getInstalled().size());
+        assertArrayEquals(renewed, FileUtils.readFileToByteArray(installed));
+
+        // changed behind our back
+        FileUtils.writeByteArrayToFile(installed, first);
+        assertTrue(installed.setLastModified(installed.lastModified() - 60000));
+        synced = new ProvisioningProfiles.Sync(Collections.singletonMap("app.mobileprovision", renewed)).call();
+        assertEquals(1, synced.getInstalled().size());
+    }
+
+    private static byte[] plist(String uuid, String name, String expiration) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n"
+                + "<plist version=\"1.0\"><dict>"
+                + "<key>Entitlements</key><dict><key>application-identifier</key><string>ABCDE12345.com.example.*</string></dict>"
+                + "<key>ExpirationDate</key><date>" + expiration + "</date>"
+                + "<key>Name</key><string>" + name + "</string>"
+                + "<key>TeamIdentifier</key><array><string>ABCDE12345</string></array>"
+                + "<key>UUID</key><string>" + uuid + "</string>"
+                + "</dict></plist>").getBytes();
+    }
+
+    /**
+     * A signed-data envelope in DER, without signers.
+     */
+    private static byte[] definite(byte[] content) throws IOException {
+        return der(0x30, der(0x06, SIGNED_DATA), der(0xA0, der(0x30,
+                der(0x02, new byte[] {1}),
+                der(0x31),
+                der(0x30, der(0x06, DATA), der(0xA0, der(0x04, content))),
+                der(0x31))));
+    }
+
+    /**
+     * The same envelope in BER, with indefinite lengths and the content split in two, as Apple writes them.
+     */
+    private static byte[] indefinite(byte[] content) throws IOException {
+        int half = content.length / 2;
+        byte[] pieces = cat(der(0x04, Arrays.copyOf(content, half)),
+                der(0x04, Arrays.copyOfRange(content, half, content.length)));
+        return ber(0x30, der(0x06, SIGNED_DATA), ber(0xA0, ber(0x30,
+                der(0x02, new byte[] {1}),
+                der(0x31),
+                ber(0x30, der(0x06, DATA), ber(0xA0, ber(0x24, pieces))),
+                der(0x31))));
+    }
+
+    private static byte[] der(int tag, byte[]... contents) throws IOException {
+        byte[] content = cat(contents);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        if (content.length < 0x80) {
+            out.write(content.length);
+        } else {
+            out.write(0x82);
+            out.write(content.length >> 8);
+            out.write(content.length);
+        }
+        out.write(content);
+        return out.toByteArray();
+    }
+
+    private static byte[] ber(int tag, byte[]... contents) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        out.write(0x80);
+        out.write(cat(contents));
+        out.write(new byte[2]);
+        return out.toByteArray();
+    }
+
+    private static byte[] cat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SuiteTimestampParserTest {
+    private static final String[] TIMESTAMPS = {
+        "2014-12-12 05:02:01 +0000",
+        "2014-12-12 05:02:01 -0800",
+        "2014-12-12 05:02:01 +0530",
+        "2010-10-02 13:39:22 GMT 0000",
+        "2010-10-02 13:39:22 GMT",
+        "2010-10-02 13:39:22 UTC",
+        "2010-10-02 13:39:22 PST",
+        "2010-07-02 13:39:22 PDT",
+        "2000-02-29 23:59:59 +0000",
+        "1969-12-31 23:59:59 +0000",
+        "2019-03-04 10:00:00.000",
+        "2019-07-04 10:00:00.123",
+        "2019-07-04 10:00:00.5",
+        "2019-03-31 02:30:00.000",
+        "2019-10-27 02:30:00.000",
+        "2019-03-10 02:30:00.000",
+        "2019-11-03 01:30:00.000",
+    };
+
+    @Test
+    public void shouldParseLikeSimpleDateFormat() throws Exception {
+        SuiteTimestampParser parser = new SuiteTimestampParser(TimeZone.getDefault());
+        for (String timestamp : TIMESTAMPS) {
+            assertEquals(timestamp, parseWithSimpleDateFormat(timestamp), parser.parse(timestamp));
+        }
+    }
+
+    @Test
+    public void shouldParseLocalTimesInTheGivenZone() throws Exception {
+        SuiteTimestampParser parser = new SuiteTimestampParser(TimeZone.getTimeZone("Europe/Paris"));
+        assertEquals(new Date(Date.UTC(119, 2, 4, 9, 0, 0) + 250), parser.parse("2019-03-04 10:00:00.250"));
+        assertEquals(new Date(Date.UTC(119, 6, 4, 8, 0, 0)), parser.parse("2019-07-04 10:00:00.000"));
+    }
+
+    @Test(expected = ParseException.class)
+    public void shouldRejectTextThatIsNotATimestamp() throws Exception {
+        new SuiteTimestampParser(TimeZone.getDefault()).parse("yesterday");
+    }
+
+    @Test
+    public void shouldCountDaysLikeGregorianCalendar() {
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(1900, Calendar.JANUARY, 1);
+        while (calendar.get(Calendar.YEAR) < 2100) {
+            long days = SuiteTimestampParser.daysFromCivil(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                    calendar.get(Calendar.DAY_OF_MONTH));
+            assertEquals(calendar.getTimeInMillis(), days * 24 * 60 * 60 * 1000);
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+    }
+
+    @Test
+    public void shouldParseConcurrently() throws Exception {
+        final SuiteTimestampParser parser = new SuiteTimestampParser(TimeZone.getDefault());
+        final List<Date> expected = new ArrayList<>();
+        for (String timestamp : TIMESTAMPS) {
+            expected.add(parseWithSimpleDateFormat(timestamp));
+        }
+        runConcurrently(new Callable<Void>() {
+            public Void call() throws Exception {
+                for (int i = 0; i < 20000; i++) {
+                    int n = i % TIMESTAMPS.length;
+                    assertEquals(TIMESTAMPS[n], expected.get(n), parser.parse(TIMESTAMPS[n]));
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void shouldParseSuiteTimesWithManyParsersConcurrently() throws Exception {
+        runConcurrently(new Callable<Void>() {
+            public Void call() throws Exception {
+                XCodeBuildOutputParser parser = new XCodeBuildOutputParser(new File("."), new ByteArrayOutputStream());
+                for (int i = 0; i < 2000; i++) {
+                    int day = 1 + i % 28;
+                    int second = i % 60;
+                    parser.handleLine(String.format("Test Suite 'Suite%d' started at 2014-12-%02d 05:02:%02d +0000", i, day, second));
+                    assertEquals(new Date(Date.UTC(114, 11, day, 5, 2, second)), parser.currentTestSuite.getStartTime());
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Date parseWithSimpleDateFormat(String text) throws ParseException {
+        DateFormat[] dateFormats = {
+            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z"),
+            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS")
+        };
+        try {
+            return dateFormats[0].parse(text);
+        } catch (ParseException e) {
+            return dateFormats[1].parse(text);
+        }
+    }
+
+    private static void runConcurrently(Callable<Void> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ToolchainFactsTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private String userHome;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = tmp.getRoot();
+        userHome = System.getProperty("user.home");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.setProperty("user.home", userHome);
+    }
+
+    @Test
+    public void shouldFindTheDeveloperDirectoryOfATool() {
+        assertEquals("/opt/Xcode.app/Contents/Developer", ToolchainFacts.developerDir("/opt/Xcode.app/Contents/Developer", "/usr/bin/xcodebuild"));
+        assertEquals("/Applications/Xcode-9.4.app/Contents/Developer",
+                ToolchainFacts.developerDir(null, "/Applications/Xcode-9.4.app/Contents/Developer/usr/bin/xcodebuild"));
+        assertNotNull(ToolchainFacts.developerDir("", "/usr/bin/xcodebuild"));
+    }
+
+    @Test
+    public void shouldStampXcodeByItsFiles() throws Exception {
+        File developer = new File(dir, "Xcode.app/Contents/Developer");
+        assertNull(stamp(ToolchainFacts.Source.XCODE, developer));
+
+        assertTrue(new File(developer, "Platforms").mkdirs());
+        write("Xcode.app/Contents/version.plist", "9.4");
+        String before = stamp(ToolchainFacts.Source.XCODE, developer);
+        assertEquals(before, stamp(ToolchainFacts.Source.XCODE, developer));
+
+        write("Xcode.app/Contents/version.plist", "10.0");
+        assertNotEquals(before, stamp(ToolchainFacts.Source.XCODE, developer));
+    }
+
+    @Test
+    public void shouldStampKeychainsBySearchListContents() throws Exception {
+        System.setProperty("user.home", dir.getPath());
+        assertNull(stamp(ToolchainFacts.Source.KEYCHAINS, null));
+
+        write("Library/Keychains/login.keychain-db", "login");
+        write("Library/Preferences/com.apple.security.plist", "login");
+        String before = stamp(ToolchainFacts.Source.KEYCHAINS, null);
+
+        File searchList = new File(dir, "Library/Preferences/com.apple.security.plist");
+        assertTrue(searchList.setLastModified(searchList.lastModified() - 60000));
+        assertEquals(before, stamp(ToolchainFacts.Source.KEYCHAINS, null));
+
+        write("Library/Preferences/com.apple.security.plist", "login ci");
+        assertNotEquals(before, stamp(ToolchainFacts.Source.KEYCHAINS, null));
+    }
+
+    private static String stamp(ToolchainFacts.Source source, File developer) throws Exception {
+        return new ToolchainFacts.Stamp(source, developer != null ? developer.getPath() : null, "/usr/bin/xcodebuild").call();
+    }
+
+    private void write(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(dir, path), content, "UTF-8");
+    }
+}
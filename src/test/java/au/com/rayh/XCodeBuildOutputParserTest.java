@@ -33,19 +33,30 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Arrays;
 
 import hudson.util.IOUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  *
  * @author ray
  */
 public class XCodeBuildOutputParserTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     OutputParserTests test;
 
     @Before
@@ -108,6 +119,16 @@ public class XCodeBuildOutputParserTest {
     	test.shouldParseFailedTestCase();
     }
 
+    @Test
+    public void shouldParseFailedWithExitCode() throws Exception {
+    	test.shouldParseFailedWithExitCode();
+    }
+
+    @Test
+    public void shouldParseBuildAndTestFailed() throws Exception {
+    	test.shouldParseBuildAndTestFailed();
+    }
+
     @Test
     public void shouldParseFullXCPassingTestOutput1() throws IOException {
         XCodeBuildOutputParser parser = parseTestOutput("/XCTest_output_passing_1.txt");
@@ -133,6 +154,141 @@ public class XCodeBuildOutputParserTest {
         assertEquals(-1, parser.getExitCode());
     }
 
+    @Test
+    public void shouldDecodeNonAsciiLinesSplitAcrossWrites() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        XCodeBuildOutputParser parser = new XCodeBuildOutputParser(new File("."), output);
+        byte[] line = "Test Suite 'Pr\u00fcfungT\u00e9sts\u6d4b\u8bd5' started at 2014-12-12 05:12:52 +0000\n".getBytes("UTF-8");
+        // small writes so that multi-byte characters straddle write boundaries
+        for (int i = 0; i < line.length; i += 3) {
+            parser.getOutputStream().write(line, i, Math.min(3, line.length - i));
+        }
+        assertEquals("Pr\u00fcfungT\u00e9sts\u6d4b\u8bd5", parser.currentTestSuite.getName());
+        assertArrayEquals(line, output.toByteArray());
+    }
+
+    @Test
+    public void shouldReportAllCasesOfLargeSuites() throws Exception {
+        File reportsDir = tmp.newFolder("test-reports");
+        XCodeBuildOutputParser parser = new XCodeBuildOutputParser(reportsDir, new ByteArrayOutputStream());
+        PrintStream log = new PrintStream(parser.getOutputStream(), true, "UTF-8");
+        log.println("Test Suite 'LargeTests' started at 2014-12-12 05:02:01 +0000");
+        for (int i = 0; i < 1000; i++) {
+            log.println("Test Case '-[LargeTests test" + i + "]' started.");
+            log.println("Test Case '-[LargeTests test" + i + "]' passed (0.001 seconds).");
+        }
+        log.println("Test Suite 'LargeTests' passed at 2014-12-12 05:02:02 +0000.");
+
+        String report = FileUtils.readFileToString(new File(reportsDir, "TEST-LargeTests.xml"), "UTF-8");
+        assertTrue(report.contains("tests=\"1000\""));
+        assertEquals(1000, StringUtils.countMatches(report, "<testcase "));
+        assertTrue(report.indexOf("name=\"test0\"") < report.indexOf("name=\"test999\""));
+    }
+
+    @Test
+    public void shouldDeleteTheSpoolOfASuiteThatNeverEnds() throws Exception {
+        File reportsDir = tmp.newFolder("test-reports");
+        XCodeBuildOutputParser parser = new XCodeBuildOutputParser(reportsDir, new ByteArrayOutputStream());
+        PrintStream log = new PrintStream(parser.getOutputStream(), true, "UTF-8");
+        log.println("Test Suite 'LargeTests' started at 2014-12-12 05:02:01 +0000");
+        for (int i = 0; i < 100; i++) {
+            log.println("Test Case '-[LargeTests test" + i + "]' started.");
+            log.println("Test Case '-[LargeTests test" + i + "]' passed (0.001 seconds).");
+        }
+        assertEquals(1, reportsDir.list().length);
+
+        parser.awaitReports();
+        assertEquals(0, reportsDir.list().length);
+    }
+
+    @Test
+    public void shouldDemultiplexParallelTestOutput() throws Exception {
+        File reportsDir = tmp.newFolder("test-reports");
+        XCodeBuildOutputParser parser = new XCodeBuildOutputParser(reportsDir, new ByteArrayOutputStream());
+        parser.setParallelTesting(true);
+        IOUtils.copy(getClass().getResourceAsStream("/XCTest_output_parallel_1.txt"), parser.getOutputStream());
+        parser.awaitReports();
+        assertEquals(-1, parser.getExitCode());
+        assertEquals(3, parser.getReportedSuites());
+        assertEquals(6, parser.getReportedTests());
+        assertEquals(2, parser.getReportedFailures());
+        assertEquals(0, parser.getReportedErrors());
+
+        String[] reports = reportsDir.list();
+        Arrays.sort(reports);
+        assertArrayEquals(new String[] { "TEST-CardTestCase.xml", "TEST-DeckTestCase.xml", "TEST-HandTestCase.xml" }, reports);
+
+        String card = FileUtils.readFileToString(new File(reportsDir, "TEST-CardTestCase.xml"), "UTF-8");
+        assertTrue(card.contains("failures=\"0\" errors=\"0\""));
+        assertTrue(card.contains("tests=\"2\""));
+        assertEquals(2, StringUtils.countMatches(card, "<testcase classname=\"CardTestCase\""));
+
+        String deck = FileUtils.readFileToString(new File(reportsDir, "TEST-DeckTestCase.xml"), "UTF-8");
+        assertTrue(deck.contains("failures=\"1\" errors=\"0\""));
+        assertTrue(deck.contains("tests=\"2\""));
+        assertTrue(deck.contains("<testcase classname=\"DeckTestCase\" name=\"testDrawCardFromEmptyDeckAnswersNoCard\" time=\"0.002\"><failure"));
+        assertTrue(deck.contains("<testcase classname=\"DeckTestCase\" name=\"testOneCardDeckShouldAnswerThatCard\" time=\"0.003\"/>"));
+
+        String hand = FileUtils.readFileToString(new File(reportsDir, "TEST-HandTestCase.xml"), "UTF-8");
+        assertTrue(hand.contains("failures=\"1\" errors=\"0\""));
+        assertTrue(hand.contains("tests=\"2\""));
+        assertTrue(hand.contains("XCTAssertEqual failed"));
+    }
+
+    @Test
+    public void shouldKeepTheReportOfASuiteCutShortByACrash() throws Exception {
+        File reportsDir = tmp.newFolder("test-reports");
+        XCodeBuildOutputParser parser = new XCodeBuildOutputParser(reportsDir, new ByteArrayOutputStream());
+        parser.setParallelTesting(true);
+        PrintStream log = new PrintStream(parser.getOutputStream(), true, "UTF-8");
+        log.println("Test Suite 'CardTestCase' started at 2019-03-04 10:00:00.003");
+        log.println("Test Case '-[CardTestCase testDoesNotMatchDifferentCard]' started.");
+        log.println("2019-03-04 10:00:00.005 xctest[2422:5067215] *** Terminating app due to uncaught exception 'NSInternalInconsistencyException', reason: 'No card'");
+        // another clone restarts the suite
+        log.println("Test Suite 'CardTestCase' started at 2019-03-04 10:00:01.003");
+        log.println("Test Case '-[CardTestCase testMatchesForAtLeastOneCard]' started.");
+        log.println("Test Case '-[CardTestCase testMatchesForAtLeastOneCard]' passed (0.001 seconds).");
+        log.println("Test Suite 'CardTestCase' passed at 2019-03-04 10:00:01.010.");
+        parser.awaitReports();
+        assertEquals(-1, parser.getExitCode());
+        assertEquals(2, parser.getReportedSuites());
+        assertEquals(1, parser.getReportedErrors());
+
+        String crashed = FileUtils.readFileToString(new File(reportsDir, "TEST-CardTestCase.xml"), "UTF-8");
+        assertTrue(crashed.contains("name=\"testDoesNotMatchDifferentCard\""));
+        assertTrue(crashed.contains("No card"));
+        String restarted = FileUtils.readFileToString(new File(reportsDir, "TEST-CardTestCase-2.xml"), "UTF-8");
+        assertTrue(restarted.contains("name=\"testMatchesForAtLeastOneCard\""));
+        assertTrue(restarted.contains("errors=\"0\""));
+    }
+
+    @Test
+    public void shouldNotAttributeACrashWhenSeveralTestCasesAreRunning() throws Exception {
+        File reportsDir = tmp.newFolder("test-reports");
+        XCodeBuildOutputParser parser = new XCodeBuildOutputParser(reportsDir, new ByteArrayOutputStream());
+        parser.setParallelTesting(true);
+        PrintStream log = new PrintStream(parser.getOutputStream(), true, "UTF-8");
+        log.println("Test Case '-[CardTestCase testDoesNotMatchDifferentCard]' started.");
+        log.println("Test Case '-[DeckTestCase testOneCardDeckShouldAnswerThatCard]' started.");
+        log.println("t =    29.77s             Assertion Failure: DeckTestCase.m:31: UI Testing Failure - No matches found for Alert");
+        log.println("2019-03-04 10:00:00.005 xctest[2422:5067215] *** Terminating app due to uncaught exception 'NSInternalInconsistencyException', reason: 'No card'");
+        log.println("Test Case '-[CardTestCase testDoesNotMatchDifferentCard]' passed (0.001 seconds).");
+        log.println("Test Case '-[DeckTestCase testOneCardDeckShouldAnswerThatCard]' passed (0.003 seconds).");
+        parser.awaitReports();
+        assertEquals(-1, parser.getExitCode());
+        assertEquals(2, parser.getReportedSuites());
+        assertEquals(2, parser.getReportedTests());
+        assertEquals(0, parser.getReportedErrors());
+
+        String deck = FileUtils.readFileToString(new File(reportsDir, "TEST-DeckTestCase.xml"), "UTF-8");
+        assertFalse(deck.contains("<failure"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldNotParseParallelTestOutputSerially() throws IOException {
+        parseTestOutput("/XCTest_output_parallel_1.txt");
+    }
+
     private XCodeBuildOutputParser parseTestOutput(String outputFileName) throws IOException {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         XCodeBuildOutputParser parser = new XCodeBuildOutputParser(new File("."), output);
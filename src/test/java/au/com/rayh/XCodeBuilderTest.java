@@ -71,4 +71,18 @@ public class XCodeBuilderTest {
         assertEquals(asList("A=B", "CODE_SIGN_IDENTITY=iPhone"),
             XCodeBuilder.splitXcodeBuildArguments("A=B CODE_SIGN_IDENTITY='iPhone"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldDetectParallelTesting() throws Exception {
+        assertTrue(XCodeBuilder.isParallelTestingEnabled(
+            XCodeBuilder.splitXcodeBuildArguments("-parallel-testing-enabled YES -parallel-testing-worker-count 4")));
+        assertTrue(XCodeBuilder.isParallelTestingEnabled(
+            XCodeBuilder.splitXcodeBuildArguments("A=B -parallel-testing-enabled yes")));
+        assertFalse(XCodeBuilder.isParallelTestingEnabled(
+            XCodeBuilder.splitXcodeBuildArguments("-parallel-testing-enabled NO")));
+        assertFalse(XCodeBuilder.isParallelTestingEnabled(
+            XCodeBuilder.splitXcodeBuildArguments("-parallel-testing-enabled")));
+        assertFalse(XCodeBuilder.isParallelTestingEnabled(
+            XCodeBuilder.splitXcodeBuildArguments("A=B")));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class XcodeBuildListCacheTest {
+    private static final List<String> LIST = Arrays.asList("/usr/bin/xcodebuild", "-list", "-workspace", "App.xcworkspace");
+    private static final String XCODE_9 = "Xcode 9.4.1\nBuild version 9F2000\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File projectRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        projectRoot = tmp.getRoot();
+        write("App.xcworkspace/contents.xcworkspacedata",
+                "<Workspace version = \"1.0\"><FileRef location = \"group:App/App.xcodeproj\"></FileRef></Workspace>");
+        write("App/App.xcodeproj/project.pbxproj", "// !$*UTF8*$!\n{ objects = { }; }\n");
+        write("App/App.xcodeproj/xcshareddata/xcschemes/App.xcscheme", "<Scheme/>");
+        write("App/App.xcodeproj/xcuserdata/ci.xcuserdatad/UserInterfaceState.xcuserstate", "state");
+        write("App/AppDelegate.swift", "import UIKit");
+    }
+
+    @Test
+    public void shouldKeepFingerprintWhenOnlySourcesChange() throws Exception {
+        String before = fingerprint(LIST, XCODE_9);
+        write("App/AppDelegate.swift", "import Foundation");
+        write("App/App.xcodeproj/xcuserdata/ci.xcuserdatad/UserInterfaceState.xcuserstate", "other state");
+        assertEquals(before, fingerprint(LIST, XCODE_9));
+    }
+
+    @Test
+    public void shouldChangeFingerprintWhenProjectOfWorkspaceChanges() throws Exception {
+        String before = fingerprint(LIST, XCODE_9);
+        write("App/App.xcodeproj/project.pbxproj", "// !$*UTF8*$!\n{ objects = { A = { isa = PBXNativeTarget; }; }; }\n");
+        assertNotEquals(before, fingerprint(LIST, XCODE_9));
+    }
+
+    @Test
+    public void shouldChangeFingerprintWhenSchemesChange() throws Exception {
+        String before = fingerprint(LIST, XCODE_9);
+        write("App/App.xcodeproj/xcshareddata/xcschemes/AppTests.xcscheme", "<Scheme/>");
+        assertNotEquals(before, fingerprint(LIST, XCODE_9));
+    }
+
+    @Test
+    public void shouldChangeFingerprintWithXcodeVersionAndCommandLine() throws Exception {
+        String before = fingerprint(LIST, XCODE_9);
+        assertNotEquals(before, fingerprint(LIST, "Xcode 10.1\nBuild version 10B61\n"));
+        assertNotEquals(before, fingerprint(Arrays.asList("/usr/bin/xcodebuild", "-list"), XCODE_9));
+    }
+
+    @Test
+    public void shouldReadWhatWasPut() throws Exception {
+        File entry = new File(tmp.getRoot(), "cache/abc.txt");
+        assertNull(new XcodeBuildListCache.Get().invoke(entry, null));
+        new XcodeBuildListCache.Put("Information about project \"App\":").invoke(entry, null);
+        new XcodeBuildListCache.Put("Information about workspace \"App\":").invoke(entry, null);
+        assertEquals("Information about workspace \"App\":", new XcodeBuildListCache.Get().invoke(entry, null));
+        assertArrayEquals(new String[] { "abc.txt" }, entry.getParentFile().list());
+    }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedEntries() throws Exception {
+        File cache = tmp.newFolder("cache");
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            File entry = new File(cache, i + ".txt");
+            FileUtils.writeStringToFile(entry, "list " + i, "UTF-8");
+            assertTrue(entry.setLastModified(now - (5 - i) * 60000L));
+        }
+        File abandoned = new File(cache, "0.txt123.tmp");
+        FileUtils.writeStringToFile(abandoned, "list", "UTF-8");
+        assertTrue(abandoned.setLastModified(now - XcodeBuildListCache.ABANDONED_MILLIS - 1));
+        File writing = new File(cache, "1.txt456.tmp");
+        FileUtils.writeStringToFile(writing, "list", "UTF-8");
+
+        XcodeBuildListCache.evict(cache, 3, now);
+        String[] left = cache.list();
+        Arrays.sort(left);
+        assertArrayEquals(new String[] { "1.txt456.tmp", "2.txt", "3.txt", "4.txt" }, left);
+    }
+
+    private String fingerprint(List<String> commandLine, String xcodeVersion) throws Exception {
+        return new XcodeBuildListCache.Fingerprint(commandLine, xcodeVersion).invoke(projectRoot, null);
+    }
+
+    private void write(String path, String contents) throws Exception {
+        FileUtils.writeStringToFile(new File(projectRoot, path), contents, "UTF-8");
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class XcodeProjectParserTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File sample;
+    private File projectRoot;
+    private String userName;
+
+    @Before
+    public void setUp() throws Exception {
+        sample = FileUtils.toFile(ClassLoader.getSystemResource("SampleXcodeProject"));
+        projectRoot = tmp.getRoot();
+        // the user schemes of the sample project belong to ci
+        userName = System.getProperty("user.name");
+        System.setProperty("user.name", "ci");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.setProperty("user.name", userName);
+    }
+
+    @Test
+    public void shouldListProjectLikeXcodebuild() throws Exception {
+        XcodeBuildListParser expected = new XcodeBuildListParser(FileUtils.readFileToString(
+                FileUtils.toFile(ClassLoader.getSystemResource("xcodebuildlist-valid.txt"))));
+
+        XcodeBuildListParser parser = XcodeProjectParser.parseProject(new File(sample, "SampleXcodeProject.xcodeproj"));
+
+        assertEquals(expected.getTargets(), parser.getTargets());
+        assertEquals(expected.getConfigurations(), parser.getConfigurations());
+        assertEquals(expected.getSchemes(), parser.getSchemes());
+    }
+
+    @Test
+    public void shouldPickTheOnlyProjectOfTheDirectory() throws Exception {
+        XcodeBuildListParser parser = XcodeProjectParser.parse(sample, "", null);
+
+        assertEquals(Arrays.asList("SampleScheme1", "SampleScheme2"), parser.getSchemes());
+        assertEquals(parser.getSchemes(), XcodeProjectParser.parse(sample, null, "SampleXcodeProject.xcodeproj").getSchemes());
+        assertEquals(parser.getSchemes(), XcodeProjectParser.parse(sample, null, "SampleXcodeProject").getSchemes());
+    }
+
+    @Test
+    public void shouldListSchemesOfTheProjectsOfAWorkspace() throws Exception {
+        XcodeBuildListParser parser = XcodeProjectParser.parse(sample, "SampleXcodeProject", null);
+
+        assertEquals(Collections.emptyList(), parser.getTargets());
+        assertEquals(Collections.emptyList(), parser.getConfigurations());
+        assertEquals(Arrays.asList("Pods-SampleTarget1", "SampleScheme1", "SampleScheme2"), parser.getSchemes());
+    }
+
+    @Test
+    public void shouldResolveWorkspaceLocations() throws Exception {
+        write("App.xcworkspace/contents.xcworkspacedata", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<Workspace version = \"1.0\">\n"
+                + "  <Group location = \"group:Modules\" name = \"Modules\">\n"
+                + "    <FileRef location = \"group:Core/Core.xcodeproj\"></FileRef>\n"
+                + "    <Group location = \"container:Vendor\" name = \"Vendor\">\n"
+                + "      <FileRef location = \"group:Lib.xcodeproj\"></FileRef>\n"
+                + "    </Group>\n"
+                + "  </Group>\n"
+                + "  <FileRef location = \"container:App/App.xcodeproj\"></FileRef>\n"
+                + "  <FileRef location = \"absolute:/opt/Shared.xcodeproj\"></FileRef>\n"
+                + "  <FileRef location = \"group:README.md\"></FileRef>\n"
+                + "</Workspace>\n");
+
+        assertEquals(Arrays.asList(
+                new File(projectRoot, "Modules/Core/Core.xcodeproj"),
+                new File(projectRoot, "Vendor/Lib.xcodeproj"),
+                new File(projectRoot, "App/App.xcodeproj"),
+                new File("/opt/Shared.xcodeproj")),
+                XcodeProjectParser.workspaceProjects(new File(projectRoot, "App.xcworkspace")));
+    }
+
+    @Test
+    public void shouldOnlyListTheSchemesOfTheCurrentUser() throws Exception {
+        write("App.xcodeproj/project.pbxproj", "{ objects = { }; }");
+        write("App.xcodeproj/xcshareddata/xcschemes/App.xcscheme", "<Scheme/>");
+        write("App.xcodeproj/xcuserdata/ci.xcuserdatad/xcschemes/Mine.xcscheme", "<Scheme/>");
+        write("App.xcodeproj/xcuserdata/someone.xcuserdatad/xcschemes/Theirs.xcscheme", "<Scheme/>");
+
+        assertEquals(Arrays.asList("App", "Mine"), XcodeProjectParser.parse(projectRoot, null, null).getSchemes());
+    }
+
+    @Test
+    public void shouldLeaveGeneratedSchemesToXcodebuild() throws Exception {
+        write("App.xcodeproj/project.pbxproj", "{ objects = { P = { isa = PBXProject; targets = ( T ); }; "
+                + "T = { isa = PBXNativeTarget; name = App; }; }; rootObject = P; }");
+        assertNull(XcodeProjectParser.parse(projectRoot, null, null));
+
+        write("App.xcodeproj/xcshareddata/xcschemes/App.xcscheme", "<Scheme/>");
+        assertEquals(Arrays.asList("App"), XcodeProjectParser.parse(projectRoot, null, null).getTargets());
+
+        write("App.xcodeproj/project.pbxproj", "{ objects = { P = { isa = PBXProject; targets = ( T ); packageReferences = ( R ); }; "
+                + "T = { isa = PBXNativeTarget; name = App; }; }; rootObject = P; }");
+        assertNull(XcodeProjectParser.parse(projectRoot, null, null));
+    }
+
+    @Test
+    public void shouldNotGuessBetweenSeveralProjects() throws Exception {
+        write("App.xcodeproj/project.pbxproj", "{ objects = { }; }");
+        write("Other.xcodeproj/project.pbxproj", "{ objects = { }; }");
+        assertNull(XcodeProjectParser.parse(projectRoot, null, null));
+    }
+
+    private void write(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(projectRoot, path), content, "UTF-8");
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.plist;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OpenStepPlistParserTest {
+    @Test
+    public void shouldParseNestedValuesInOrder() throws Exception {
+        Map<?, ?> root = (Map<?, ?>) OpenStepPlistParser.parse("// !$*UTF8*$!\n"
+                + "{\n"
+                + "\tarchiveVersion = 1;\n"
+                + "\tclasses = {\n\t};\n"
+                + "\tobjects = {\n"
+                + "/* Begin PBXProject section */\n"
+                + "\t\tA1 /* Project object */ = {isa = PBXProject; targets = (B2 /* App */, C3, ); };\n"
+                + "\t};\n"
+                + "\trootObject = A1 /* Project object */;\n"
+                + "}\n");
+
+        assertEquals(Arrays.asList("archiveVersion", "classes", "objects", "rootObject"), Arrays.asList(root.keySet().toArray()));
+        assertEquals("1", root.get("archiveVersion"));
+        assertEquals(Collections.emptyMap(), root.get("classes"));
+        Map<?, ?> project = (Map<?, ?>) ((Map<?, ?>) root.get("objects")).get("A1");
+        assertEquals("PBXProject", project.get("isa"));
+        assertEquals(Arrays.asList("B2", "C3"), project.get("targets"));
+        assertEquals("A1", root.get("rootObject"));
+    }
+
+    @Test
+    public void shouldParseStrings() throws Exception {
+        List<?> strings = (List<?>) OpenStepPlistParser.parse("(\"$(inherited)\", \"-ObjC\", com.apple.product-type.application, "
+                + "\"a \\\"quoted\\\" \\\\ \\t\\n\", 'single', \"\\U00e9\\101\", \"\", SDKROOT/usr/lib_$x:y+z)");
+
+        assertEquals(Arrays.asList("$(inherited)", "-ObjC", "com.apple.product-type.application",
+                "a \"quoted\" \\ \t\n", "single", "\u00e9A", "", "SDKROOT/usr/lib_$x:y+z"), strings);
+    }
+
+    @Test
+    public void shouldQuoteOnlyWhenNeeded() throws Exception {
+        assertEquals("1.2.3", OpenStepPlistParser.quote("1.2.3"));
+        assertEquals("\"\"", OpenStepPlistParser.quote(""));
+        for (String value : new String[] {"1.0 beta", "a \"b\" \\ c\n", "$(inherited)"}) {
+            assertEquals(value, OpenStepPlistParser.parse(OpenStepPlistParser.quote(value)));
+        }
+    }
+
+    @Test
+    public void shouldParseData() throws Exception {
+        assertArrayEquals(new byte[] {0x0f, (byte) 0xa0, 0x12}, (byte[]) OpenStepPlistParser.parse("<0fa0 12>"));
+    }
+
+    @Test
+    public void shouldRejectMalformedText() throws Exception {
+        String[] malformed = {"{ a = b }x", "{ a = b", "{ a b; }", "( a b )", "\"open", "<0f0>", "/* open", "{ = b; }", ""};
+        for (String text : malformed) {
+            try {
+                OpenStepPlistParser.parse(text);
+                fail("Parsed " + text);
+            } catch (PlistException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(" at line "));
+            }
+        }
+    }
+
+    @Test
+    public void shouldParseLargeProjectsQuickly() throws Exception {
+        StringBuilder text = new StringBuilder("{ objects = {\n");
+        for (int i = 0; i < 50000; i++) {
+            text.append("\t\t").append(1000000 + i).append(" /* File").append(i).append(".m */ = {isa = PBXFileReference; ")
+                    .append("lastKnownFileType = sourcecode.c.objc; path = \"File").append(i).append(".m\"; sourceTree = \"<group>\"; };\n");
+        }
+        text.append("}; }\n");
+
+        long start = System.nanoTime();
+        Map<?, ?> objects = (Map<?, ?>) ((Map<?, ?>) OpenStepPlistParser.parse(text.toString())).get("objects");
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(50000, objects.size());
+        assertTrue("Took " + millis + " ms for " + text.length() + " chars", millis < 5000);
+    }
+}
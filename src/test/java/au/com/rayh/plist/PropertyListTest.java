@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.plist;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PropertyListTest {
+    @Test
+    public void shouldReadBinaryAndXmlAlike() throws Exception {
+        byte[] binary = resource("Info-binary.plist");
+        byte[] xml = resource("Info-xml.plist");
+        assertEquals(PropertyList.Format.BINARY, PropertyList.detect(binary));
+        assertEquals(PropertyList.Format.XML, PropertyList.detect(xml));
+
+        assertSample(PropertyList.parse(binary));
+        assertSample(PropertyList.parse(xml));
+    }
+
+    @Test
+    public void shouldWriteXmlLikeApple() throws Exception {
+        byte[] xml = resource("Info-xml.plist");
+        assertEquals(new String(xml, "UTF-8"), new String(PropertyList.format(PropertyList.parse(xml), PropertyList.Format.XML), "UTF-8"));
+    }
+
+    @Test
+    public void shouldRoundTripBinary() throws Exception {
+        byte[] binary = PropertyList.format(PropertyList.parse(resource("Info-xml.plist")), PropertyList.Format.BINARY);
+        assertEquals(PropertyList.Format.BINARY, PropertyList.detect(binary));
+        assertSample(PropertyList.parse(binary));
+    }
+
+    @Test
+    public void shouldRoundTripLongStringsAndManyObjects() throws Exception {
+        Map<String, Object> root = PropertyList.newDictionary();
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            root.put("Key" + i, (long) i * 1000);
+            longString.append('é');
+        }
+        root.put("Long", longString.toString());
+
+        Map<?, ?> read = (Map<?, ?>) PropertyList.parse(PropertyList.format(root, PropertyList.Format.BINARY));
+        assertEquals(root, read);
+    }
+
+    @Test
+    public void shouldSetValuesKeepingTheirType() throws Exception {
+        Object root = PropertyList.parse(resource("Info-binary.plist"));
+
+        PropertyList.set(root, ":CFBundleIdentifier", "com.example.other");
+        PropertyList.set(root, ":UIDeviceFamily:0", "3");
+        PropertyList.set(root, ":LSRequiresIPhoneOS", "NO");
+        PropertyList.set(root, "Nested:Escaped", "<&>");
+
+        assertEquals("com.example.other", PropertyList.get(root, ":CFBundleIdentifier"));
+        assertEquals(3L, PropertyList.get(root, ":UIDeviceFamily:0"));
+        assertEquals(Boolean.FALSE, PropertyList.get(root, ":LSRequiresIPhoneOS"));
+        Object read = PropertyList.parse(PropertyList.format(root, PropertyList.Format.XML));
+        assertEquals("<&>", PropertyList.get(read, ":Nested:Escaped"));
+    }
+
+    @Test
+    public void shouldNotSetMissingOrMistypedValues() throws Exception {
+        Object root = PropertyList.parse(resource("Info-xml.plist"));
+        String[][] invalid = {{":Missing", "x"}, {":Nested:Missing", "x"}, {":UIDeviceFamily:5", "1"}, {":UIDeviceFamily:0", "x"}, {":Nested", "x"}};
+        for (String[] set : invalid) {
+            try {
+                PropertyList.set(root, set[0], set[1]);
+                fail("Set " + set[0]);
+            } catch (PlistException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadOpenStepPropertyLists() throws Exception {
+        byte[] openStep = "{ CFBundleVersion = 3; UIDeviceFamily = (1, 2); }".getBytes("UTF-8");
+        assertEquals(PropertyList.Format.OPENSTEP, PropertyList.detect(openStep));
+        assertEquals("2", PropertyList.get(PropertyList.parse(openStep), ":UIDeviceFamily:1"));
+    }
+
+    @Test
+    public void shouldRejectMalformedPropertyLists() throws Exception {
+        byte[] binary = resource("Info-binary.plist");
+        byte[][] malformed = {
+                "<?xml version=\"1.0\"?><plist><dict><key>a</key><integer>x</integer></dict></plist>".getBytes("UTF-8"),
+                "<plist><dict><key>a</key><string>b</string>".getBytes("UTF-8"),
+                "<plist><unknown/></plist>".getBytes("UTF-8"),
+                Arrays.copyOf(binary, binary.length - 1),
+                Arrays.copyOf(binary, 20),
+        };
+        for (byte[] data : malformed) {
+            try {
+                PropertyList.parse(data);
+                fail("Parsed " + new String(data, "UTF-8"));
+            } catch (PlistException e) {
+                // expected
+            }
+        }
+    }
+
+    private static void assertSample(Object root) throws Exception {
+        assertEquals("Sample App é", PropertyList.get(root, ":CFBundleDisplayName"));
+        assertEquals("com.example.sample", PropertyList.get(root, ":CFBundleIdentifier"));
+        assertEquals("42", PropertyList.get(root, "CFBundleVersion"));
+        assertEquals(Boolean.TRUE, PropertyList.get(root, ":LSRequiresIPhoneOS"));
+        assertEquals(Arrays.asList("armv7", "arm64"), PropertyList.get(root, ":UIRequiredDeviceCapabilities"));
+        assertEquals(2L, PropertyList.get(root, ":UIDeviceFamily:1"));
+        assertEquals(10.5, PropertyList.get(root, ":MinimumOSVersionNumber"));
+        assertEquals(new Date(1527856215000L), PropertyList.get(root, ":BuildDate"));
+        assertArrayEquals("\u0000\u0001\u0002binary".getBytes("UTF-8"), (byte[]) PropertyList.get(root, ":Token"));
+        assertEquals(5000000000L, PropertyList.get(root, ":LargeNumber"));
+        assertEquals(-3L, PropertyList.get(root, ":NegativeNumber"));
+        assertEquals(Collections.emptyMap(), PropertyList.get(root, ":Nested:Empty"));
+        assertEquals(Collections.emptyList(), PropertyList.get(root, ":Nested:EmptyArray"));
+        assertEquals("a < b & c > d", PropertyList.get(root, ":Nested:Escaped"));
+        assertNull(PropertyList.get(root, ":Nested:Escaped:Deeper"));
+        assertNull(PropertyList.get(root, ":UIDeviceFamily:2"));
+        assertTrue(PropertyList.get(root, "") instanceof Map);
+    }
+
+    private static byte[] resource(String name) throws Exception {
+        return FileUtils.readFileToByteArray(FileUtils.toFile(ClassLoader.getSystemResource("plist/" + name)));
+    }
+}
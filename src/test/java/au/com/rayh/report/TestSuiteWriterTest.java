@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package au.com.rayh.report;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class TestSuiteWriterTest {
+
+    @Test
+    public void shouldWriteSameReportAsJaxbWhenCasesAreSpooled() throws Exception {
+        TestSuite expected = new TestSuite("host", "LargeTests", new Date(1418360521000L));
+        TestSuite streamed = new TestSuite("host", "LargeTests", new Date(1418360521000L));
+        try (TestSuiteWriter writer = new TestSuiteWriter()) {
+            for (int i = 0; i < 1000; i++) {
+                TestCase testCase = createTestCase(i);
+                expected.getTestCases().add(testCase);
+                expected.addTest();
+                streamed.addTest();
+                if (i < 990) {
+                    writer.append(testCase);
+                } else {
+                    // the last few are still held by the suite when it is closed
+                    streamed.getTestCases().add(testCase);
+                }
+            }
+            expected.setEndTime(new Date(1418360523456L));
+            streamed.setEndTime(new Date(1418360523456L));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.writeTo(streamed, out);
+            assertEquals(marshal(expected), out.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void shouldWriteEmptySuite() throws Exception {
+        TestSuite suite = new TestSuite("host", "EmptyTests", new Date(1418360521000L));
+        try (TestSuiteWriter writer = new TestSuiteWriter()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.writeTo(suite, out);
+            assertEquals(marshal(suite), out.toString("UTF-8"));
+        }
+    }
+
+    private static TestCase createTestCase(int i) {
+        TestCase testCase = new TestCase("LargeTests", "test" + i);
+        testCase.setTime(i / 1000f);
+        if (i % 7 == 0) {
+            testCase.getFailures().add(new TestFailure("\"" + i + "\" is not equal to <" + (i + 1) + "> & é", "LargeTests.m:" + i));
+        }
+        if (i % 11 == 0) {
+            testCase.getErrors().add(new TestError("crashed", "NSInternalInconsistencyException"));
+        }
+        return testCase;
+    }
+
+    private static String marshal(TestSuite suite) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReportMarshaller.marshal(suite, out);
+        return out.toString("UTF-8");
+    }
+}